@@ -0,0 +1,163 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.talanlabs.sonar.plugins.gitlab.models.Issue;
+import com.talanlabs.sonar.plugins.gitlab.models.IssuesSummary;
+import com.talanlabs.sonar.plugins.gitlab.models.QualityGate;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.config.PropertyDefinition;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Digest of analysis output (quality gate, issues and plugin configuration) last published for a commit, stored in cache dir
+ */
+public class AnalysisDigest {
+
+    private static final Logger LOG = Loggers.get(AnalysisDigest.class);
+
+    private static final String DIGEST = "digest";
+    private static final String STATUS = "status";
+    private static final String STATUS_DESCRIPTION = "statusDescription";
+
+    private static final Comparator<Issue> ISSUE_COMPARATOR = Comparator.comparing(Issue::getKey, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(i -> i.getFile() != null ? i.getFile().getPath() : "").thenComparing(i -> i.getLine() != null ? i.getLine() : -1)
+            .thenComparing(i -> i.getMessage() != null ? i.getMessage() : "");
+
+    private final File file;
+    private final Properties previous;
+
+    AnalysisDigest(File file, Properties previous) {
+        this.file = file;
+        this.previous = previous;
+    }
+
+    /**
+     * @return last published digest for the commit, empty if not exists
+     */
+    public static AnalysisDigest load(File cacheDir, @Nullable String projectId, String sha) {
+        String name = "digest-" + Hashing.sha256().hashString(projectId + "/" + sha, StandardCharsets.UTF_8).toString().substring(0, 16) + ".properties";
+        File file = new File(cacheDir, name);
+        Properties previous = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                previous.load(in);
+            } catch (IOException e) {
+                LOG.warn("Unable to read digest {}, analysis is published", file, e);
+            }
+        }
+        return new AnalysisDigest(file, previous);
+    }
+
+    /**
+     * @return digest of analysis output, counts are used when only first issues are loaded
+     */
+    public static String compute(Configuration configuration, @Nullable QualityGate qualityGate, IssuesSummary issues) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putNullable(hasher, configuration.get(CoreProperties.SERVER_BASE_URL).orElse(null));
+        for (PropertyDefinition propertyDefinition : GitLabPlugin.definitions()) {
+            putNullable(hasher, propertyDefinition.key());
+            putNullable(hasher, configuration.get(propertyDefinition.key()).orElse(null));
+        }
+        if (qualityGate != null) {
+            putNullable(hasher, qualityGate.getStatus() != null ? qualityGate.getStatus().name() : null);
+            for (QualityGate.Condition condition : qualityGate.getConditions()) {
+                putNullable(hasher, condition.getStatus() != null ? condition.getStatus().name() : null);
+                putNullable(hasher, condition.getMetricKey());
+                putNullable(hasher, condition.getActual());
+                putNullable(hasher, condition.getWarning());
+                putNullable(hasher, condition.getError());
+            }
+        }
+        if (!issues.isComplete()) {
+            for (Severity severity : Severity.values()) {
+                hasher.putInt(issues.getCount(severity));
+            }
+        }
+        issues.getIssues().stream().sorted(ISSUE_COMPARATOR).forEach(issue -> {
+            putNullable(hasher, issue.getKey());
+            putNullable(hasher, issue.getRuleKey());
+            putNullable(hasher, issue.getSeverity() != null ? issue.getSeverity().name() : null);
+            putNullable(hasher, issue.getFile() != null ? issue.getFile().getPath() : null);
+            putNullable(hasher, issue.getLine() != null ? issue.getLine().toString() : null);
+            putNullable(hasher, issue.getMessage());
+            hasher.putBoolean(issue.isNewIssue());
+        });
+        return hasher.hash().toString();
+    }
+
+    private static void putNullable(Hasher hasher, @Nullable String value) {
+        hasher.putString(value != null ? value : "", StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+
+    /**
+     * @return true if analysis output is the same than last published
+     */
+    public boolean isUnchanged(String digest) {
+        return digest.equals(previous.getProperty(DIGEST)) && previous.getProperty(STATUS) != null;
+    }
+
+    @CheckForNull
+    public String getPublishedStatus() {
+        return previous.getProperty(STATUS);
+    }
+
+    @CheckForNull
+    public String getPublishedStatusDescription() {
+        return previous.getProperty(STATUS_DESCRIPTION);
+    }
+
+    public void save(String digest, String status, @Nullable String statusDescription) {
+        Properties properties = new Properties();
+        properties.setProperty(DIGEST, digest);
+        properties.setProperty(STATUS, status);
+        if (statusDescription != null) {
+            properties.setProperty(STATUS_DESCRIPTION, statusDescription);
+        }
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, null);
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn("Unable to write digest {}", file, e);
+        }
+    }
+}
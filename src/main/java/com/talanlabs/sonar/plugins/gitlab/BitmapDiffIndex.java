@@ -0,0 +1,143 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Diff index with paths stored in a trie of interned segments, each file has one layer per revision with its added lines in a bitmap
+ * and hashes of their contents ordered by line number.
+ */
+public class BitmapDiffIndex implements DiffIndex {
+
+    private static final String SEPARATOR = "/";
+
+    private final Node root = new Node();
+    private final Map<String, String> segments = new HashMap<>();
+    private final List<String> revisions = new ArrayList<>();
+
+    @Override
+    public synchronized void addRevision(String revision, Map<String, Set<IGitLabApiWrapper.Line>> positions) {
+        int revisionIndex = revisions.size();
+        revisions.add(revision);
+        for (Map.Entry<String, Set<IGitLabApiWrapper.Line>> entry : positions.entrySet()) {
+            Node node = root;
+            for (String segment : entry.getKey().split(SEPARATOR, -1)) {
+                node = node.children.computeIfAbsent(segments.computeIfAbsent(segment, s -> s), s -> new Node());
+            }
+            node.layers.add(new Layer(revisionIndex, entry.getValue()));
+        }
+    }
+
+    @Override
+    public synchronized boolean hasFile(String path) {
+        Node node = find(path);
+        return node != null && !node.layers.isEmpty();
+    }
+
+    @Override
+    public synchronized Set<String> getFiles() {
+        Set<String> files = new TreeSet<>();
+        collectFiles(root, null, files);
+        return files;
+    }
+
+    private static void collectFiles(Node node, @Nullable String path, Set<String> files) {
+        if (path != null && !node.layers.isEmpty()) {
+            files.add(path);
+        }
+        node.children.forEach((segment, child) -> collectFiles(child, path != null ? path + SEPARATOR + segment : segment, files));
+    }
+
+    @Override
+    @CheckForNull
+    public synchronized String getRevisionForLine(String path, int lineNumber, @Nullable String content) {
+        Node node = find(path);
+        if (node == null) {
+            return null;
+        }
+        long contentHash = IGitLabApiWrapper.Line.hash(content);
+        for (Layer layer : node.layers) {
+            int rank = layer.lines.rank(lineNumber);
+            if (rank >= 0 && layer.contentHashes[rank] == contentHash) {
+                return revisions.get(layer.revisionIndex);
+            }
+        }
+        return null;
+    }
+
+    @CheckForNull
+    private Node find(String path) {
+        Node node = root;
+        int start = 0;
+        while (node != null) {
+            int end = path.indexOf(SEPARATOR, start);
+            String segment = end >= 0 ? path.substring(start, end) : path.substring(start);
+            node = node.children.get(segment);
+            if (end < 0) {
+                return node;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static class Node {
+
+        private final Map<String, Node> children = new HashMap<>(4);
+        private final List<Layer> layers = new ArrayList<>(1);
+    }
+
+    private static class Layer {
+
+        private final int revisionIndex;
+        private final LineBitmap lines;
+        private final long[] contentHashes;
+
+        Layer(int revisionIndex, Set<IGitLabApiWrapper.Line> positions) {
+            this.revisionIndex = revisionIndex;
+
+            IGitLabApiWrapper.Line[] sorted = positions.stream().filter(l -> l.getNumber() != null && l.getNumber() >= 0)
+                    .sorted(Comparator.comparingInt(IGitLabApiWrapper.Line::getNumber)).toArray(IGitLabApiWrapper.Line[]::new);
+            // A line number can be added once by diff
+            int[] numbers = new int[sorted.length];
+            long[] lineContentHashes = new long[sorted.length];
+            int size = 0;
+            for (IGitLabApiWrapper.Line line : sorted) {
+                if (size == 0 || numbers[size - 1] != line.getNumber()) {
+                    numbers[size] = line.getNumber();
+                    lineContentHashes[size] = line.getContentHash();
+                    size++;
+                }
+            }
+            this.lines = LineBitmap.of(Arrays.copyOf(numbers, size));
+            this.contentHashes = Arrays.copyOf(lineContentHashes, size);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read commit diff pages of OkHttp transport as a stream: only new_path and diff are read, diff text is given in chunks to patch parser.
+ * No diff objects, diff strings nor line arrays are created, memory is bounded by the positions found. Diffs loaded with java-gitlab-api are not streamed.
+ */
+public class CommitDiffStreamReader {
+
+    private final IGitLabHttpTransport httpTransport;
+    private final GitLabPagination pagination;
+
+    public CommitDiffStreamReader(IGitLabHttpTransport httpTransport, GitLabPagination pagination) {
+        this.httpTransport = httpTransport;
+        this.pagination = pagination;
+    }
+
+    /**
+     * @return positions per new path of all diff pages
+     */
+    public Map<String, Set<IGitLabApiWrapper.Line>> getPatchPositions(Integer projectId, String revision) throws IOException {
+        Map<String, Set<IGitLabApiWrapper.Line>> result = new HashMap<>();
+        pagination.forEachPage(httpTransport, "projects/" + projectId + "/repository/commits/" + revision + "/diff", Collections.emptyMap(), false, body -> read(body, result));
+        return result;
+    }
+
+    /**
+     * @return number of diffs read
+     */
+    static int read(InputStream body, Map<String, Set<IGitLabApiWrapper.Line>> result) throws IOException {
+        try (JsonChunkReader json = new JsonChunkReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            if (!json.nextIf('[')) {
+                throw new IOException("Commit diff is not an array");
+            }
+            int count = 0;
+            if (!json.nextIf(']')) {
+                do {
+                    readDiff(json, result);
+                    count++;
+                } while (json.nextIf(','));
+                json.expect(']');
+            }
+            return count;
+        }
+    }
+
+    private static void readDiff(JsonChunkReader json, Map<String, Set<IGitLabApiWrapper.Line>> result) throws IOException {
+        String newPath = null;
+        PatchUtils.PositionsParser positionsParser = new PatchUtils.PositionsParser();
+        json.expect('{');
+        if (!json.nextIf('}')) {
+            do {
+                String name = json.readString();
+                json.expect(':');
+                if ("new_path".equals(name) && json.peek() == '"') {
+                    newPath = json.readString();
+                } else if ("diff".equals(name) && json.peek() == '"') {
+                    json.readString(positionsParser::append);
+                } else {
+                    json.skipValue();
+                }
+            } while (json.nextIf(','));
+            json.expect('}');
+        }
+        if (newPath != null) {
+            result.put(newPath, positionsParser.finish());
+        }
+    }
+}
@@ -19,6 +19,8 @@
  */
 package com.talanlabs.sonar.plugins.gitlab;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.talanlabs.sonar.plugins.gitlab.models.JsonMode;
 import org.sonar.api.batch.InstantiationStrategy;
@@ -34,9 +36,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 /**
  * Facade for all WS interaction with GitLab.
@@ -49,28 +55,49 @@ public class CommitFacade {
 
     private static final String CODECLIMATE_JSON_NAME = "codeclimate.json";
     private static final String SAST_JSON_NAME = "gl-sast-report.json";
+    private static final String METRICS_JSON_NAME = "sonar-gitlab-metrics.json";
+    private static final String COMMIT_CONTEXT = "sonarqube";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private final GitLabPluginConfiguration gitLabPluginConfiguration;
+    private final PostJobMetrics postJobMetrics;
+    private final ExecutionEngine executionEngine;
     private final String ruleUrlPrefix;
     private File gitBaseDir;
 
+    private final DiffIndex diffIndex = new BitmapDiffIndex();
     private IGitLabApiWrapper gitLabWrapper;
+    private IGitLabHttpTransport statusTransport;
 
-    public CommitFacade(GitLabPluginConfiguration gitLabPluginConfiguration) {
+    public CommitFacade(GitLabPluginConfiguration gitLabPluginConfiguration, PostJobMetrics postJobMetrics, ExecutionEngine executionEngine) {
         this.gitLabPluginConfiguration = gitLabPluginConfiguration;
+        this.postJobMetrics = postJobMetrics;
+        this.executionEngine = executionEngine;
 
         this.ruleUrlPrefix = gitLabPluginConfiguration.baseUrl();
+        GitLabPagination pagination = new GitLabPagination(gitLabPluginConfiguration.pageSize(), postJobMetrics);
 
         if (GitLabPlugin.V3_API_VERSION.equals(gitLabPluginConfiguration.apiVersion())) {
-            this.gitLabWrapper = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+            this.gitLabWrapper = new GitLabApiV3Wrapper(gitLabPluginConfiguration, pagination, executionEngine);
         } else if (GitLabPlugin.V4_API_VERSION.equals(gitLabPluginConfiguration.apiVersion())) {
-            this.gitLabWrapper = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+            this.gitLabWrapper = new GitLabApiV4Wrapper(gitLabPluginConfiguration, pagination, executionEngine);
+        } else if (GitLabPlugin.GRAPHQL_API_VERSION.equals(gitLabPluginConfiguration.apiVersion())) {
+            this.gitLabWrapper = new GitLabApiGraphQLWrapper(gitLabPluginConfiguration, pagination, executionEngine);
+        }
+        if (gitLabWrapper != null) {
+            gitLabWrapper.setDiffIndex(diffIndex);
         }
     }
 
     @VisibleForTesting
     void setGitLabWrapper(IGitLabApiWrapper gitLabWrapper) {
         this.gitLabWrapper = gitLabWrapper;
+        this.gitLabWrapper.setDiffIndex(diffIndex);
+    }
+
+    @VisibleForTesting
+    void setStatusTransport(IGitLabHttpTransport statusTransport) {
+        this.statusTransport = statusTransport;
     }
 
     public static String encodeForUrl(String url) {
@@ -83,8 +110,11 @@ public class CommitFacade {
 
     public void init(File projectBaseDir) {
         initGitBaseDir(projectBaseDir);
+        if (GitLabPlugin.GIT_DIFF_SOURCE.equals(gitLabPluginConfiguration.diffSource())) {
+            gitLabWrapper.setLocalGitDiffProvider(new LocalGitDiffProvider(gitBaseDir));
+        }
 
-        gitLabWrapper.init();
+        postJobMetrics.time("gitlab-init", gitLabWrapper::init);
     }
 
     void initGitBaseDir(File projectBaseDir) {
@@ -117,25 +147,81 @@ public class CommitFacade {
         return gitLabWrapper.hasSameCommitCommentsForFile(revision, path, lineNumber, body);
     }
 
+    public void keepReviewComment(File file, Integer lineNumber) {
+        gitLabWrapper.keepReviewComment(getPath(file), lineNumber);
+    }
+
     /**
      * Author Email is access only for admin gitlab user but search work for all users
      */
     public String getUsernameForRevision(String revision) {
-        return gitLabWrapper.getUsernameForRevision(revision);
+        return postJobMetrics.time("gitlab-username", () -> gitLabWrapper.getUsernameForRevision(revision));
     }
 
     public void createOrUpdateSonarQubeStatus(String status, String statusDescription) {
-        gitLabWrapper.createOrUpdateSonarQubeStatus(status, statusDescription);
+        postJobMetrics.time("gitlab-status", () -> gitLabWrapper.createOrUpdateSonarQubeStatus(status, statusDescription));
+    }
+
+    /**
+     * Single call without init, used to check previous publication is still visible
+     *
+     * @return true if last SonarQube status of commit has same state and description
+     */
+    public boolean hasSameSonarQubeStatus(String status, @Nullable String statusDescription) {
+        return postJobMetrics.time("gitlab-status-check", () -> {
+            try {
+                GitLabHttpResponse response = getStatusTransport().getCommitStatuses(gitLabPluginConfiguration.projectId(), gitLabPluginConfiguration.commitSHA().get(0), COMMIT_CONTEXT);
+                JsonNode statuses = MAPPER.readTree(response.getBody());
+                if (!statuses.isArray() || statuses.size() == 0) {
+                    return false;
+                }
+                JsonNode last = statuses.get(0);
+                return status.equals(last.path("status").asText()) && Objects.equals(statusDescription, last.path("description").asText(null));
+            } catch (IOException e) {
+                LOG.debug("Unable to get commit status", e);
+                return false;
+            }
+        });
+    }
+
+    private IGitLabHttpTransport getStatusTransport() {
+        if (statusTransport == null) {
+            String apiVersion = GitLabPlugin.V3_API_VERSION.equals(gitLabPluginConfiguration.apiVersion()) ? GitLabPlugin.V3_API_VERSION : GitLabPlugin.V4_API_VERSION;
+            String apiUrl = GitLabPlugin.apiUrl(gitLabPluginConfiguration.url(), apiVersion);
+            if (GitLabPlugin.OKHTTP_HTTP_TRANSPORT.equals(gitLabPluginConfiguration.httpTransport())) {
+                statusTransport = new OkHttpGitLabTransport(gitLabPluginConfiguration, apiUrl, postJobMetrics, executionEngine);
+            } else {
+                statusTransport = new UrlConnectionGitLabTransport(gitLabPluginConfiguration, apiUrl, postJobMetrics, executionEngine);
+            }
+        }
+        return statusTransport;
     }
 
     public boolean hasFile(File file) {
         String path = getPath(file);
-        return gitLabWrapper.hasFile(path);
+        return diffIndex.hasFile(path);
+    }
+
+    /**
+     * @return files in diff of commits, paths outside of prefix directory are ignored
+     */
+    public List<File> getDiffFiles() {
+        String prefix = gitLabPluginConfiguration.prefixDirectory() != null ? gitLabPluginConfiguration.prefixDirectory() : "";
+        return diffIndex.getFiles().stream().filter(p -> p.startsWith(prefix)).map(p -> new File(gitBaseDir, p.substring(prefix.length()))).collect(Collectors.toList());
     }
 
     public String getRevisionForLine(File file, int lineNumber) {
         String path = getPath(file);
-        return gitLabWrapper.getRevisionForLine(file, path, lineNumber);
+        String content = null;
+        try {
+            List<String> lines = Files.readAllLines(file.toPath());
+            content = lines.size() >= lineNumber ? lines.get(lineNumber > 0 ? lineNumber - 1 : 0) : null;
+        } catch (IOException e) {
+            LOG.trace("Not read all line for file {}", file, e);
+        }
+        String revision = diffIndex.getRevisionForLine(path, lineNumber, content);
+        LOG.debug("getRevisionForLine {} {} {}", path, lineNumber, revision);
+        return revision;
     }
 
     @CheckForNull
@@ -157,7 +243,7 @@ public class CommitFacade {
 
     public void createOrUpdateReviewComment(String revision, File file, Integer line, String body) {
         String fullPath = getPath(file);
-        gitLabWrapper.createOrUpdateReviewComment(revision, fullPath, line, body);
+        postJobMetrics.time("gitlab-inline-comment", () -> gitLabWrapper.createOrUpdateReviewComment(revision, fullPath, line, body));
     }
 
     String getPath(File file) {
@@ -166,7 +252,14 @@ public class CommitFacade {
     }
 
     public void addGlobalComment(String comment) {
-        gitLabWrapper.addGlobalComment(comment);
+        postJobMetrics.time("gitlab-global-comment", () -> gitLabWrapper.addGlobalComment(comment));
+    }
+
+    /**
+     * Send review comments kept for batching
+     */
+    public void flush() {
+        postJobMetrics.time("gitlab-flush", gitLabWrapper::flush);
     }
 
     public String getRuleLink(String ruleKey) {
@@ -189,4 +282,20 @@ public class CommitFacade {
             }
         }
     }
+
+    /**
+     * Write post job metrics next to the json report, nothing is written when Git base directory is unknown (init not done)
+     */
+    public void writeMetricsJsonFile(String json) {
+        if (gitBaseDir == null) {
+            LOG.warn("Unable to write {}, Git base directory is unknown", METRICS_JSON_NAME);
+            return;
+        }
+        File file = new File(gitBaseDir, METRICS_JSON_NAME);
+        try {
+            Files.write(Paths.get(file.getAbsolutePath()), json.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw MessageException.of("Failed to write file " + file.toString(), e);
+        }
+    }
 }
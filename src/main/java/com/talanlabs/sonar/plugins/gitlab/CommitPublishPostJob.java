@@ -20,6 +20,8 @@
 package com.talanlabs.sonar.plugins.gitlab;
 
 import com.talanlabs.sonar.plugins.gitlab.models.Issue;
+import com.talanlabs.sonar.plugins.gitlab.models.IssuesSummary;
+import com.talanlabs.sonar.plugins.gitlab.models.JsonMode;
 import com.talanlabs.sonar.plugins.gitlab.models.QualityGate;
 import com.talanlabs.sonar.plugins.gitlab.models.StatusNotificationsMode;
 import org.sonar.api.batch.fs.InputFile;
@@ -35,6 +37,7 @@ import java.io.File;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -51,12 +54,17 @@ public class CommitPublishPostJob implements PostJob {
     private final SonarFacade sonarFacade;
     private final CommitFacade commitFacade;
     private final ReporterBuilder reporterBuilder;
+    private final PostJobMetrics postJobMetrics;
+    private final ExecutionEngine executionEngine;
 
-    public CommitPublishPostJob(GitLabPluginConfiguration gitLabPluginConfiguration, SonarFacade sonarFacade, CommitFacade commitFacade, ReporterBuilder reporterBuilder) {
+    public CommitPublishPostJob(GitLabPluginConfiguration gitLabPluginConfiguration, SonarFacade sonarFacade, CommitFacade commitFacade, ReporterBuilder reporterBuilder,
+            PostJobMetrics postJobMetrics, ExecutionEngine executionEngine) {
         this.gitLabPluginConfiguration = gitLabPluginConfiguration;
         this.sonarFacade = sonarFacade;
         this.commitFacade = commitFacade;
         this.reporterBuilder = reporterBuilder;
+        this.postJobMetrics = postJobMetrics;
+        this.executionEngine = executionEngine;
     }
 
     @Override
@@ -68,6 +76,7 @@ public class CommitPublishPostJob implements PostJob {
 
     @Override
     public void execute(PostJobContext context) {
+        long start = System.nanoTime();
         try {
             if (!gitLabPluginConfiguration.isEnabled()) {
                 LOG.info("GitLab plugin is disabled");
@@ -82,23 +91,84 @@ public class CommitPublishPostJob implements PostJob {
                 throw MessageException.of("SonarQube failed because sonar.working.directory is null");
             }
             sonarFacade.init(baseDir, workDir);
-            commitFacade.init(baseDir);
 
-            if (StatusNotificationsMode.COMMIT_STATUS.equals(gitLabPluginConfiguration.statusNotificationsMode())) {
-                commitFacade.createOrUpdateSonarQubeStatus(gitLabPluginConfiguration.buildInitState().getMeaning(), "SonarQube analysis in progress");
-            }
             QualityGate qualityGate;
-            List<Issue> issues;
-            if (context.analysisMode().isPublish()) {
-                qualityGate = sonarFacade.loadQualityGate();
-                issues = sonarFacade.getNewIssues();
+            IssuesSummary issues;
+            AnalysisDigest analysisDigest = null;
+            String digest = null;
+            if (isSkipUnchanged(context)) {
+                // GitLab is only read for published status until the analysis is known to be changed
+                commitFacade.initGitBaseDir(baseDir);
+                analysisDigest = AnalysisDigest.load(new File(gitLabPluginConfiguration.cacheDir()), gitLabPluginConfiguration.projectId(), gitLabPluginConfiguration.commitSHA().get(0));
+                if (gitLabPluginConfiguration.concurrentPostJob()) {
+                    try (ExecutionEngine.Scope scope = executionEngine.newScope()) {
+                        CompletableFuture<QualityGate> qualityGateFuture = scope.track(sonarFacade.loadQualityGateAsync());
+                        CompletableFuture<IssuesSummary> issuesFuture;
+                        if (isSearchSummaryOnly()) {
+                            issuesFuture = scope.fork(this::searchNewIssuesWithoutDiff);
+                        } else {
+                            CompletableFuture<List<Issue>> newIssuesFuture = scope.track(sonarFacade.getNewIssuesAsync());
+                            issuesFuture = scope.track(newIssuesFuture.thenApply(IssuesSummary::of));
+                        }
+
+                        scope.join();
+
+                        qualityGate = qualityGateFuture.join();
+                        issues = issuesFuture.join();
+                    }
+                } else {
+                    qualityGate = sonarFacade.loadQualityGate();
+                    issues = searchNewIssuesWithoutDiff();
+                }
+
+                digest = AnalysisDigest.compute(context.config(), qualityGate, issues);
+                String publishedStatus = analysisDigest.getPublishedStatus();
+                boolean publishedStatusVisible = publishedStatus != null && commitFacade.hasSameSonarQubeStatus(publishedStatus, analysisDigest.getPublishedStatusDescription());
+                if (publishedStatusVisible && analysisDigest.isUnchanged(digest)) {
+                    LOG.info("Analysis unchanged since last publication, status={}, desc={}", publishedStatus, analysisDigest.getPublishedStatusDescription());
+                    return;
+                }
+
+                initCommitFacade(baseDir);
+            } else if (context.analysisMode().isPublish() && gitLabPluginConfiguration.concurrentPostJob()) {
+                try (ExecutionEngine.Scope scope = executionEngine.newScope()) {
+                    CompletableFuture<Void> gitLabFuture = scope.fork(() -> initCommitFacade(baseDir));
+                    CompletableFuture<QualityGate> qualityGateFuture = scope.track(sonarFacade.loadQualityGateAsync());
+                    CompletableFuture<IssuesSummary> issuesFuture;
+                    if (isSearchCommitFilesOnly()) {
+                        // Issues of commit files need diff loaded by commit facade, search is forked once loaded so no task waits in pool
+                        issuesFuture = scope.track(gitLabFuture.thenCompose(v -> scope.fork(this::searchNewIssues)));
+                    } else if (isSearchSummaryOnly()) {
+                        issuesFuture = scope.fork(this::searchNewIssues);
+                    } else {
+                        // Cancelling a derived future does not cancel its source, both are tracked
+                        CompletableFuture<List<Issue>> newIssuesFuture = scope.track(sonarFacade.getNewIssuesAsync());
+                        issuesFuture = scope.track(newIssuesFuture.thenApply(IssuesSummary::of));
+                    }
+
+                    scope.join();
+
+                    qualityGate = qualityGateFuture.join();
+                    issues = issuesFuture.join();
+                }
             } else {
-                qualityGate = null;
-                issues = toIssues(context.issues());
+                initCommitFacade(baseDir);
+                if (context.analysisMode().isPublish()) {
+                    qualityGate = sonarFacade.loadQualityGate();
+                    issues = searchNewIssues();
+                } else {
+                    qualityGate = null;
+                    issues = IssuesSummary.of(toIssues(context.issues()));
+                }
             }
 
-            Reporter report = reporterBuilder.build(qualityGate, issues);
+            Reporter report = postJobMetrics.time("report",
+                    () -> issues.isComplete() ? reporterBuilder.build(qualityGate, issues.getIssues()) : reporterBuilder.buildFromSummary(qualityGate, issues));
             notification(report);
+
+            if (digest != null) {
+                analysisDigest.save(digest, report.getStatus(), report.getStatusDescription());
+            }
         } catch (MessageException e) {
             StatusNotificationsMode i = gitLabPluginConfiguration.statusNotificationsMode();
             if (i == StatusNotificationsMode.COMMIT_STATUS) {
@@ -113,7 +183,86 @@ public class CommitPublishPostJob implements PostJob {
             }
 
             throw MessageException.of(MessageHelper.sonarQubeFailed(e.getMessage()), e);
+        } finally {
+            if (gitLabPluginConfiguration.isEnabled()) {
+                executionEngine.shutdown();
+                postJobMetrics.recordPhase("post-job", System.nanoTime() - start);
+                logMetrics();
+            }
+        }
+    }
+
+    /**
+     * Previous publication can be checked only with commit status, json report must be written by each analysis.
+     * Quality gate and issues are loaded before GitLab init, so issues are not searched only in commit files.
+     */
+    private boolean isSkipUnchanged(PostJobContext context) {
+        if (!gitLabPluginConfiguration.skipUnchanged()) {
+            return false;
+        }
+        if (gitLabPluginConfiguration.cacheDir() == null) {
+            LOG.warn("Unchanged analysis can be skipped only with sonar.gitlab.cache_dir");
+            return false;
+        }
+        return context.analysisMode().isPublish() && StatusNotificationsMode.COMMIT_STATUS.equals(gitLabPluginConfiguration.statusNotificationsMode())
+                && JsonMode.NONE.equals(gitLabPluginConfiguration.jsonMode());
+    }
+
+    private void logMetrics() {
+        sonarFacade.logCacheStats();
+        postJobMetrics.log();
+
+        if (gitLabPluginConfiguration.metricsJson()) {
+            try {
+                commitFacade.writeMetricsJsonFile(postJobMetrics.toJson());
+            } catch (MessageException e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void initCommitFacade(File baseDir) {
+        commitFacade.init(baseDir);
+
+        if (StatusNotificationsMode.COMMIT_STATUS.equals(gitLabPluginConfiguration.statusNotificationsMode())) {
+            commitFacade.createOrUpdateSonarQubeStatus(gitLabPluginConfiguration.buildInitState().getMeaning(), "SonarQube analysis in progress");
+        }
+    }
+
+    private boolean isSearchCommitFilesOnly() {
+        return gitLabPluginConfiguration.searchCommitFilesOnly() && (gitLabPluginConfiguration.onlyIssueFromCommitFile() || gitLabPluginConfiguration.onlyIssueFromCommitLine());
+    }
+
+    /**
+     * Only counts and first issues are needed when issues are listed in global comment without filter on commit
+     */
+    private boolean isSearchSummaryOnly() {
+        String globalTemplate = gitLabPluginConfiguration.globalTemplate();
+        return gitLabPluginConfiguration.searchSummaryOnly() && !gitLabPluginConfiguration.tryReportIssuesInline() && !gitLabPluginConfiguration.onlyIssueFromCommitFile()
+                && !gitLabPluginConfiguration.onlyIssueFromCommitLine() && JsonMode.NONE.equals(gitLabPluginConfiguration.jsonMode()) && (globalTemplate == null || globalTemplate.isEmpty());
+    }
+
+    /**
+     * Search only issues of files in commit diff when other issues are not reported, or only a summary when issues are not reported inline
+     */
+    private IssuesSummary searchNewIssues() {
+        if (isSearchSummaryOnly()) {
+            return sonarFacade.getNewIssuesSummary(gitLabPluginConfiguration.maxGlobalIssues());
+        }
+        if (isSearchCommitFilesOnly()) {
+            return IssuesSummary.of(sonarFacade.getNewIssues(commitFacade.getDiffFiles()));
+        }
+        return IssuesSummary.of(sonarFacade.getNewIssues());
+    }
+
+    /**
+     * Issues of digest do not depend on commit diff, issues out of commit files are filtered by reporter
+     */
+    private IssuesSummary searchNewIssuesWithoutDiff() {
+        if (isSearchSummaryOnly()) {
+            return sonarFacade.getNewIssuesSummary(gitLabPluginConfiguration.maxGlobalIssues());
         }
+        return IssuesSummary.of(sonarFacade.getNewIssues());
     }
 
     private File fileFromProperty(PostJobContext context, String property) {
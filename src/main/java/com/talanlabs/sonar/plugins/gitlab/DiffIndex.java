@@ -0,0 +1,53 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Commentable lines of commits diff, populated by GitLab wrapper during init
+ */
+public interface DiffIndex {
+
+    /**
+     * Add diff positions of a revision, revisions are searched in order of addition
+     */
+    void addRevision(String revision, Map<String, Set<IGitLabApiWrapper.Line>> positions);
+
+    /**
+     * @return true if path is in diff of a revision
+     */
+    boolean hasFile(String path);
+
+    /**
+     * @return paths in diff of all revisions
+     */
+    Set<String> getFiles();
+
+    /**
+     * @param content current content of line, must be same than in diff
+     * @return first revision with this line added, null if not found
+     */
+    @CheckForNull
+    String getRevisionForLine(String path, int lineNumber, @Nullable String content);
+}
@@ -0,0 +1,234 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Diff index (commentable lines per file) of a commit stored in cache dir, a commit diff never changes for a SHA.
+ * <p>
+ * Binary format: magic, version, file count, then for each file its path, line count and lines (number, content hash).
+ * Oldest files are removed when cache is above max size.
+ */
+public class DiffIndexCache {
+
+    private static final Logger LOG = Loggers.get(DiffIndexCache.class);
+
+    private static final int MAGIC = 0x53474449;
+    private static final int VERSION = 2;
+    private static final String PREFIX = "diff-";
+    private static final String SUFFIX = ".bin";
+    // Below this size a plain read is cheaper than mapping the file
+    private static final long MAP_MIN_SIZE = 64 * 1024L;
+
+    private final File cacheDir;
+    private final long maxSize;
+
+    public DiffIndexCache(File cacheDir, long maxSize) {
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return cache if cache dir and max size are set, null otherwise
+     */
+    @CheckForNull
+    public static DiffIndexCache create(GitLabPluginConfiguration config) {
+        String cacheDir = config.cacheDir();
+        if (cacheDir == null || config.diffCacheMaxSize() <= 0) {
+            return null;
+        }
+        return new DiffIndexCache(new File(cacheDir), config.diffCacheMaxSize() * 1024L * 1024L);
+    }
+
+    /**
+     * @return diff index or null if not in cache, a truncated or corrupted file is deleted and read again from GitLab
+     */
+    @CheckForNull
+    public Map<String, Set<IGitLabApiWrapper.Line>> get(Integer projectId, String sha) {
+        File file = getFile(projectId, sha);
+        if (!file.isFile()) {
+            return null;
+        }
+        Map<String, Set<IGitLabApiWrapper.Line>> result;
+        try {
+            result = read(readBuffer(file));
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            LOG.debug("Unable to read diff cache {}", file, e);
+            result = null;
+        }
+        if (result == null) {
+            // A mapped buffer is unmapped only when garbage collected, deletion can fail until then on Windows and is retried by next read
+            delete(file);
+            return null;
+        }
+        // Last modified is used for eviction
+        file.setLastModified(System.currentTimeMillis());
+        return result;
+    }
+
+    /**
+     * Small files are read in heap, larger ones are mapped
+     */
+    private static ByteBuffer readBuffer(File file) throws IOException {
+        if (file.length() < MAP_MIN_SIZE) {
+            return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Counts and lengths are checked against remaining bytes, a corrupted file must not allocate more than its size
+     */
+    @CheckForNull
+    private static Map<String, Set<IGitLabApiWrapper.Line>> read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            LOG.debug("Ignore diff cache with unknown format");
+            return null;
+        }
+        // A file is at least its path length and line count, a line its number and content hash
+        int fileCount = readCount(buffer, 8);
+        Map<String, Set<IGitLabApiWrapper.Line>> result = new HashMap<>(fileCount * 2);
+        for (int i = 0; i < fileCount; i++) {
+            String path = readString(buffer);
+            int lineCount = readCount(buffer, 12);
+            Set<IGitLabApiWrapper.Line> lines = new HashSet<>(lineCount * 2);
+            for (int j = 0; j < lineCount; j++) {
+                checkRemaining(buffer, 12);
+                int number = buffer.getInt();
+                lines.add(IGitLabApiWrapper.Line.ofHash(number, buffer.getLong()));
+            }
+            result.put(path, lines);
+        }
+        if (buffer.hasRemaining()) {
+            throw new IOException("Unexpected " + buffer.remaining() + " bytes at end of diff cache");
+        }
+        return result;
+    }
+
+    private static int readCount(ByteBuffer buffer, int minBytesPerItem) throws IOException {
+        checkRemaining(buffer, 4);
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minBytesPerItem) {
+            throw new IOException("Invalid count " + count + " for " + buffer.remaining() + " remaining bytes in diff cache");
+        }
+        return count;
+    }
+
+    private static void checkRemaining(ByteBuffer buffer, int length) throws IOException {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Truncated diff cache, " + length + " bytes expected but " + buffer.remaining() + " remaining");
+        }
+    }
+
+    private static void delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOG.debug("Unable to delete diff cache {}", file, e);
+        }
+    }
+
+    public void put(Integer projectId, String sha, Map<String, Set<IGitLabApiWrapper.Line>> positions) {
+        File file = getFile(projectId, sha);
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            Path tmp = Files.createTempFile(cacheDir.toPath(), file.getName(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(positions.size());
+                for (Map.Entry<String, Set<IGitLabApiWrapper.Line>> entry : positions.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (IGitLabApiWrapper.Line line : entry.getValue()) {
+                        out.writeInt(line.getNumber());
+                        out.writeLong(line.getContentHash());
+                    }
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn("Unable to write diff cache {}", file, e);
+            return;
+        }
+        evict();
+    }
+
+    private void evict() {
+        File[] files = cacheDir.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long size = Arrays.stream(files).mapToLong(File::length).sum();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            size -= file.length();
+            LOG.debug("Evict diff cache {}", file);
+            if (!file.delete()) {
+                LOG.debug("Unable to delete diff cache {}", file);
+            }
+        }
+    }
+
+    private File getFile(Integer projectId, String sha) {
+        return new File(cacheDir, PREFIX + projectId + "-" + sha + SUFFIX);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        checkRemaining(buffer, 4);
+        int length = buffer.getInt();
+        checkRemaining(buffer, length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Executor of blocking I/O tasks of the post job, virtual threads on Java 21+ else a bounded pool of daemon threads.
+ * Tasks are forked in a scope which cancels them on first failure or when closed, executors are shut down at post job end.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+@ScannerSide
+public class ExecutionEngine {
+
+    private static final Logger LOG = Loggers.get(ExecutionEngine.class);
+    private static final String THREAD_NAME = "sonar-gitlab-task-";
+    private static final String HELPER_THREAD_NAME = "sonar-gitlab-helper-";
+
+    private final int maxThreads;
+    private final boolean virtualThreads;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private ExecutorService executorService;
+    private ExecutorService helperExecutorService;
+    private ScheduledExecutorService timeoutService;
+
+    public ExecutionEngine(GitLabPluginConfiguration gitLabPluginConfiguration) {
+        this(gitLabPluginConfiguration.maxThreads(), true);
+    }
+
+    ExecutionEngine(int maxThreads, boolean virtualThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return a new scope, close it to cancel its unfinished tasks
+     */
+    public Scope newScope() {
+        return new Scope();
+    }
+
+    /**
+     * Run task, cancelling the returned future interrupts it
+     *
+     * @param timeout timeout of task, 0 for none
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task, long timeout, TimeUnit unit) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> future = getExecutorService().submit(() -> {
+            try {
+                result.complete(task.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((r, e) -> {
+            if (e != null) {
+                future.cancel(true);
+            }
+        });
+
+        if (timeout > 0) {
+            ScheduledFuture<?> timeoutFuture = getTimeoutService().schedule(() -> result.completeExceptionally(new TimeoutException("Task timed out after " + unit.toMillis(timeout) + "ms")),
+                    timeout, unit);
+            result.whenComplete((r, e) -> timeoutFuture.cancel(false));
+        }
+        return result;
+    }
+
+    /**
+     * Executor of helper tasks awaited by a running task (ex: prefetch of next page, hedged request).
+     * It is not bounded, so a task never waits for a helper queued behind it, and it is shut down with the engine.
+     */
+    public synchronized ExecutorService getHelperExecutor() {
+        if (helperExecutorService == null) {
+            helperExecutorService = virtualThreads ? newVirtualThreadExecutor() : null;
+            if (helperExecutorService == null) {
+                helperExecutorService = Executors.newCachedThreadPool(r -> newThread(r, HELPER_THREAD_NAME));
+            }
+        }
+        return helperExecutorService;
+    }
+
+    /**
+     * Interrupt running tasks and release threads, a later task creates a new executor
+     */
+    public synchronized void shutdown() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        if (helperExecutorService != null) {
+            helperExecutorService.shutdownNow();
+            helperExecutorService = null;
+        }
+        if (timeoutService != null) {
+            timeoutService.shutdownNow();
+            timeoutService = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = virtualThreads ? newVirtualThreadExecutor() : null;
+            if (executorService == null) {
+                LOG.debug("Execution engine with {} platform threads", maxThreads);
+                ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> newThread(r, THREAD_NAME));
+                threadPoolExecutor.allowCoreThreadTimeOut(true);
+                executorService = threadPoolExecutor;
+            }
+        }
+        return executorService;
+    }
+
+    private synchronized ScheduledExecutorService getTimeoutService() {
+        if (timeoutService == null) {
+            timeoutService = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "sonar-gitlab-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timeoutService;
+    }
+
+    private Thread newThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Thread.ofVirtual() exists since Java 21, plugin is built for Java 8 so it is called by reflection
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME, 1L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            ExecutorService virtualThreadExecutor = (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+            LOG.debug("Execution engine with virtual threads");
+            return virtualThreadExecutor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Virtual threads not available, use platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * Tasks forked together, first failure cancels the others, all are cancelled when scope is closed
+     */
+    public class Scope implements AutoCloseable {
+
+        private final List<CompletableFuture<?>> futures = new ArrayList<>();
+        private final CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+        private boolean cancelled;
+
+        private Scope() {
+            // Nothing
+        }
+
+        public <T> CompletableFuture<T> fork(Supplier<T> task) {
+            return fork(task, 0, TimeUnit.MILLISECONDS);
+        }
+
+        public CompletableFuture<Void> fork(Runnable task) {
+            return fork(() -> {
+                task.run();
+                return null;
+            });
+        }
+
+        public <T> CompletableFuture<T> fork(Supplier<T> task, long timeout, TimeUnit unit) {
+            return track(submit(task, timeout, unit));
+        }
+
+        /**
+         * Join and cancel with the forked tasks a future of an asynchronous call, it is cancelled at once if scope already failed.
+         * Cancelling a derived future (ex: by thenApply) does not cancel its source, source must be tracked too.
+         */
+        public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+            boolean alreadyCancelled;
+            synchronized (this) {
+                futures.add(future);
+                alreadyCancelled = cancelled;
+            }
+            future.whenComplete((r, e) -> {
+                if (e != null) {
+                    // First failure is kept before the others are cancelled
+                    firstFailure.completeExceptionally(e);
+                    cancel();
+                }
+            });
+            if (alreadyCancelled) {
+                future.cancel(true);
+            }
+            return future;
+        }
+
+        /**
+         * @return future completed when all tracked futures are, or failed with the first failure (not the cancellation of the others)
+         */
+        public CompletableFuture<Void> joinAsync() {
+            CompletableFuture<?>[] forked;
+            synchronized (this) {
+                forked = futures.toArray(new CompletableFuture<?>[0]);
+            }
+            CompletableFuture.allOf(forked).whenComplete((r, e) -> firstFailure.complete(null));
+            return firstFailure;
+        }
+
+        /**
+         * Wait all forked tasks, on first failure cancel the others and rethrow its cause
+         */
+        public void join() {
+            try {
+                joinAsync().join();
+            } catch (CompletionException e) {
+                cancel();
+
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        private void cancel() {
+            List<CompletableFuture<?>> toCancel;
+            synchronized (this) {
+                cancelled = true;
+                toCancel = new ArrayList<>(futures);
+            }
+            toCancel.forEach(f -> f.cancel(true));
+        }
+
+        @Override
+        public void close() {
+            cancel();
+        }
+    }
+}
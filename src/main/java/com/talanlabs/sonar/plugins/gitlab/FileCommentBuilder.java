@@ -0,0 +1,65 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.talanlabs.sonar.plugins.gitlab.models.ReportIssue;
+import org.sonar.api.batch.AnalysisMode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Single comment for all issues of a file, used when inline comments are above threshold
+ */
+public class FileCommentBuilder extends AbstractCommentBuilder {
+
+    private final Map<Integer, List<ReportIssue>> issuesByLine;
+    private final String author;
+
+    public FileCommentBuilder(GitLabPluginConfiguration gitLabPluginConfiguration, String revision, String author, Map<Integer, List<ReportIssue>> issuesByLine, MarkDownUtils markDownUtils,
+                              AnalysisMode analysisMode) {
+        super(gitLabPluginConfiguration, revision, issuesByLine.values().stream().flatMap(List::stream).collect(Collectors.toList()), markDownUtils, analysisMode, "file", null);
+
+        this.issuesByLine = new TreeMap<>(issuesByLine);
+        this.author = author;
+    }
+
+    @Override
+    protected String buildDefaultComment() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SonarQube analysis reported ").append(reportIssues.size()).append(" issue").append(reportIssues.size() > 1 ? "s" : "").append(" in this file\n\n");
+        for (Map.Entry<Integer, List<ReportIssue>> entry : issuesByLine.entrySet()) {
+            for (ReportIssue reportIssue : entry.getValue()) {
+                sb.append("* ").append(printLine(entry.getKey(), reportIssue.getUrl())).append(" ")
+                        .append(markDownUtils.printIssue(reportIssue.getIssue().getSeverity(), reportIssue.getIssue().getMessage(), reportIssue.getRuleLink(), null, null)).append("\n");
+            }
+        }
+        if (gitLabPluginConfiguration.pingUser() && author != null) {
+            sb.append("\n@").append(author);
+        }
+        return sb.toString().trim();
+    }
+
+    private static String printLine(Integer line, String url) {
+        return url != null ? "[L" + line + "](" + url + ")" : "L" + line;
+    }
+}
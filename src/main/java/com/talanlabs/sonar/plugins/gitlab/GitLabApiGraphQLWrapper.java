@@ -0,0 +1,268 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * GitLab API v4 wrapper using GraphQL for merge request diff notes.
+ * Existing notes are loaded with one paginated query and new diff notes are sent by batch of aliased createDiffNote mutations.
+ * When comments are upserted, notes of the plugin are found by their marker and updated like with v4 wrapper, only new notes are batched.
+ * Without merge request iid, it behaves like v4 wrapper.
+ */
+public class GitLabApiGraphQLWrapper extends GitLabApiV4Wrapper {
+
+    private static final Logger LOG = Loggers.get(GitLabApiGraphQLWrapper.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String GRAPHQL_PATH = "graphql";
+    private static final String NOTES_QUERY = "query($fullPath: ID!, $iid: String!, $after: String) { project(fullPath: $fullPath) { mergeRequest(iid: $iid) { id "
+            + "diffRefs { baseSha headSha startSha } notes(first: 100, after: $after) { nodes { body position { newPath newLine } } pageInfo { hasNextPage endCursor } } } } }";
+
+    private final GitLabPluginConfiguration config;
+    private final Set<DiffNote> existingNotes = new HashSet<>();
+    private final List<DiffNote> pendingNotes = new ArrayList<>();
+    private IGitLabHttpTransport graphQLTransport;
+    private String mergeRequestId;
+    private String baseSha;
+    private String headSha;
+    private String startSha;
+
+    public GitLabApiGraphQLWrapper(GitLabPluginConfiguration config, GitLabPagination pagination, ExecutionEngine executionEngine) {
+        super(config, pagination, executionEngine);
+        this.config = config;
+    }
+
+    @Override
+    public void init() {
+        super.init();
+
+        if (config.mergeRequestIid() > 0) {
+            graphQLTransport = getDataLoader().newHttpTransport(GitLabPlugin.graphQLUrl(config.url()));
+            try {
+                loadMergeRequest();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to load merge request notes with GraphQL", e);
+            }
+        }
+    }
+
+    void setGraphQLTransport(IGitLabHttpTransport graphQLTransport) {
+        this.graphQLTransport = graphQLTransport;
+    }
+
+    void loadMergeRequest() throws IOException {
+        existingNotes.clear();
+        String after = null;
+        boolean hasNextPage;
+        do {
+            ObjectNode variables = MAPPER.createObjectNode();
+            variables.put("fullPath", getProject().getPathWithNamespace());
+            variables.put("iid", String.valueOf(config.mergeRequestIid()));
+            variables.put("after", after);
+
+            JsonNode mergeRequest = graphQL(NOTES_QUERY, variables).path("project").path("mergeRequest");
+            if (mergeRequest.isMissingNode() || mergeRequest.isNull()) {
+                throw new IllegalStateException("Unable to find merge request " + config.mergeRequestIid() + " in project " + getProject().getPathWithNamespace());
+            }
+            mergeRequestId = mergeRequest.path("id").asText();
+            JsonNode diffRefs = mergeRequest.path("diffRefs");
+            baseSha = diffRefs.path("baseSha").asText();
+            headSha = diffRefs.path("headSha").asText();
+            startSha = diffRefs.path("startSha").asText();
+
+            JsonNode notes = mergeRequest.path("notes");
+            for (JsonNode note : notes.path("nodes")) {
+                JsonNode position = note.path("position");
+                if (position.hasNonNull("newPath") && position.hasNonNull("newLine")) {
+                    existingNotes.add(new DiffNote(position.get("newPath").asText(), position.get("newLine").asInt(), note.path("body").asText()));
+                }
+            }
+            hasNextPage = notes.path("pageInfo").path("hasNextPage").asBoolean(false);
+            after = notes.path("pageInfo").path("endCursor").asText(null);
+        } while (hasNextPage && after != null);
+
+        LOG.debug("Merge request {} has {} diff notes", mergeRequestId, existingNotes.size());
+    }
+
+    private boolean isMergeRequest() {
+        return mergeRequestId != null;
+    }
+
+    /**
+     * Merge request notes are always diff notes, they are upserted as soon as notes updater exists
+     */
+    @Override
+    boolean isUpsertDiscussion() {
+        return isMergeRequest() ? getNotesUpdater() != null : super.isUpsertDiscussion();
+    }
+
+    @Override
+    public boolean hasSameCommitCommentsForFile(String revision, String path, Integer lineNumber, String body) {
+        if (!isMergeRequest() || isUpsertDiscussion()) {
+            return super.hasSameCommitCommentsForFile(revision, path, lineNumber, body);
+        }
+        DiffNote diffNote = new DiffNote(path, lineNumber, body);
+        return existingNotes.contains(diffNote) || pendingNotes.contains(diffNote);
+    }
+
+    @Override
+    public void createOrUpdateReviewComment(String revision, String fullPath, Integer line, String body) {
+        if (!isMergeRequest()) {
+            super.createOrUpdateReviewComment(revision, fullPath, line, body);
+            return;
+        }
+        String noteBody = body;
+        MergeRequestNotesUpdater notesUpdater = getNotesUpdater();
+        if (notesUpdater != null) {
+            try {
+                if (notesUpdater.updateInline(fullPath, line, body)) {
+                    return;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create or update review comment in file " + fullPath + " at line " + line, e);
+            }
+            noteBody = notesUpdater.inlineBody(body);
+        }
+        pendingNotes.add(new DiffNote(fullPath, line, noteBody));
+        if (pendingNotes.size() >= batchSize()) {
+            createPendingNotes();
+        }
+    }
+
+    @Override
+    public void flush() {
+        createPendingNotes();
+        super.flush();
+    }
+
+    private void createPendingNotes() {
+        if (pendingNotes.isEmpty()) {
+            return;
+        }
+        List<DiffNote> notes = new ArrayList<>(pendingNotes);
+        pendingNotes.clear();
+
+        int batchSize = batchSize();
+        for (int i = 0; i < notes.size(); i += batchSize) {
+            List<DiffNote> batch = notes.subList(i, Math.min(i + batchSize, notes.size()));
+            try {
+                createDiffNotes(batch);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create " + batch.size() + " diff notes in merge request " + config.mergeRequestIid(), e);
+            }
+            existingNotes.addAll(batch);
+        }
+    }
+
+    private int batchSize() {
+        return Math.max(1, config.graphQLBatchSize());
+    }
+
+    private void createDiffNotes(List<DiffNote> batch) throws IOException {
+        StringJoiner declarations = new StringJoiner(", ", "(", ")");
+        StringJoiner mutations = new StringJoiner(" ");
+        ObjectNode variables = MAPPER.createObjectNode();
+        for (int i = 0; i < batch.size(); i++) {
+            String alias = "n" + i;
+            declarations.add("$" + alias + ": CreateDiffNoteInput!");
+            mutations.add(alias + ": createDiffNote(input: $" + alias + ") { errors }");
+            variables.set(alias, toInput(batch.get(i)));
+        }
+
+        JsonNode data = graphQL("mutation" + declarations + " { " + mutations + " }", variables);
+        for (int i = 0; i < batch.size(); i++) {
+            JsonNode errors = data.path("n" + i).path("errors");
+            if (errors.size() > 0) {
+                throw new IllegalStateException("Unable to create diff note in file " + batch.get(i).path + " at line " + batch.get(i).line + ": " + errors);
+            }
+        }
+        LOG.debug("Created {} diff notes with one GraphQL request", batch.size());
+    }
+
+    private ObjectNode toInput(DiffNote diffNote) {
+        ObjectNode input = MAPPER.createObjectNode();
+        input.put("noteableId", mergeRequestId);
+        input.put("body", diffNote.body);
+        ObjectNode position = input.putObject("position");
+        position.put("baseSha", baseSha);
+        position.put("headSha", headSha);
+        position.put("startSha", startSha);
+        position.putObject("paths").put("oldPath", diffNote.path).put("newPath", diffNote.path);
+        position.put("newLine", diffNote.line);
+        return input;
+    }
+
+    private JsonNode graphQL(String query, ObjectNode variables) throws IOException {
+        ObjectNode request = MAPPER.createObjectNode();
+        request.put("query", query);
+        request.set("variables", variables);
+
+        GitLabHttpResponse response = graphQLTransport.postJson(GRAPHQL_PATH, MAPPER.writeValueAsString(request));
+        JsonNode root = MAPPER.readTree(response.getBody());
+        JsonNode errors = root.path("errors");
+        if (errors.size() > 0) {
+            throw new IOException("GitLab GraphQL errors: " + errors);
+        }
+        return root.path("data");
+    }
+
+    private static class DiffNote {
+
+        private final String path;
+        private final Integer line;
+        private final String body;
+
+        DiffNote(String path, Integer line, String body) {
+            this.path = path;
+            this.line = line;
+            this.body = body;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            DiffNote diffNote = (DiffNote) o;
+            return Objects.equals(path, diffNote.path) && Objects.equals(line, diffNote.line) && Objects.equals(body, diffNote.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, line, body);
+        }
+    }
+}
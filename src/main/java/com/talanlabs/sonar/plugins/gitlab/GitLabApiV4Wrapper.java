@@ -26,7 +26,6 @@ import com.talanlabs.gitlab.api.v4.models.GitlabMergeRequest;
 import com.talanlabs.gitlab.api.v4.models.GitlabPosition;
 import com.talanlabs.gitlab.api.v4.models.commits.GitLabCommit;
 import com.talanlabs.gitlab.api.v4.models.commits.GitLabCommitComments;
-import com.talanlabs.gitlab.api.v4.models.commits.GitLabCommitDiff;
 import com.talanlabs.gitlab.api.v4.models.discussion.GitlabDiscussion;
 import com.talanlabs.gitlab.api.v4.models.projects.GitLabProject;
 import com.talanlabs.gitlab.api.v4.models.users.GitLabUser;
@@ -36,10 +35,9 @@ import org.sonar.api.utils.log.Loggers;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
@@ -49,13 +47,32 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
     private static final String COMMIT_CONTEXT = "sonarqube";
 
     private final GitLabPluginConfiguration config;
+    private final GitLabDataLoader dataLoader;
+    private final Map<String, List<GitLabUser>> usersBySearch = new ConcurrentHashMap<>();
     private GitLabAPI gitLabAPIV4;
+    private IGitLabHttpTransport httpTransport;
+    private MergeRequestNotesUpdater notesUpdater;
     private GitLabProject gitLabProject;
     private Map<String, List<GitLabCommitComments>> commitCommentPerRevision;
-    private Map<String, Map<String, Set<Line>>> patchPositionByFile;
+    private SingleFlight<String, List<GitLabUser>> userLookups;
 
-    public GitLabApiV4Wrapper(GitLabPluginConfiguration config) {
+    /**
+     * @param pagination page size of list requests, requests saved by large pages are recorded in its post job metrics
+     * @param executionEngine engine running prefetch of next pages and hedged requests, shut down at post job end
+     */
+    public GitLabApiV4Wrapper(GitLabPluginConfiguration config, GitLabPagination pagination, ExecutionEngine executionEngine) {
         this.config = config;
+        this.dataLoader = new GitLabDataLoader(config, pagination, executionEngine);
+    }
+
+    @Override
+    public void setDiffIndex(DiffIndex diffIndex) {
+        dataLoader.setDiffIndex(diffIndex);
+    }
+
+    @Override
+    public void setLocalGitDiffProvider(@Nullable LocalGitDiffProvider localGitDiffProvider) {
+        dataLoader.setLocalGitDiffProvider(localGitDiffProvider);
     }
 
     @Override
@@ -64,77 +81,102 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
         if (config.isProxyConnectionEnabled()) {
             gitLabAPIV4.setProxy(config.getHttpProxy());
         }
+        userLookups = new SingleFlight<>("gitlab-user", dataLoader.getPagination().getPostJobMetrics());
+        if (GitLabPlugin.OKHTTP_HTTP_TRANSPORT.equals(config.httpTransport())) {
+            httpTransport = dataLoader.newHttpTransport(GitLabPlugin.apiUrl(config.url(), GitLabPlugin.V4_API_VERSION));
+        }
         try {
             gitLabProject = getGitLabProject();
 
             commitCommentPerRevision = getCommitCommentsPerRevision(config.commitSHA());
-            patchPositionByFile = getPatchPositionsToLineMapping(config.commitSHA());
+            addPatchPositionsToDiffIndex(config.commitSHA());
         } catch (IOException e) {
             throw new IllegalStateException("Unable to perform GitLab WS operation", e);
         }
+        if (config.upsertComments()) {
+            initNotesUpdater();
+        }
+    }
+
+    private void initNotesUpdater() {
+        if (config.mergeRequestIid() <= 0) {
+            LOG.warn("Comments can be updated only in merge request, set sonar.gitlab.ci_merge_request_iid");
+            return;
+        }
+        if (httpTransport == null) {
+            httpTransport = dataLoader.newHttpTransport(GitLabPlugin.apiUrl(config.url(), GitLabPlugin.V4_API_VERSION));
+        }
+        notesUpdater = new MergeRequestNotesUpdater(httpTransport, dataLoader.getPagination(), gitLabProject.getId(), config.mergeRequestIid());
     }
 
     void setGitLabAPI(GitLabAPI gitLabAPI) {
         this.gitLabAPIV4 = gitLabAPI;
     }
 
-    private GitLabProject getGitLabProject() throws IOException {
-        if (config.projectId() == null) {
-            throw new IllegalStateException("Unable to find project ID null. Set the property sonar.gitlab.project_id");
-        }
+    void setHttpTransport(IGitLabHttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+    }
 
-        try {
-            GitLabProject project = gitLabAPIV4.getGitLabAPIProjects().getProject(config.projectId());
-            if (project != null) {
-                return project;
-            }
-        } catch (IOException e) {
-            LOG.trace("Not found project with id", e);
-        }
+    void setNotesUpdater(MergeRequestNotesUpdater notesUpdater) {
+        this.notesUpdater = notesUpdater;
+    }
 
-        Paged<GitLabProject> paged = gitLabAPIV4.getGitLabAPIProjects().getProjects(null, null, null, null, null, null);
-        if (paged == null) {
-            throw new IllegalStateException("Unable to find project ID " + config.projectId() + ". Either the project ID is incorrect or you don't have access to this project. Verify the configurations sonar.gitlab.project_id or sonar.gitlab.user_token");
-        }
-        List<GitLabProject> projects = new ArrayList<>();
-        do {
-            if (paged.getResults() != null) {
-                projects.addAll(paged.getResults().stream().filter(this::isMatchingProject).collect(Collectors.toList()));
-            }
-        } while ((paged = paged.nextPage()) != null);
+    @CheckForNull
+    MergeRequestNotesUpdater getNotesUpdater() {
+        return notesUpdater;
+    }
+
+    private GitLabProject getGitLabProject() throws IOException {
+        return dataLoader.findProject(this::getProjectById, this::getProjects, this::isMatchingProject);
+    }
 
-        if (projects.isEmpty()) {
-            throw new IllegalStateException("Unable to find project ID " + config.projectId() + ". Either the project ID is incorrect or you don't have access to this project. Verify the configurations sonar.gitlab.project_id or sonar.gitlab.user_token");
+    private GitLabProject getProjectById() throws IOException {
+        if (httpTransport != null) {
+            return dataLoader.get(httpTransport, "projects/" + CommitFacade.encodeForUrl(config.projectId()), GitLabProject.class);
         }
-        if (projects.size() > 1) {
-            throw new IllegalStateException("Multiple found projects for " + config.projectId());
+        return dataLoader.call(() -> gitLabAPIV4.getGitLabAPIProjects().getProject(config.projectId()));
+    }
+
+    private List<GitLabProject> getProjects() throws IOException {
+        if (httpTransport != null) {
+            return dataLoader.loadAll(httpTransport, "projects", Collections.emptyMap(), true, GitLabProject.class);
         }
-        return projects.get(0);
+        return dataLoader.loadAll(dataLoader.call(() -> gitLabAPIV4.getGitLabAPIProjects().getProjects(null, null, null, null, null, dataLoader.newApiPagination())));
     }
 
     void setGitLabProject(GitLabProject gitLabProject) {
         this.gitLabProject = gitLabProject;
     }
 
+    GitLabProject getProject() {
+        return gitLabProject;
+    }
+
+    GitLabDataLoader getDataLoader() {
+        return dataLoader;
+    }
+
     Map<String, List<GitLabCommitComments>> getCommitCommentsPerRevision(List<String> revisions) throws IOException {
-        Map<String, List<GitLabCommitComments>> result = new HashMap<>();
-        for (String revision : revisions) {
-            Paged<GitLabCommitComments> paged = gitLabAPIV4.getGitLabAPICommits().getCommitComments(gitLabProject.getId(), revision, null);
-
-            List<GitLabCommitComments> gitLabCommitCommentss = new ArrayList<>();
-            do {
-                if (paged.getResults() != null) {
-                    gitLabCommitCommentss.addAll(paged.getResults());
-                }
-            } while ((paged = paged.nextPage()) != null);
+        return dataLoader.loadPerRevision(revisions, this::getCommitComments);
+    }
 
-            result.put(revision, gitLabCommitCommentss);
+    private List<GitLabCommitComments> getCommitComments(String revision) throws IOException {
+        if (httpTransport != null) {
+            return dataLoader.loadAll(httpTransport, "projects/" + gitLabProject.getId() + "/repository/commits/" + revision + "/comments", Collections.emptyMap(), false,
+                    GitLabCommitComments.class);
         }
-        return result;
+        return dataLoader.loadAll(dataLoader.call(() -> gitLabAPIV4.getGitLabAPICommits().getCommitComments(gitLabProject.getId(), revision, dataLoader.newApiPagination())));
     }
 
     @Override
     public boolean hasSameCommitCommentsForFile(String revision, String path, Integer lineNumber, String body) {
+        if (isUpsertDiscussion()) {
+            try {
+                return notesUpdater.hasSameInline(path, lineNumber, body);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to get merge request discussions", e);
+            }
+        }
         return getCommitCommentsForFile(revision, path)
                 .stream()
                 .anyMatch(c -> Objects.equals(c.getLine(), lineNumber) && c.getNote().equals(body));
@@ -150,26 +192,20 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
                 .collect(Collectors.toSet());
     }
 
-    private Map<String, Map<String, Set<Line>>> getPatchPositionsToLineMapping(List<String> revisions) throws IOException {
-        Map<String, Map<String, Set<Line>>> result = new HashMap<>();
-
-        for (String revision : revisions) {
-            Paged<GitLabCommitDiff> paged = gitLabAPIV4.getGitLabAPICommits().getCommitDiffs(gitLabProject.getId(), revision, null);
-            List<GitLabCommitDiff> commitDiffs = new ArrayList<>();
-            do {
-                if (paged.getResults() != null) {
-                    commitDiffs.addAll(paged.getResults());
-                }
-            } while ((paged = paged.nextPage()) != null);
+    private void addPatchPositionsToDiffIndex(List<String> revisions) throws IOException {
+        dataLoader.addPatchPositionsToDiffIndex(gitLabProject.getId(), revisions, this::getPatchPositionsToLineMapping);
+    }
 
-            result.put(revision, commitDiffs
-                    .stream()
-                    .collect(Collectors.toMap(GitLabCommitDiff::getNewPath, d -> PatchUtils.getPositionsFromPatch(d.getDiff()))));
+    private Map<String, Set<Line>> getPatchPositionsToLineMapping(String revision) throws IOException {
+        if (httpTransport != null) {
+            return new CommitDiffStreamReader(httpTransport, dataLoader.getPagination()).getPatchPositions(gitLabProject.getId(), revision);
         }
-
-        LOG.debug("getPatchPositionsToLineMapping {}", result);
-
-        return result;
+        return dataLoader.retry(() -> {
+            Map<String, Set<Line>> result = new HashMap<>();
+            dataLoader.forEachPage(dataLoader.call(() -> gitLabAPIV4.getGitLabAPICommits().getCommitDiffs(gitLabProject.getId(), revision, dataLoader.newApiPagination())),
+                    commitDiffs -> commitDiffs.forEach(d -> result.put(d.getNewPath(), PatchUtils.getPositionsFromPatch(d.getDiff()))));
+            return result;
+        });
     }
 
     /**
@@ -178,15 +214,9 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
     @Override
     public String getUsernameForRevision(String revision) {
         try {
-            GitLabCommit commit = gitLabAPIV4.getGitLabAPICommits().getCommit(gitLabProject.getId(), revision);
+            GitLabCommit commit = getCommit(revision);
 
-            Paged<GitLabUser> paged = gitLabAPIV4.getGitLabAPIUsers().getUsers(commit.getAuthorEmail(), null);
-            List<GitLabUser> users = new ArrayList<>();
-            do {
-                if (paged.getResults() != null) {
-                    users.addAll(paged.getResults());
-                }
-            } while ((paged = paged.nextPage()) != null);
+            List<GitLabUser> users = getUsers(commit.getAuthorEmail());
 
             if (users.size() == 1) {
                 return users.get(0).getUsername();
@@ -198,6 +228,35 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
         }
     }
 
+    private GitLabCommit getCommit(String revision) throws IOException {
+        if (httpTransport != null) {
+            return dataLoader.get(httpTransport, "projects/" + gitLabProject.getId() + "/repository/commits/" + revision, GitLabCommit.class);
+        }
+        return dataLoader.call(() -> gitLabAPIV4.getGitLabAPICommits().getCommit(gitLabProject.getId(), revision));
+    }
+
+    /**
+     * Users are searched once by email, concurrent searches of the same email are coalesced
+     */
+    private List<GitLabUser> getUsers(@Nullable String search) throws IOException {
+        if (search == null) {
+            return searchUsers(null);
+        }
+        List<GitLabUser> users = usersBySearch.get(search);
+        if (users == null) {
+            users = userLookups.load(search, () -> searchUsers(search));
+            usersBySearch.put(search, users);
+        }
+        return users;
+    }
+
+    private List<GitLabUser> searchUsers(@Nullable String search) throws IOException {
+        if (httpTransport != null) {
+            return dataLoader.loadAll(httpTransport, "users", Collections.singletonMap("search", search), false, GitLabUser.class);
+        }
+        return dataLoader.loadAll(dataLoader.call(() -> gitLabAPIV4.getGitLabAPIUsers().getUsers(search, dataLoader.newApiPagination())));
+    }
+
     private boolean isMatchingProject(GitLabProject project) {
         return config.projectId().equals(project.getId().toString()) || verifyProjectName(project) || verifyProjectUrl(project);
     }
@@ -213,8 +272,12 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
     @Override
     public void createOrUpdateSonarQubeStatus(String status, String statusDescription) {
         try {
-            gitLabAPIV4.getGitLabAPICommits()
-                    .postCommitStatus(gitLabProject.getId(), getFirstCommitSHA(), status, config.refName(), COMMIT_CONTEXT, null, statusDescription);
+            if (httpTransport != null) {
+                httpTransport.postCommitStatus(gitLabProject.getId(), getFirstCommitSHA(), status, config.refName(), COMMIT_CONTEXT, statusDescription);
+            } else {
+                dataLoader.execute(() -> gitLabAPIV4.getGitLabAPICommits()
+                        .postCommitStatus(gitLabProject.getId(), getFirstCommitSHA(), status, config.refName(), COMMIT_CONTEXT, null, statusDescription));
+            }
         } catch (IOException e) {
             // Workaround for https://gitlab.com/gitlab-org/gitlab-ce/issues/25807
             if (e.getMessage() != null && e.getMessage().contains("Cannot transition status")) {
@@ -225,45 +288,6 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
         }
     }
 
-    @Override
-    public boolean hasFile(String path) {
-        LOG.debug("hasFile {}", path);
-        for (String revision : config.commitSHA()) {
-            if (patchPositionByFile.get(revision).containsKey(path)) {
-                LOG.debug("hasFile found {}", revision);
-                return true;
-            }
-        }
-        LOG.debug("hasFile notfound");
-        return false;
-    }
-
-    @Override
-    public String getRevisionForLine(File file, String path, int lineNumber) {
-        String value = null;
-        try {
-            List<String> ss = Files.readAllLines(file.toPath());
-            int l = lineNumber > 0 ? lineNumber - 1 : 0;
-            value = ss.size() >= lineNumber ? ss.get(l) : null;
-        } catch (IOException e) {
-            LOG.trace("Not read all line for file {}", file, e);
-        }
-        Line line = new Line(lineNumber, value);
-
-        LOG.debug("getRevisionForLine {} {}", path, line);
-
-        for (String revision : config.commitSHA()) {
-            LOG.debug("getRevisionForLine " + patchPositionByFile.get(revision));
-            if (patchPositionByFile.get(revision).entrySet().stream().anyMatch(v ->
-                    v.getKey().equals(path) && v.getValue().contains(line))) {
-                LOG.debug("getRevisionForLine found {}");
-                return revision;
-            }
-        }
-        LOG.debug("getRevisionForLine notfound");
-        return null;
-    }
-
     @Override
     @CheckForNull
     public String getGitLabUrl(@Nullable String revision, String path, @Nullable Integer issueLine) {
@@ -273,10 +297,14 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
     @Override
     public void createOrUpdateReviewComment(String revision, String fullPath, Integer line, String body) {
         try {
-            if (config.isMergeRequestDiscussionEnabled()) {
+            if (isUpsertDiscussion()) {
+                if (!notesUpdater.updateInline(fullPath, line, body)) {
+                    createReviewDiscussion(fullPath, line, notesUpdater.inlineBody(body));
+                }
+            } else if (config.isMergeRequestDiscussionEnabled()) {
                 createReviewDiscussion(fullPath, line, body);
             } else {
-                gitLabAPIV4.getGitLabAPICommits().postCommitComments(gitLabProject.getId(), revision != null ? revision : getFirstCommitSHA(), body, fullPath, line, "new");
+                postCommitComments(revision != null ? revision : getFirstCommitSHA(), body, fullPath, line, "new");
             }
         } catch (IOException e) {
             throw new IllegalStateException("Unable to create or update review comment in file " + fullPath + " at line " + line, e);
@@ -289,16 +317,32 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
 
         checkArgument(mergeRequestIid != -1, "The merge request iid must be provided.");
 
-        Paged<GitlabMergeRequestDiff> mergeRequestDiffs = gitLabAPIV4
-                .getGitLabAPIMergeRequestDiff().getMergeRequestDiff(projectId, mergeRequestIid);
+        List<GitlabMergeRequestDiff> mergeRequestDiffs = getMergeRequestDiffs(projectId, mergeRequestIid);
+
+        checkArgument(mergeRequestDiffs != null && !mergeRequestDiffs.isEmpty(), "There are no merge request diffs.");
 
-        checkArgument(mergeRequestDiffs.getResults() != null && !mergeRequestDiffs.getResults().isEmpty(), "There are no merge request diffs.");
+        GitlabMergeRequestDiff mergeRequestDiff = mergeRequestDiffs.get(0);
 
-        GitlabMergeRequestDiff mergeRequestDiff = mergeRequestDiffs.getResults().get(0);
+        if (httpTransport != null) {
+            httpTransport.postMergeRequestDiscussion(projectId, mergeRequestIid, body, mergeRequestDiff.getBaseCommitSha(), mergeRequestDiff.getStartCommitSha(),
+                    mergeRequestDiff.getHeadCommitSha(), fullPath, lineNumber);
+        } else {
+            GitlabDiscussion discussion = createMergeRequestDiscussion(mergeRequestDiff, fullPath, lineNumber, body);
 
-        GitlabDiscussion discussion = createMergeRequestDiscussion(mergeRequestDiff, fullPath, lineNumber, body);
+            dataLoader.execute(() -> gitLabAPIV4.getGitLabAPIMergeRequestDiscussion().createDiscussion(projectId, mergeRequestIid, discussion));
+        }
+    }
 
-        gitLabAPIV4.getGitLabAPIMergeRequestDiscussion().createDiscussion(projectId, mergeRequestIid, discussion);
+    /**
+     * @return versions of merge request, latest first
+     */
+    @CheckForNull
+    private List<GitlabMergeRequestDiff> getMergeRequestDiffs(Integer projectId, int mergeRequestIid) throws IOException {
+        if (httpTransport != null) {
+            return Arrays.asList(dataLoader.get(httpTransport, "projects/" + projectId + "/merge_requests/" + mergeRequestIid + "/versions", GitlabMergeRequestDiff[].class));
+        }
+        Paged<GitlabMergeRequestDiff> mergeRequestDiffs = dataLoader.call(() -> gitLabAPIV4.getGitLabAPIMergeRequestDiff().getMergeRequestDiff(projectId, mergeRequestIid));
+        return mergeRequestDiffs != null ? mergeRequestDiffs.getResults() : null;
     }
 
     private GitlabDiscussion createMergeRequestDiscussion(GitlabMergeRequestDiff mergeRequestDiff, String fullPath, Integer line, String body) {
@@ -320,12 +364,46 @@ public class GitLabApiV4Wrapper implements IGitLabApiWrapper {
     @Override
     public void addGlobalComment(String comment) {
         try {
-            gitLabAPIV4.getGitLabAPICommits().postCommitComments(gitLabProject.getId(), getFirstCommitSHA(), comment, null, null, null);
+            if (notesUpdater != null) {
+                notesUpdater.upsertSummary(comment);
+            } else {
+                postCommitComments(getFirstCommitSHA(), comment, null, null, null);
+            }
         } catch (IOException e) {
             throw new IllegalStateException("Unable to comment the commit", e);
         }
     }
 
+    private void postCommitComments(String revision, String note, @Nullable String path, @Nullable Integer line, @Nullable String lineType) throws IOException {
+        if (httpTransport != null) {
+            httpTransport.postCommitComment(gitLabProject.getId(), revision, note, path, line, lineType);
+        } else {
+            dataLoader.execute(() -> gitLabAPIV4.getGitLabAPICommits().postCommitComments(gitLabProject.getId(), revision, note, path, line, lineType));
+        }
+    }
+
+    @Override
+    public void keepReviewComment(String fullPath, Integer line) {
+        if (isUpsertDiscussion()) {
+            notesUpdater.keepInline(fullPath, line);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (isUpsertDiscussion()) {
+            try {
+                notesUpdater.resolveStaleInlines();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to resolve stale merge request discussions", e);
+            }
+        }
+    }
+
+    boolean isUpsertDiscussion() {
+        return notesUpdater != null && config.isMergeRequestDiscussionEnabled();
+    }
+
     private String getFirstCommitSHA() {
         return config.commitSHA() != null && !config.commitSHA().isEmpty() ? config.commitSHA().get(0) : null;
     }
@@ -0,0 +1,349 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.talanlabs.gitlab.api.Paged;
+import com.talanlabs.gitlab.api.Pagination;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Data loading shared by GitLab API v3 and v4 wrappers: project lookup, paged lists and diff index feeding.
+ * Wrappers only give the version specific calls, next page is requested while current page is processed.
+ */
+public class GitLabDataLoader {
+
+    private static final Logger LOG = Loggers.get(GitLabDataLoader.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final GitLabPluginConfiguration config;
+    private final GitLabPagination pagination;
+    private final ExecutionEngine executionEngine;
+    private LocalGitDiffProvider localGitDiffProvider;
+    private DiffIndex diffIndex;
+
+    /**
+     * @param pagination page size of list requests and post job metrics receiving GitLab calls
+     * @param executionEngine engine running prefetch of next pages, loads per revision and hedged requests
+     */
+    public GitLabDataLoader(GitLabPluginConfiguration config, GitLabPagination pagination, ExecutionEngine executionEngine) {
+        this.config = config;
+        this.pagination = pagination;
+        this.executionEngine = executionEngine;
+    }
+
+    public GitLabPagination getPagination() {
+        return pagination;
+    }
+
+    /**
+     * @return pagination of java-gitlab-api list requests with configured page size
+     */
+    public Pagination newApiPagination() {
+        return new Pagination().withPerPage(pagination.getPageSize());
+    }
+
+    /**
+     * OkHttp transport counting its calls in metrics of pagination, hedged requests run on execution engine
+     */
+    public IGitLabHttpTransport newHttpTransport(String apiUrl) {
+        return new OkHttpGitLabTransport(config, apiUrl, pagination.getPostJobMetrics(), executionEngine);
+    }
+
+    /**
+     * Retry an idempotent call of java-gitlab-api, calls of OkHttp transport are already retried
+     */
+    public <T> T retry(HttpResilience.Attempt<T> attempt) throws IOException {
+        return new HttpResilience(PostJobMetrics.GITLAB_API, config, pagination.getPostJobMetrics(), executionEngine).retry(attempt);
+    }
+
+    /**
+     * Call of java-gitlab-api counted in post job metrics, its bytes are unavailable
+     */
+    public <T> T call(IOSupplier<T> call) throws IOException {
+        pagination.getPostJobMetrics().recordHttpCall(PostJobMetrics.GITLAB_API);
+        return call.get();
+    }
+
+    public void execute(IORunnable call) throws IOException {
+        pagination.getPostJobMetrics().recordHttpCall(PostJobMetrics.GITLAB_API);
+        call.run();
+    }
+
+    public void setDiffIndex(DiffIndex diffIndex) {
+        this.diffIndex = diffIndex;
+    }
+
+    public void setLocalGitDiffProvider(@Nullable LocalGitDiffProvider localGitDiffProvider) {
+        this.localGitDiffProvider = localGitDiffProvider;
+    }
+
+    /**
+     * Get project by id, else search in all visible projects the one matching id, path, name or url
+     */
+    public <P> P findProject(IOSupplier<P> byId, IOSupplier<List<P>> all, Predicate<P> matching) throws IOException {
+        if (config.projectId() == null) {
+            throw new IllegalStateException("Unable to find project ID null. Set the property sonar.gitlab.project_id");
+        }
+
+        try {
+            P project = byId.get();
+            if (project != null) {
+                return project;
+            }
+        } catch (IOException e) {
+            LOG.trace("Not found project with id", e);
+        }
+
+        List<P> projects = Optional.ofNullable(all.get()).orElse(Collections.emptyList()).stream().filter(matching).collect(Collectors.toList());
+
+        if (projects.isEmpty()) {
+            throw new IllegalStateException("Unable to find project ID " + config.projectId() + ". Either the project ID is incorrect or you don't have access to this project. Verify the configurations sonar.gitlab.project_id or sonar.gitlab.user_token");
+        }
+        if (projects.size() > 1) {
+            throw new IllegalStateException("Multiple found projects for " + config.projectId());
+        }
+        return projects.get(0);
+    }
+
+    /**
+     * @return results of all pages from first one
+     */
+    public <T> List<T> loadAll(@Nullable Paged<T> first) throws IOException {
+        List<T> result = new ArrayList<>();
+        forEachPage(first, result::addAll);
+        return result;
+    }
+
+    /**
+     * Revisions are loaded concurrently on helper executor, caller may already be a task of execution engine
+     *
+     * @return results of all pages per revision, in revisions order
+     */
+    public <T> Map<String, List<T>> loadPerRevision(List<String> revisions, IOFunction<String, List<T>> loader) throws IOException {
+        Map<String, List<T>> result = new LinkedHashMap<>();
+        if (revisions.size() <= 1) {
+            for (String revision : revisions) {
+                result.put(revision, loader.apply(revision));
+            }
+            return result;
+        }
+
+        try (ExecutionEngine.Scope scope = executionEngine.newScope()) {
+            Map<String, CompletableFuture<List<T>>> futures = new LinkedHashMap<>();
+            for (String revision : revisions) {
+                futures.put(revision, scope.track(CompletableFuture.supplyAsync(() -> apply(loader, revision), executionEngine.getHelperExecutor())));
+            }
+
+            scope.join();
+
+            futures.forEach((revision, future) -> result.put(revision, future.join()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result;
+    }
+
+    private static <T, R> R apply(IOFunction<T, R> function, T t) {
+        try {
+            return function.apply(t);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Load all pages with plugin HTTP transport and configured page size, items are read as java-gitlab-api models.
+     * The following page is requested while current page is read.
+     */
+    public <T> List<T> loadAll(IGitLabHttpTransport httpTransport, String path, Map<String, String> params, boolean keyset, Class<T> type) throws IOException {
+        JavaType listType = MAPPER.getTypeFactory().constructCollectionType(List.class, type);
+        List<T> result = new ArrayList<>();
+        pagination.forEachPagePrefetched(httpTransport, path, params, keyset, executionEngine.getHelperExecutor(), body -> {
+            List<T> page = MAPPER.readValue(body, listType);
+            result.addAll(page);
+            return page.size();
+        });
+        return result;
+    }
+
+    /**
+     * Get a single resource with plugin HTTP transport, read as java-gitlab-api model
+     */
+    public <T> T get(IGitLabHttpTransport httpTransport, String path, Class<T> type) throws IOException {
+        return MAPPER.readValue(httpTransport.execute(IGitLabHttpTransport.GET, path, Collections.emptyMap()).getBody(), type);
+    }
+
+    /**
+     * Give results of each page to consumer, the following page is requested before the consumer is called.
+     * First page is requested by caller with {@link #newApiPagination()}, each following page is counted as a java-gitlab-api call.
+     */
+    public <T> void forEachPage(@Nullable Paged<T> first, IOConsumer<List<T>> consumer) throws IOException {
+        PrefetchingPagedIterator<T> iterator = new PrefetchingPagedIterator<>(first, executionEngine.getHelperExecutor());
+        int pages = 0;
+        int items = 0;
+        try {
+            while (iterator.hasNext()) {
+                if (pages > 0) {
+                    pagination.getPostJobMetrics().recordHttpCall(PostJobMetrics.GITLAB_API);
+                }
+                pages++;
+                List<T> results = iterator.next();
+                items += results.size();
+                consumer.accept(results);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            iterator.close();
+        }
+        if (pages > 0) {
+            pagination.getPostJobMetrics().recordPagedRequests(PostJobMetrics.GITLAB_API, pages, pagination.savedRequests(items));
+        }
+    }
+
+    /**
+     * Add diff positions of revisions to diff index, from local git if possible, else from disk cache, else from GitLab
+     */
+    public void addPatchPositionsToDiffIndex(Integer projectId, List<String> revisions, IOFunction<String, Map<String, Set<IGitLabApiWrapper.Line>>> remote) throws IOException {
+        DiffIndexCache diffIndexCache = DiffIndexCache.create(config);
+        for (String revision : revisions) {
+            Map<String, Set<IGitLabApiWrapper.Line>> positions = localGitDiffProvider != null ? localGitDiffProvider.getPatchPositions(revision) : null;
+            if (positions == null) {
+                positions = diffIndexCache != null ? diffIndexCache.get(projectId, revision) : null;
+            }
+            if (positions == null) {
+                positions = remote.apply(revision);
+                if (diffIndexCache != null) {
+                    diffIndexCache.put(projectId, revision, positions);
+                }
+            }
+            LOG.debug("getPatchPositionsToLineMapping {} {}", revision, positions);
+            diffIndex.addRevision(revision, positions);
+        }
+    }
+
+    @FunctionalInterface
+    public interface IOSupplier<T> {
+
+        @CheckForNull
+        T get() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface IOFunction<T, R> {
+
+        R apply(T t) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface IORunnable {
+
+        void run() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface IOConsumer<T> {
+
+        void accept(T t) throws IOException;
+    }
+
+    /**
+     * Iterate over results of pages, when a page is returned the following one is already requested in background
+     */
+    static class PrefetchingPagedIterator<T> implements Iterator<List<T>> {
+
+        private final Executor executor;
+        private Paged<T> page;
+        private CompletableFuture<Paged<T>> following;
+
+        PrefetchingPagedIterator(@Nullable Paged<T> first, Executor executor) {
+            this.page = first;
+            this.executor = executor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (page == null && following != null) {
+                CompletableFuture<Paged<T>> future = following;
+                following = null;
+                page = join(future);
+            }
+            return page != null;
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Paged<T> current = page;
+            page = null;
+            following = CompletableFuture.supplyAsync(() -> nextPage(current::nextPage), executor);
+            return current.getResults() != null ? current.getResults() : Collections.emptyList();
+        }
+
+        /**
+         * Cancel page requested in background if iteration is stopped before the end
+         */
+        void close() {
+            if (following != null) {
+                following.cancel(true);
+                following = null;
+            }
+        }
+
+        private static <T> Paged<T> nextPage(IOSupplier<Paged<T>> nextPage) {
+            try {
+                return nextPage.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static <T> Paged<T> join(CompletableFuture<Paged<T>> future) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
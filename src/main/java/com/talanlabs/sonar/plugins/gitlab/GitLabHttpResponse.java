@@ -0,0 +1,87 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import javax.annotation.CheckForNull;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class GitLabHttpResponse {
+
+    private int code;
+    private String body;
+    private Map<String, String> headers;
+
+    private GitLabHttpResponse() {
+        // Nothing
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @param name header name, case insensitive
+     * @return first value of header or null
+     */
+    @CheckForNull
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public static class Builder {
+
+        private final GitLabHttpResponse gitLabHttpResponse;
+
+        private Builder() {
+            this.gitLabHttpResponse = new GitLabHttpResponse();
+            this.gitLabHttpResponse.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        }
+
+        public Builder code(int code) {
+            this.gitLabHttpResponse.code = code;
+            return this;
+        }
+
+        public Builder body(String body) {
+            this.gitLabHttpResponse.body = body;
+            return this;
+        }
+
+        public Builder header(String name, String value) {
+            this.gitLabHttpResponse.headers.putIfAbsent(name, value);
+            return this;
+        }
+
+        public GitLabHttpResponse build() {
+            this.gitLabHttpResponse.headers = Collections.unmodifiableMap(this.gitLabHttpResponse.headers);
+            return gitLabHttpResponse;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pagination of GitLab list requests done with plugin HTTP transport: large pages, next page given by Link header (keyset or offset) or X-Next-Page header.
+ * Number of requests saved compared to GitLab default page size is recorded in post job metrics.
+ */
+public class GitLabPagination {
+
+    public static final int MAX_PAGE_SIZE = 100;
+    static final int GITLAB_DEFAULT_PAGE_SIZE = 20;
+
+    private static final Pattern NEXT_LINK_PATTERN = Pattern.compile("<([^>]*)>\\s*;\\s*rel=\"next\"");
+
+    private final int pageSize;
+    private final PostJobMetrics postJobMetrics;
+
+    public GitLabPagination(int pageSize, PostJobMetrics postJobMetrics) {
+        this.pageSize = pageSize > 0 && pageSize <= MAX_PAGE_SIZE ? pageSize : MAX_PAGE_SIZE;
+        this.postJobMetrics = postJobMetrics;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public PostJobMetrics getPostJobMetrics() {
+        return postJobMetrics;
+    }
+
+    /**
+     * Read all pages of a list, keyset pagination is ordered by id and only supported by some GitLab v4 endpoints (ex: projects)
+     */
+    public void forEachPage(IGitLabHttpTransport httpTransport, String path, Map<String, String> params, boolean keyset, PageReader pageReader) throws IOException {
+        Map<String, String> pageParams = firstPageParams(params, keyset);
+        int requests = 0;
+        int items = 0;
+        while (pageParams != null) {
+            int[] count = new int[1];
+            GitLabHttpResponse response = httpTransport.get(path, pageParams, body -> count[0] = pageReader.read(body));
+            requests++;
+            items += count[0];
+            pageParams = nextPageParams(response, pageParams);
+        }
+        postJobMetrics.recordPagedRequests(PostJobMetrics.GITLAB_API, requests, savedRequests(items));
+    }
+
+    /**
+     * Like {@link #forEachPage}, but each page is buffered and the following one is requested on executor while it is read.
+     * Reader is called by caller thread only, in pages order.
+     */
+    public void forEachPagePrefetched(IGitLabHttpTransport httpTransport, String path, Map<String, String> params, boolean keyset, Executor executor, PageReader pageReader)
+            throws IOException {
+        Map<String, String> pageParams = firstPageParams(params, keyset);
+        int requests = 0;
+        int items = 0;
+        CompletableFuture<GitLabHttpResponse> following = null;
+        try {
+            GitLabHttpResponse response = httpTransport.execute(IGitLabHttpTransport.GET, path, pageParams);
+            while (response != null) {
+                requests++;
+                Map<String, String> nextParams = nextPageParams(response, pageParams);
+                following = nextParams != null ? CompletableFuture.supplyAsync(() -> get(httpTransport, path, nextParams), executor) : null;
+                items += pageReader.read(new ByteArrayInputStream(response.getBody() != null ? response.getBody().getBytes(StandardCharsets.UTF_8) : new byte[0]));
+                pageParams = nextParams;
+                response = following != null ? join(following) : null;
+                following = null;
+            }
+        } finally {
+            if (following != null) {
+                following.cancel(true);
+            }
+        }
+        postJobMetrics.recordPagedRequests(PostJobMetrics.GITLAB_API, requests, savedRequests(items));
+    }
+
+    private Map<String, String> firstPageParams(Map<String, String> params, boolean keyset) {
+        Map<String, String> pageParams = new LinkedHashMap<>(params);
+        pageParams.put("per_page", String.valueOf(pageSize));
+        if (keyset) {
+            pageParams.put("pagination", "keyset");
+            pageParams.put("order_by", "id");
+            pageParams.put("sort", "asc");
+        } else {
+            pageParams.put("page", "1");
+        }
+        return pageParams;
+    }
+
+    private static GitLabHttpResponse get(IGitLabHttpTransport httpTransport, String path, Map<String, String> params) {
+        try {
+            return httpTransport.execute(IGitLabHttpTransport.GET, path, params);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static GitLabHttpResponse join(CompletableFuture<GitLabHttpResponse> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return requests saved to read items with page size compared to GitLab default page size
+     */
+    int savedRequests(int items) {
+        return savedRequests(items, pageSize);
+    }
+
+    static int savedRequests(int items, int pageSize) {
+        return Math.max(0, pageCount(items, GITLAB_DEFAULT_PAGE_SIZE) - pageCount(items, pageSize));
+    }
+
+    private static int pageCount(int items, int pageSize) {
+        return Math.max(1, (items + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return params of next page, null on last page
+     */
+    @CheckForNull
+    static Map<String, String> nextPageParams(GitLabHttpResponse response, Map<String, String> params) {
+        String nextLink = nextLink(response.getHeader("Link"));
+        if (nextLink != null) {
+            return queryParams(nextLink);
+        }
+        String nextPage = response.getHeader("X-Next-Page");
+        if (nextPage != null && !nextPage.isEmpty()) {
+            Map<String, String> nextParams = new LinkedHashMap<>(params);
+            nextParams.put("page", nextPage);
+            return nextParams;
+        }
+        return null;
+    }
+
+    @CheckForNull
+    static String nextLink(@Nullable String link) {
+        if (link == null) {
+            return null;
+        }
+        Matcher matcher = NEXT_LINK_PATTERN.matcher(link);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    static Map<String, String> queryParams(String url) {
+        Map<String, String> params = new LinkedHashMap<>();
+        int index = url.indexOf('?');
+        if (index < 0) {
+            return params;
+        }
+        for (String param : url.substring(index + 1).split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int equals = param.indexOf('=');
+            params.put(decode(equals >= 0 ? param.substring(0, equals) : param), equals >= 0 ? decode(param.substring(equals + 1)) : "");
+        }
+        return params;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface PageReader {
+
+        /**
+         * @return number of items in page
+         */
+        int read(InputStream body) throws IOException;
+    }
+}
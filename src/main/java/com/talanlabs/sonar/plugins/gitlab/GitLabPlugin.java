@@ -20,6 +20,7 @@
 package com.talanlabs.sonar.plugins.gitlab;
 
 import com.talanlabs.sonar.plugins.gitlab.models.JsonMode;
+import com.talanlabs.sonar.plugins.gitlab.models.NewIssuesMode;
 import com.talanlabs.sonar.plugins.gitlab.models.QualityGateFailMode;
 import com.talanlabs.sonar.plugins.gitlab.models.StatusNotificationsMode;
 import org.sonar.api.Plugin;
@@ -68,12 +69,41 @@ public class GitLabPlugin implements Plugin {
     public static final String GITLAB_DISABLE_PROXY = "sonar.gitlab.disable_proxy";
     public static final String GITLAB_MERGE_REQUEST_DISCUSSION = "sonar.gitlab.merge_request_discussion";
     public static final String GITLAB_CI_MERGE_REQUEST_IID = "sonar.gitlab.ci_merge_request_iid";
+    public static final String GITLAB_CONCURRENT_POST_JOB = "sonar.gitlab.concurrent_post_job";
+    public static final String GITLAB_CACHE_MAX_SIZE = "sonar.gitlab.cache_max_size";
+    public static final String GITLAB_CACHE_EXPIRE_AFTER_WRITE = "sonar.gitlab.cache_expire_after_write";
+    public static final String GITLAB_METRICS_JSON = "sonar.gitlab.metrics_json";
+    public static final String GITLAB_HTTP_TRANSPORT = "sonar.gitlab.http_transport";
+    public static final String GITLAB_GRAPHQL_BATCH_SIZE = "sonar.gitlab.graphql_batch_size";
+    public static final String GITLAB_INLINE_FILE_THRESHOLD = "sonar.gitlab.inline_file_threshold";
+    public static final String GITLAB_INLINE_MERGE_REQUEST_THRESHOLD = "sonar.gitlab.inline_merge_request_threshold";
+    public static final String GITLAB_UPSERT_COMMENTS = "sonar.gitlab.upsert_comments";
+    public static final String GITLAB_CACHE_DIR = "sonar.gitlab.cache_dir";
+    public static final String GITLAB_INCREMENTAL = "sonar.gitlab.incremental";
+    public static final String GITLAB_SKIP_UNCHANGED = "sonar.gitlab.skip_unchanged";
+    public static final String GITLAB_DIFF_CACHE_MAX_SIZE = "sonar.gitlab.diff_cache_max_size";
+    public static final String GITLAB_DIFF_SOURCE = "sonar.gitlab.diff_source";
+    public static final String GITLAB_PAGE_SIZE = "sonar.gitlab.page_size";
+    public static final String GITLAB_SEARCH_COMMIT_FILES_ONLY = "sonar.gitlab.search_commit_files_only";
+    public static final String GITLAB_NEW_ISSUES_MODE = "sonar.gitlab.new_issues_mode";
+    public static final String GITLAB_SEARCH_SUMMARY_ONLY = "sonar.gitlab.search_summary_only";
+    public static final String GITLAB_MAX_THREADS = "sonar.gitlab.max_threads";
+    public static final String GITLAB_HTTP_MAX_RETRIES = "sonar.gitlab.http_max_retries";
+    public static final String GITLAB_HTTP_RETRY_BACKOFF = "sonar.gitlab.http_retry_backoff";
+    public static final String GITLAB_HTTP_HEDGE_DELAY = "sonar.gitlab.http_hedge_delay";
 
     public static final String CATEGORY = "gitlab";
     public static final String SUBCATEGORY = "reporting";
 
     public static final String V3_API_VERSION = "v3";
     public static final String V4_API_VERSION = "v4";
+    public static final String GRAPHQL_API_VERSION = "graphql";
+
+    public static final String DEFAULT_HTTP_TRANSPORT = "default";
+    public static final String OKHTTP_HTTP_TRANSPORT = "okhttp";
+
+    public static final String API_DIFF_SOURCE = "api";
+    public static final String GIT_DIFF_SOURCE = "git";
 
     public static List<PropertyDefinition> definitions() {
         return Arrays
@@ -133,7 +163,7 @@ public class GitLabPlugin implements Plugin {
                         PropertyDefinition.builder(GITLAB_PREFIX_DIRECTORY).name("Prefix directory for GitLab link").description("Add prefix for GitLab link").category(CATEGORY).subCategory(SUBCATEGORY)
                                 .type(PropertyType.STRING).defaultValue("").index(24).build(),
                         PropertyDefinition.builder(GITLAB_API_VERSION).name("Set GitLab API version").description("GitLab API version").category(CATEGORY).subCategory(SUBCATEGORY)
-                                .type(PropertyType.SINGLE_SELECT_LIST).options(V3_API_VERSION, V4_API_VERSION).defaultValue(V4_API_VERSION).index(25).build(),
+                                .type(PropertyType.SINGLE_SELECT_LIST).options(V3_API_VERSION, V4_API_VERSION, GRAPHQL_API_VERSION).defaultValue(V4_API_VERSION).index(25).build(),
                         PropertyDefinition.builder(GITLAB_ALL_ISSUES).name("All issues").description("Show all issues. (Default false, only new)").category(CATEGORY).subCategory(SUBCATEGORY)
                                 .type(PropertyType.BOOLEAN).defaultValue(String.valueOf(false)).index(26).build(),
                         PropertyDefinition.builder(GITLAB_JSON_MODE).name("Generate json report").description("Create a json report in root for GitLab EE").category(CATEGORY).subCategory(SUBCATEGORY)
@@ -166,13 +196,128 @@ public class GitLabPlugin implements Plugin {
                         PropertyDefinition.builder(GITLAB_CI_MERGE_REQUEST_IID).name("Merge Request IID").description("The IID of the merge request if it’s pipelines for merge requests")
                                 .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
                                 .defaultValue(String.valueOf(-1))
-                                .index(35).build()
+                                .index(35).build(),
+                        PropertyDefinition.builder(GITLAB_CONCURRENT_POST_JOB).name("Concurrent post job").description("In publish mode, initialize GitLab, wait quality gate and search issues concurrently")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.BOOLEAN)
+                                .defaultValue(String.valueOf(false))
+                                .index(36).build(),
+                        PropertyDefinition.builder(GITLAB_CACHE_MAX_SIZE).name("Cache max size").description("Max entries in SonarQube component and rule caches (-1 unbounded)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(10000))
+                                .index(37).build(),
+                        PropertyDefinition.builder(GITLAB_CACHE_EXPIRE_AFTER_WRITE).name("Cache expire after write").description("Expire entries of SonarQube component and rule caches after write (second, -1 never)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(-1))
+                                .index(38).build(),
+                        PropertyDefinition.builder(GITLAB_METRICS_JSON).name("Metrics json").description("Write post job phase timings and HTTP counters in sonar-gitlab-metrics.json next to the json report")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.BOOLEAN)
+                                .defaultValue(String.valueOf(false))
+                                .index(39).build(),
+                        PropertyDefinition.builder(GITLAB_HTTP_TRANSPORT).name("HTTP transport").description("HTTP transport for GitLab status and comments: default (java-gitlab-api) or okhttp (pooled keep-alive connections, HTTP/2)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.SINGLE_SELECT_LIST)
+                                .options(DEFAULT_HTTP_TRANSPORT, OKHTTP_HTTP_TRANSPORT).defaultValue(DEFAULT_HTTP_TRANSPORT)
+                                .index(40).build(),
+                        PropertyDefinition.builder(GITLAB_GRAPHQL_BATCH_SIZE).name("GraphQL batch size").description("Max diff notes created by one GraphQL request (api version graphql)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(50))
+                                .index(41).build(),
+                        PropertyDefinition.builder(GITLAB_INLINE_FILE_THRESHOLD).name("Inline file threshold").description("Above this number of inline comments in a file, report one comment for the file (-1 disabled)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(-1))
+                                .index(42).build(),
+                        PropertyDefinition.builder(GITLAB_INLINE_MERGE_REQUEST_THRESHOLD).name("Inline merge request threshold")
+                                .description("Above this number of inline comments in total, report one comment per file (-1 disabled)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(-1))
+                                .index(43).build(),
+                        PropertyDefinition.builder(GITLAB_UPSERT_COMMENTS).name("Update comments in place")
+                                .description("In merge request, update previous summary note and discussions instead of adding new ones, resolve discussions not reported anymore")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.BOOLEAN)
+                                .defaultValue(String.valueOf(false))
+                                .index(44).build(),
+                        PropertyDefinition.builder(GITLAB_CACHE_DIR).name("Cache directory")
+                                .description("Directory kept between pipelines (ex: CI cache), used to store state of previous analysis")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).index(45).build(),
+                        PropertyDefinition.builder(GITLAB_INCREMENTAL).name("Incremental inline comments")
+                                .description("Skip inline comments already published by previous analysis of same merge request or ref, ledger is stored in cache directory")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.BOOLEAN)
+                                .defaultValue(String.valueOf(false))
+                                .index(46).build(),
+                        PropertyDefinition.builder(GITLAB_SKIP_UNCHANGED).name("Skip unchanged analysis")
+                                .description("In publish mode with commit status notification, send nothing to GitLab when quality gate, issues and configuration are the same than last analysis of same commit stored in cache directory and its status is still published")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.BOOLEAN)
+                                .defaultValue(String.valueOf(false))
+                                .index(47).build(),
+                        PropertyDefinition.builder(GITLAB_DIFF_CACHE_MAX_SIZE).name("Diff cache max size")
+                                .description("Max size in megabytes of commit diffs stored in cache directory, oldest are removed (0 to disable)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(50))
+                                .index(48).build(),
+                        PropertyDefinition.builder(GITLAB_DIFF_SOURCE).name("Diff source")
+                                .description("Source of commit diffs: api (GitLab) or git (local repository, GitLab api is used when parent commit is missing in shallow clone)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.SINGLE_SELECT_LIST)
+                                .options(API_DIFF_SOURCE, GIT_DIFF_SOURCE).defaultValue(API_DIFF_SOURCE)
+                                .index(49).build(),
+                        PropertyDefinition.builder(GITLAB_PAGE_SIZE).name("Page size")
+                                .description("Number of items per page of GitLab list requests, max 100")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(GitLabPagination.MAX_PAGE_SIZE))
+                                .index(50).build(),
+                        PropertyDefinition.builder(GITLAB_SEARCH_COMMIT_FILES_ONLY).name("Search commit files only")
+                                .description("Search in SonarQube only issues of files in commit diff when issues are reported only from commit files or lines. Component keys are built with project key and path, do not use with multi-module projects")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.BOOLEAN)
+                                .defaultValue(String.valueOf(false))
+                                .index(51).build(),
+                        PropertyDefinition.builder(GITLAB_NEW_ISSUES_MODE).name("New issues mode")
+                                .description("Unresolved issues searched as new when all issues are not shown: ALL, ANALYSIS (created by this analysis) or LEAK_PERIOD (created since leak period)")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.SINGLE_SELECT_LIST)
+                                .options(NewIssuesMode.ALL.name(), NewIssuesMode.ANALYSIS.name(), NewIssuesMode.LEAK_PERIOD.name()).defaultValue(NewIssuesMode.ALL.name())
+                                .index(52).build(),
+                        PropertyDefinition.builder(GITLAB_SEARCH_SUMMARY_ONLY).name("Search summary only")
+                                .description("Without inline comments, commit file filters, json report nor global template, search in SonarQube only the count of issues by severity and the top max global issues")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.BOOLEAN)
+                                .defaultValue(String.valueOf(false))
+                                .index(53).build(),
+                        PropertyDefinition.builder(GITLAB_MAX_THREADS).name("Max threads")
+                                .description("Max threads of concurrent SonarQube and GitLab calls when virtual threads (Java 21+) are not available")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(8))
+                                .index(54).build(),
+                        PropertyDefinition.builder(GITLAB_HTTP_MAX_RETRIES).name("HTTP max retries")
+                                .description("Max retries of idempotent GitLab and SonarQube GET calls failed with network error or HTTP 429, 502, 503, 504. 0 disables retries")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(2))
+                                .index(55).build(),
+                        PropertyDefinition.builder(GITLAB_HTTP_RETRY_BACKOFF).name("HTTP retry backoff")
+                                .description("Base backoff in milliseconds before a retry, doubled on each retry with random jitter")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(200))
+                                .index(56).build(),
+                        PropertyDefinition.builder(GITLAB_HTTP_HEDGE_DELAY).name("HTTP hedge delay")
+                                .description("Min delay in milliseconds before a duplicate of a slow GET call is sent, p95 latency of previous calls is used when greater, first response wins. 0 disables hedged requests")
+                                .category(CATEGORY).subCategory(SUBCATEGORY).type(PropertyType.INTEGER)
+                                .defaultValue(String.valueOf(0))
+                                .index(57).build()
 
                 );
     }
 
+    /**
+     * @return GitLab api url for version (ex: https://gitlab.com/api/v4)
+     */
+    public static String apiUrl(String url, String apiVersion) {
+        return (url.endsWith("/") ? url.substring(0, url.length() - 1) : url) + "/api/" + apiVersion;
+    }
+
+    /**
+     * @return GitLab url for GraphQL transport (ex: https://gitlab.com/api)
+     */
+    public static String graphQLUrl(String url) {
+        return (url.endsWith("/") ? url.substring(0, url.length() - 1) : url) + "/api";
+    }
+
     @Override
     public void define(Context context) {
-        context.addExtensions(ReporterBuilder.class, GitLabPluginConfiguration.class, CommitFacade.class, SonarFacade.class, MarkDownUtils.class, CommitPublishPostJob.class).addExtensions(definitions());
+        context.addExtensions(ReporterBuilder.class, GitLabPluginConfiguration.class, CommitFacade.class, SonarFacade.class, MarkDownUtils.class, PostJobMetrics.class, ExecutionEngine.class, CommitPublishPostJob.class).addExtensions(definitions());
     }
 }
@@ -20,6 +20,7 @@
 package com.talanlabs.sonar.plugins.gitlab;
 
 import com.talanlabs.sonar.plugins.gitlab.models.JsonMode;
+import com.talanlabs.sonar.plugins.gitlab.models.NewIssuesMode;
 import com.talanlabs.sonar.plugins.gitlab.models.QualityGateFailMode;
 import com.talanlabs.sonar.plugins.gitlab.models.StatusNotificationsMode;
 import org.sonar.api.CoreProperties;
@@ -47,6 +48,7 @@ public class GitLabPluginConfiguration {
     public static final String HTTPS_PROXY_PORT = "https.proxyPort";
     public static final String HTTP_PROXY_USER = "http.proxyUser";
     public static final String HTTP_PROXY_PASS = "http.proxyPassword";
+    public static final String PULL_REQUEST_KEY = "sonar.pullrequest.key";
     private static final Logger LOG = Loggers.get(GitLabPluginConfiguration.class);
     private final Configuration configuration;
     private final System2 system2;
@@ -278,4 +280,106 @@ public class GitLabPluginConfiguration {
         return configuration.getInt(GitLabPlugin.GITLAB_CI_MERGE_REQUEST_IID).orElse(-1);
     }
 
+    /**
+     * @return key of SonarQube pull request analysis, merge request IID when not set, null without merge request
+     */
+    @CheckForNull
+    public String pullRequestKey() {
+        String pullRequestKey = configuration.get(PULL_REQUEST_KEY).orElse(null);
+        if (pullRequestKey == null && mergeRequestIid() > 0) {
+            return String.valueOf(mergeRequestIid());
+        }
+        return pullRequestKey;
+    }
+
+    public boolean concurrentPostJob() {
+        return configuration.getBoolean(GitLabPlugin.GITLAB_CONCURRENT_POST_JOB).orElse(false);
+    }
+
+    public int cacheMaxSize() {
+        return configuration.getInt(GitLabPlugin.GITLAB_CACHE_MAX_SIZE).orElse(10000);
+    }
+
+    public int cacheExpireAfterWrite() {
+        return configuration.getInt(GitLabPlugin.GITLAB_CACHE_EXPIRE_AFTER_WRITE).orElse(-1);
+    }
+
+    public boolean metricsJson() {
+        return configuration.getBoolean(GitLabPlugin.GITLAB_METRICS_JSON).orElse(false);
+    }
+
+    public String httpTransport() {
+        return configuration.get(GitLabPlugin.GITLAB_HTTP_TRANSPORT).orElse(GitLabPlugin.DEFAULT_HTTP_TRANSPORT);
+    }
+
+    public int graphQLBatchSize() {
+        return configuration.getInt(GitLabPlugin.GITLAB_GRAPHQL_BATCH_SIZE).orElse(50);
+    }
+
+    public int inlineFileThreshold() {
+        return configuration.getInt(GitLabPlugin.GITLAB_INLINE_FILE_THRESHOLD).orElse(-1);
+    }
+
+    public int inlineMergeRequestThreshold() {
+        return configuration.getInt(GitLabPlugin.GITLAB_INLINE_MERGE_REQUEST_THRESHOLD).orElse(-1);
+    }
+
+    public boolean upsertComments() {
+        return configuration.getBoolean(GitLabPlugin.GITLAB_UPSERT_COMMENTS).orElse(false);
+    }
+
+    @CheckForNull
+    public String cacheDir() {
+        return configuration.get(GitLabPlugin.GITLAB_CACHE_DIR).orElse(null);
+    }
+
+    public boolean incremental() {
+        return configuration.getBoolean(GitLabPlugin.GITLAB_INCREMENTAL).orElse(false);
+    }
+
+    public boolean skipUnchanged() {
+        return configuration.getBoolean(GitLabPlugin.GITLAB_SKIP_UNCHANGED).orElse(false);
+    }
+
+    public int diffCacheMaxSize() {
+        return configuration.getInt(GitLabPlugin.GITLAB_DIFF_CACHE_MAX_SIZE).orElse(50);
+    }
+
+    public String diffSource() {
+        return configuration.get(GitLabPlugin.GITLAB_DIFF_SOURCE).orElse(GitLabPlugin.API_DIFF_SOURCE);
+    }
+
+    public int pageSize() {
+        return configuration.getInt(GitLabPlugin.GITLAB_PAGE_SIZE).orElse(GitLabPagination.MAX_PAGE_SIZE);
+    }
+
+    public boolean searchCommitFilesOnly() {
+        return configuration.getBoolean(GitLabPlugin.GITLAB_SEARCH_COMMIT_FILES_ONLY).orElse(false);
+    }
+
+    public NewIssuesMode newIssuesMode() {
+        NewIssuesMode s = NewIssuesMode.of(configuration.get(GitLabPlugin.GITLAB_NEW_ISSUES_MODE).orElse(null));
+        return s != null ? s : NewIssuesMode.ALL;
+    }
+
+    public boolean searchSummaryOnly() {
+        return configuration.getBoolean(GitLabPlugin.GITLAB_SEARCH_SUMMARY_ONLY).orElse(false);
+    }
+
+    public int maxThreads() {
+        return configuration.getInt(GitLabPlugin.GITLAB_MAX_THREADS).orElse(8);
+    }
+
+    public int httpMaxRetries() {
+        return configuration.getInt(GitLabPlugin.GITLAB_HTTP_MAX_RETRIES).orElse(2);
+    }
+
+    public int httpRetryBackoff() {
+        return configuration.getInt(GitLabPlugin.GITLAB_HTTP_RETRY_BACKOFF).orElse(200);
+    }
+
+    public int httpHedgeDelay() {
+        return configuration.getInt(GitLabPlugin.GITLAB_HTTP_HEDGE_DELAY).orElse(0);
+    }
+
 }
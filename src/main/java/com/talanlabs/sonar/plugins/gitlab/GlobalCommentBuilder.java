@@ -180,6 +180,8 @@ public class GlobalCommentBuilder extends AbstractCommentBuilder {
                 }
             }
         }
+        // Issues only counted are not listed
+        notReportedDisplayedIssueCount += reporter.getNotReportedIssueCount() - reportedIssueCount;
 
         appendMore(builder, notReportedDisplayedIssueCount);
     }
@@ -0,0 +1,250 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonarqube.ws.client.HttpException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retries and hedged requests of idempotent GET calls to GitLab and SonarQube.
+ * Network errors and HTTP 429, 502, 503, 504 are retried with exponential backoff and jitter.
+ * When hedge delay is set, a duplicate call is sent if no response came after the max of hedge delay and p95 latency of previous calls, first response wins.
+ * Hedged calls run on helper executor of execution engine.
+ */
+public class HttpResilience {
+
+    private static final Logger LOG = Loggers.get(HttpResilience.class);
+
+    private static final Set<Integer> RETRYABLE_CODES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(429, 502, 503, 504)));
+    private static final long MAX_BACKOFF_MILLIS = 10000;
+    private static final int LATENCY_WINDOW = 100;
+    static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final String api;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final long hedgeDelayMillis;
+    private final PostJobMetrics postJobMetrics;
+    private final ExecutionEngine executionEngine;
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+
+    public HttpResilience(String api, GitLabPluginConfiguration config, PostJobMetrics postJobMetrics, ExecutionEngine executionEngine) {
+        this(api, config.httpMaxRetries(), config.httpRetryBackoff(), config.httpHedgeDelay(), postJobMetrics, executionEngine);
+    }
+
+    HttpResilience(String api, int maxRetries, long retryBackoffMillis, long hedgeDelayMillis, PostJobMetrics postJobMetrics, ExecutionEngine executionEngine) {
+        this.api = api;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBackoffMillis = Math.max(0, retryBackoffMillis);
+        this.hedgeDelayMillis = Math.max(0, hedgeDelayMillis);
+        this.postJobMetrics = postJobMetrics;
+        this.executionEngine = executionEngine;
+    }
+
+    /**
+     * Call with retries and hedged request, attempt may run twice at the same time
+     */
+    public <T> T call(Attempt<T> attempt) throws IOException {
+        if (hedgeDelayMillis > 0) {
+            return retry(() -> hedge(attempt));
+        }
+        return retry(attempt);
+    }
+
+    /**
+     * Call with retries only, for attempts which can not run twice at the same time (ex: response body given to a consumer)
+     */
+    public <T> T retry(Attempt<T> attempt) throws IOException {
+        for (int retry = 0; ; retry++) {
+            try {
+                return attempt.call();
+            } catch (IOException | RuntimeException e) {
+                if (retry >= maxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                long backoff = backoffMillis(retryBackoffMillis, retry);
+                LOG.debug("{} call failed ({}), retry {}/{} in {}ms", api, e.getMessage(), retry + 1, maxRetries, backoff);
+                postJobMetrics.recordRetry(api);
+                sleep(backoff);
+            }
+        }
+    }
+
+    private <T> T hedge(Attempt<T> attempt) throws IOException {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger launched = new AtomicInteger(1);
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> calls = new ArrayList<>(2);
+        calls.add(executionEngine.getHelperExecutor().submit(() -> run(attempt, result, launched, failures)));
+        try {
+            try {
+                return result.get(getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                LOG.debug("{} call is slow, send hedged request", api);
+                postJobMetrics.recordHedge(api);
+                launched.incrementAndGet();
+                calls.add(executionEngine.getHelperExecutor().submit(() -> run(attempt, result, launched, failures)));
+                return result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(api + " call interrupted");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } finally {
+            calls.forEach(c -> c.cancel(true));
+        }
+    }
+
+    /**
+     * Result is failed only when all launched calls failed
+     */
+    private <T> void run(Attempt<T> attempt, CompletableFuture<T> result, AtomicInteger launched, AtomicInteger failures) {
+        long start = System.nanoTime();
+        try {
+            T value = attempt.call();
+            recordLatency(System.nanoTime() - start);
+            result.complete(value);
+        } catch (Exception | Error e) {
+            if (failures.incrementAndGet() >= launched.get()) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static IOException rethrow(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause.getMessage(), cause);
+    }
+
+    private synchronized void recordLatency(long durationNanos) {
+        latencies[latencyCount % LATENCY_WINDOW] = durationNanos;
+        latencyCount++;
+    }
+
+    /**
+     * @return hedge delay, or p95 latency of last calls when greater and enough calls are known
+     */
+    long getHedgeDelayMillis() {
+        long[] samples;
+        synchronized (this) {
+            if (latencyCount < MIN_LATENCY_SAMPLES) {
+                return hedgeDelayMillis;
+            }
+            samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        Arrays.sort(samples);
+        long p95 = samples[(int) Math.ceil(samples.length * 0.95) - 1];
+        return Math.max(hedgeDelayMillis, TimeUnit.NANOSECONDS.toMillis(p95));
+    }
+
+    /**
+     * Exponential backoff with jitter, between half and full of base * 2^retry
+     */
+    static long backoffMillis(long baseMillis, int retry) {
+        long exp = Math.min(MAX_BACKOFF_MILLIS, baseMillis << Math.min(retry, 16));
+        long half = exp / 2;
+        return half + ThreadLocalRandom.current().nextLong(exp - half + 1);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Retry interrupted");
+        }
+    }
+
+    static boolean isRetryableCode(int code) {
+        return RETRYABLE_CODES.contains(code);
+    }
+
+    /**
+     * Network errors (SonarQube ws client wraps them in IllegalStateException) and retryable HTTP codes
+     */
+    static boolean isRetryable(Throwable e) {
+        if (e instanceof HttpStatusException) {
+            return isRetryableCode(((HttpStatusException) e).getCode());
+        }
+        if (e instanceof HttpException) {
+            return isRetryableCode(((HttpException) e).code());
+        }
+        if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (e instanceof IOException) {
+            return true;
+        }
+        return e.getCause() instanceof IOException && isRetryable(e.getCause());
+    }
+
+    @FunctionalInterface
+    public interface Attempt<T> {
+
+        T call() throws IOException;
+    }
+
+    /**
+     * GitLab response with a not 2xx status
+     */
+    public static class HttpStatusException extends IOException {
+
+        private final int code;
+
+        public HttpStatusException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+    }
+}
@@ -19,23 +19,31 @@
  */
 package com.talanlabs.sonar.plugins.gitlab;
 
+import com.google.common.hash.Hashing;
+
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
-import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 public interface IGitLabApiWrapper {
 
+    /**
+     * Index populated by init with diff of each commit
+     */
+    void setDiffIndex(DiffIndex diffIndex);
+
+    /**
+     * Diff of commits is computed with local repository when possible, must be called before init
+     */
+    void setLocalGitDiffProvider(@Nullable LocalGitDiffProvider localGitDiffProvider);
+
     void init();
 
     String getUsernameForRevision(String revision);
 
     void createOrUpdateSonarQubeStatus(String status, String statusDescription);
 
-    boolean hasFile(String path);
-
-    String getRevisionForLine(File file, String path, int lineNumber);
-
     boolean hasSameCommitCommentsForFile(String revision, String path, Integer lineNumber, String body);
 
     @CheckForNull
@@ -45,15 +53,60 @@ public interface IGitLabApiWrapper {
 
     void addGlobalComment(String comment);
 
+    /**
+     * Review comment already published by a previous analysis and not checked again, it must not be considered stale
+     */
+    void keepReviewComment(String fullPath, Integer line);
+
+    /**
+     * Send comments kept for batching, called once all review comments are created
+     */
+    void flush();
+
+    /**
+     * Added line of a diff, content is compared by its hash so a line read from diff cache needs no content
+     */
     class Line {
 
         private Integer number;
 
         private String content;
 
-        Line(Integer number, String content) {
+        private long contentHash;
+
+        Line(Integer number, @Nullable String content) {
             this.number = number;
             this.content = content;
+            this.contentHash = hash(content);
+        }
+
+        private Line(Integer number, long contentHash) {
+            this.number = number;
+            this.contentHash = contentHash;
+        }
+
+        static Line ofHash(Integer number, long contentHash) {
+            return new Line(number, contentHash);
+        }
+
+        static long hash(@Nullable String content) {
+            return content != null ? Hashing.murmur3_128().hashString(content, StandardCharsets.UTF_8).asLong() : 0L;
+        }
+
+        public Integer getNumber() {
+            return number;
+        }
+
+        /**
+         * @return content, null if line is read from diff cache
+         */
+        @CheckForNull
+        public String getContent() {
+            return content;
+        }
+
+        public long getContentHash() {
+            return contentHash;
         }
 
         @Override
@@ -73,12 +126,12 @@ public interface IGitLabApiWrapper {
             }
             Line line = (Line) o;
             return Objects.equals(number, line.number) &&
-                    Objects.equals(content, line.content);
+                    contentHash == line.contentHash;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(number, content);
+            return Objects.hash(number, contentHash);
         }
     }
 }
@@ -0,0 +1,113 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP transport for GitLab API calls not done by java-gitlab-api, path is relative to api url (ex: projects/1/statuses/abc)
+ */
+public interface IGitLabHttpTransport {
+
+    String GET = "GET";
+    String POST = "POST";
+    String PUT = "PUT";
+
+    /**
+     * Execute a request, params are sent in query for GET and form encoded otherwise
+     *
+     * @return response when status is 2xx
+     * @throws IOException on network error or other status
+     */
+    GitLabHttpResponse execute(String method, String path, Map<String, String> params) throws IOException;
+
+    /**
+     * Execute a GET request and give response body stream to consumer, it is never loaded in memory
+     *
+     * @return response when status is 2xx, without body
+     * @throws IOException on network error or other status
+     */
+    GitLabHttpResponse get(String path, Map<String, String> params, BodyConsumer consumer) throws IOException;
+
+    /**
+     * Post a json body (GraphQL)
+     *
+     * @return response when status is 2xx
+     * @throws IOException on network error or other status
+     */
+    GitLabHttpResponse postJson(String path, String json) throws IOException;
+
+    default GitLabHttpResponse postCommitStatus(Integer projectId, String sha, String state, @Nullable String ref, String name, @Nullable String description) throws IOException {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("state", state);
+        putIfNotNull(params, "ref", ref);
+        params.put("name", name);
+        putIfNotNull(params, "description", description);
+        return execute(POST, "projects/" + projectId + "/statuses/" + sha, params);
+    }
+
+    default GitLabHttpResponse postCommitComment(Integer projectId, String sha, String note, @Nullable String path, @Nullable Integer line, @Nullable String lineType) throws IOException {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("note", note);
+        putIfNotNull(params, "path", path);
+        putIfNotNull(params, "line", line);
+        putIfNotNull(params, "line_type", lineType);
+        return execute(POST, "projects/" + projectId + "/repository/commits/" + sha + "/comments", params);
+    }
+
+    default GitLabHttpResponse postMergeRequestDiscussion(Integer projectId, int mergeRequestIid, String body, String baseSha, String startSha, String headSha, String path, @Nullable Integer line)
+            throws IOException {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("body", body);
+        params.put("position[base_sha]", baseSha);
+        params.put("position[start_sha]", startSha);
+        params.put("position[head_sha]", headSha);
+        params.put("position[position_type]", "text");
+        params.put("position[old_path]", path);
+        params.put("position[new_path]", path);
+        putIfNotNull(params, "position[new_line]", line);
+        return execute(POST, "projects/" + projectId + "/merge_requests/" + mergeRequestIid + "/discussions", params);
+    }
+
+    /**
+     * @param projectId id or path with namespace of project, project lookup is not needed
+     */
+    default GitLabHttpResponse getCommitStatuses(String projectId, String sha, String name) throws IOException {
+        return execute(GET, "projects/" + CommitFacade.encodeForUrl(projectId) + "/repository/commits/" + sha + "/statuses", Collections.singletonMap("name", name));
+    }
+
+    @FunctionalInterface
+    interface BodyConsumer {
+
+        void accept(InputStream body) throws IOException;
+    }
+
+    static void putIfNotNull(Map<String, String> params, String key, @Nullable Object value) {
+        if (value != null) {
+            params.put(key, String.valueOf(value));
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal pull reader of JSON giving string values in chunks, a large value is never held in memory.
+ * Jackson streaming parser buffers a whole string value before giving it, this reader is used for commit diffs only.
+ */
+class JsonChunkReader implements Closeable {
+
+    static final int CHUNK_SIZE = 4096;
+
+    private final Reader reader;
+    private final char[] buffer = new char[CHUNK_SIZE];
+    private final char[] chunk = new char[CHUNK_SIZE];
+    private int pos;
+    private int limit;
+
+    JsonChunkReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return next not whitespace character without consuming it, -1 at end of input
+     */
+    int peek() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Consume next not whitespace character if it is c
+     */
+    boolean nextIf(char c) throws IOException {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    void expect(char c) throws IOException {
+        if (!nextIf(c)) {
+            int actual = peek();
+            throw new IOException("Invalid JSON, '" + c + "' expected but " + (actual == -1 ? "end of input" : "'" + (char) actual + "'") + " found");
+        }
+    }
+
+    String readString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        readString(sb::append);
+        return sb.toString();
+    }
+
+    /**
+     * Read a string value, unescaped characters are given to consumer in chunks of at most {@link #CHUNK_SIZE}
+     */
+    void readString(ChunkConsumer consumer) throws IOException {
+        expect('"');
+        int length = 0;
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                break;
+            }
+            if (c == '\\') {
+                c = readEscaped();
+            }
+            chunk[length++] = c;
+            if (length == chunk.length) {
+                consumer.accept(chunk, 0, length);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            consumer.accept(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Skip next value: object, array, string, number, boolean or null
+     */
+    void skipValue() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            readString((chars, offset, length) -> {
+                // Ignored
+            });
+        } else if (nextIf('{')) {
+            if (!nextIf('}')) {
+                do {
+                    readString((chars, offset, length) -> {
+                        // Ignored
+                    });
+                    expect(':');
+                    skipValue();
+                } while (nextIf(','));
+                expect('}');
+            }
+        } else if (nextIf('[')) {
+            if (!nextIf(']')) {
+                do {
+                    skipValue();
+                } while (nextIf(','));
+                expect(']');
+            }
+        } else {
+            skipLiteral();
+        }
+    }
+
+    private void skipLiteral() throws IOException {
+        int count = 0;
+        while (true) {
+            int c = peekRaw();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            pos++;
+            count++;
+        }
+        if (count == 0) {
+            throw new IOException("Invalid JSON, value expected");
+        }
+    }
+
+    private char readEscaped() throws IOException {
+        char c = next();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) {
+                        throw new IOException("Invalid JSON, bad unicode escape");
+                    }
+                    value = value * 16 + digit;
+                }
+                return (char) value;
+            default:
+                // '"', '\\' and '/'
+                return c;
+        }
+    }
+
+    private int peekRaw() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    private char next() throws IOException {
+        if (pos == limit && !fill()) {
+            throw new IOException("Invalid JSON, unexpected end of input");
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        int read = reader.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    @FunctionalInterface
+    interface ChunkConsumer {
+
+        void accept(char[] chars, int offset, int length) throws IOException;
+    }
+}
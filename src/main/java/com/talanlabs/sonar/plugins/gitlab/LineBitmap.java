@@ -0,0 +1,129 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of line numbers in the style of Roaring bitmaps: numbers are split by their high 16 bits into containers,
+ * a container is a sorted array when sparse and a bitset when dense. Rank gives index of a line in sorted order.
+ */
+final class LineBitmap {
+
+    private static final int ARRAY_MAX_SIZE = 4096;
+    private static final int BITSET_WORDS = 1024;
+
+    private final char[] keys;
+    private final Object[] containers;
+    // Number of values before each container
+    private final int[] offsets;
+    private final int cardinality;
+
+    private LineBitmap(char[] keys, Object[] containers, int[] offsets, int cardinality) {
+        this.keys = keys;
+        this.containers = containers;
+        this.offsets = offsets;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * @param values sorted distinct positive values
+     */
+    static LineBitmap of(int[] values) {
+        int containerCount = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || (values[i] >>> 16) != (values[i - 1] >>> 16)) {
+                containerCount++;
+            }
+        }
+        char[] keys = new char[containerCount];
+        Object[] containers = new Object[containerCount];
+        int[] offsets = new int[containerCount];
+
+        int start = 0;
+        for (int c = 0; c < containerCount; c++) {
+            int key = values[start] >>> 16;
+            int end = start;
+            while (end < values.length && (values[end] >>> 16) == key) {
+                end++;
+            }
+            keys[c] = (char) key;
+            offsets[c] = start;
+            containers[c] = end - start > ARRAY_MAX_SIZE ? toBitset(values, start, end) : toArray(values, start, end);
+            start = end;
+        }
+        return new LineBitmap(keys, containers, offsets, values.length);
+    }
+
+    private static char[] toArray(int[] values, int start, int end) {
+        char[] array = new char[end - start];
+        for (int i = start; i < end; i++) {
+            array[i - start] = (char) values[i];
+        }
+        return array;
+    }
+
+    private static long[] toBitset(int[] values, int start, int end) {
+        long[] bitset = new long[BITSET_WORDS];
+        for (int i = start; i < end; i++) {
+            int low = values[i] & 0xFFFF;
+            bitset[low >>> 6] |= 1L << low;
+        }
+        return bitset;
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean contains(int value) {
+        return rank(value) >= 0;
+    }
+
+    /**
+     * @return index of value in sorted values, negative if absent
+     */
+    int rank(int value) {
+        if (value < 0) {
+            return -1;
+        }
+        int c = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (c < 0) {
+            return -1;
+        }
+        char low = (char) value;
+        Object container = containers[c];
+        if (container instanceof char[]) {
+            int i = Arrays.binarySearch((char[]) container, low);
+            return i >= 0 ? offsets[c] + i : -1;
+        }
+        long[] bitset = (long[]) container;
+        int word = low >>> 6;
+        long mask = 1L << low;
+        if ((bitset[word] & mask) == 0) {
+            return -1;
+        }
+        int rank = Long.bitCount(bitset[word] & (mask - 1));
+        for (int w = 0; w < word; w++) {
+            rank += Long.bitCount(bitset[w]);
+        }
+        return offsets[c] + rank;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diff positions of a commit computed with local git repository (git diff --unified=0 with first parent), not truncated like GitLab api
+ */
+public class LocalGitDiffProvider {
+
+    private static final Logger LOG = Loggers.get(LocalGitDiffProvider.class);
+
+    private static final long TIMEOUT_SECONDS = 60;
+    private static final String DIFF_HEADER = "diff --git ";
+    private static final String NEW_FILE_HEADER = "+++ ";
+    private static final String DEV_NULL = "/dev/null";
+
+    private final File gitBaseDir;
+
+    public LocalGitDiffProvider(File gitBaseDir) {
+        this.gitBaseDir = gitBaseDir;
+    }
+
+    /**
+     * @return positions per new path, null if commit or its parent is missing (shallow clone) or git failed
+     */
+    @CheckForNull
+    public Map<String, Set<IGitLabApiWrapper.Line>> getPatchPositions(String revision) {
+        try {
+            if (!hasParent(revision)) {
+                LOG.debug("Parent of {} not found in local repository", revision);
+                return null;
+            }
+            return diff(revision);
+        } catch (IOException e) {
+            LOG.debug("Unable to compute diff of {} with local repository", revision, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private boolean hasParent(String revision) throws IOException, InterruptedException {
+        Process process = start("git", "rev-parse", "--verify", "--quiet", revision + "^");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            while (reader.readLine() != null) {
+                // Drain parent SHA
+            }
+        }
+        return waitFor(process) == 0;
+    }
+
+    private Map<String, Set<IGitLabApiWrapper.Line>> diff(String revision) throws IOException, InterruptedException {
+        Process process = start("git", "-c", "core.quotepath=off", "diff", "--unified=0", "--no-color", "--no-ext-diff", "--src-prefix=a/", "--dst-prefix=b/",
+                revision + "^", revision);
+        Map<String, Set<IGitLabApiWrapper.Line>> result = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String path = null;
+            StringBuilder patch = new StringBuilder();
+            boolean header = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(DIFF_HEADER)) {
+                    putPositions(result, path, patch);
+                    path = null;
+                    patch.setLength(0);
+                    header = true;
+                } else if (header && line.startsWith(NEW_FILE_HEADER)) {
+                    path = toPath(line.substring(NEW_FILE_HEADER.length()));
+                } else if (line.startsWith("@@")) {
+                    header = false;
+                    patch.append(line).append('\n');
+                } else if (!header) {
+                    patch.append(line).append('\n');
+                }
+            }
+            putPositions(result, path, patch);
+        }
+        if (waitFor(process) != 0) {
+            throw new IOException("git diff failed for " + revision);
+        }
+        return result;
+    }
+
+    private static void putPositions(Map<String, Set<IGitLabApiWrapper.Line>> result, String path, StringBuilder patch) {
+        if (path != null) {
+            result.put(path, PatchUtils.getPositionsFromPatch(patch.toString()));
+        }
+    }
+
+    /**
+     * @return path without prefix, null for deleted file
+     */
+    @CheckForNull
+    private static String toPath(String header) {
+        // Git ends path with a tab when it contains spaces
+        String value = header.endsWith("\t") ? header.substring(0, header.length() - 1) : header;
+        String path = value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+        if (DEV_NULL.equals(path)) {
+            return null;
+        }
+        return path.startsWith("b/") ? path.substring(2) : path;
+    }
+
+    private Process start(String... command) throws IOException {
+        return new ProcessBuilder(command).directory(gitBaseDir).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    private static int waitFor(Process process) throws InterruptedException, IOException {
+        if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new IOException("git timeout after " + TIMEOUT_SECONDS + "s");
+        }
+        return process.exitValue();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Update in place notes of the plugin in a merge request, notes are found with a hidden marker containing the hash of the body.
+ * Unchanged notes are not sent again and inline discussions not reported anymore are resolved.
+ */
+public class MergeRequestNotesUpdater {
+
+    private static final Logger LOG = Loggers.get(MergeRequestNotesUpdater.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String SUMMARY = "summary";
+    private static final String INLINE = "inline";
+    private static final Pattern MARKER_PATTERN = Pattern.compile("<!-- sonar-gitlab-plugin (\\w+) hash:(\\w+) -->");
+
+    private final IGitLabHttpTransport httpTransport;
+    private final GitLabPagination pagination;
+    private final String mergeRequestPath;
+    private Map<String, MarkedNote> inlineNotes;
+    private final Set<String> reportedInlineKeys = new HashSet<>();
+
+    public MergeRequestNotesUpdater(IGitLabHttpTransport httpTransport, GitLabPagination pagination, Integer projectId, int mergeRequestIid) {
+        this.httpTransport = httpTransport;
+        this.pagination = pagination;
+        this.mergeRequestPath = "projects/" + projectId + "/merge_requests/" + mergeRequestIid;
+    }
+
+    static String hash(String body) {
+        return Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString();
+    }
+
+    static String withMarker(String type, String body) {
+        return body + "\n\n<!-- sonar-gitlab-plugin " + type + " hash:" + hash(body) + " -->";
+    }
+
+    /**
+     * Create summary note or update the previous one, nothing is sent when body is unchanged
+     */
+    public void upsertSummary(String body) throws IOException {
+        String hash = hash(body);
+        MarkedNote previous = null;
+        for (JsonNode note : getAll(mergeRequestPath + "/notes")) {
+            MarkedNote markedNote = toMarkedNote(null, note);
+            if (markedNote != null && SUMMARY.equals(markedNote.type)) {
+                previous = markedNote;
+                break;
+            }
+        }
+
+        if (previous == null) {
+            httpTransport.execute(IGitLabHttpTransport.POST, mergeRequestPath + "/notes", Collections.singletonMap("body", withMarker(SUMMARY, body)));
+        } else if (!hash.equals(previous.hash)) {
+            httpTransport.execute(IGitLabHttpTransport.PUT, mergeRequestPath + "/notes/" + previous.noteId, Collections.singletonMap("body", withMarker(SUMMARY, body)));
+        } else {
+            LOG.debug("Summary note {} is unchanged", previous.noteId);
+        }
+    }
+
+    /**
+     * @return true if an inline discussion of the plugin exists on this line with same body, it is kept open
+     */
+    public boolean hasSameInline(String path, Integer line, String body) throws IOException {
+        MarkedNote markedNote = getInlineNotes().get(inlineKey(path, line));
+        if (markedNote != null && hash(body).equals(markedNote.hash)) {
+            reportedInlineKeys.add(inlineKey(path, line));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Update inline discussion of the plugin on this line if exists
+     *
+     * @return false if no discussion exists, body with marker must be created by caller
+     */
+    public boolean updateInline(String path, Integer line, String body) throws IOException {
+        String key = inlineKey(path, line);
+        reportedInlineKeys.add(key);
+
+        MarkedNote markedNote = getInlineNotes().get(key);
+        if (markedNote == null) {
+            return false;
+        }
+        if (!hash(body).equals(markedNote.hash)) {
+            httpTransport.execute(IGitLabHttpTransport.PUT, mergeRequestPath + "/discussions/" + markedNote.discussionId + "/notes/" + markedNote.noteId,
+                    Collections.singletonMap("body", inlineBody(body)));
+        }
+        return true;
+    }
+
+    /**
+     * Keep inline discussion of the plugin on this line open, without loading discussions
+     */
+    public void keepInline(String path, Integer line) {
+        reportedInlineKeys.add(inlineKey(path, line));
+    }
+
+    public String inlineBody(String body) {
+        return withMarker(INLINE, body);
+    }
+
+    /**
+     * Resolve unresolved inline discussions of the plugin not reported in this analysis
+     */
+    public void resolveStaleInlines() throws IOException {
+        for (Map.Entry<String, MarkedNote> entry : getInlineNotes().entrySet()) {
+            MarkedNote markedNote = entry.getValue();
+            if (!reportedInlineKeys.contains(entry.getKey()) && markedNote.resolvable && !markedNote.resolved) {
+                LOG.debug("Resolve stale discussion {}", markedNote.discussionId);
+                httpTransport.execute(IGitLabHttpTransport.PUT, mergeRequestPath + "/discussions/" + markedNote.discussionId, Collections.singletonMap("resolved", "true"));
+            }
+        }
+    }
+
+    private Map<String, MarkedNote> getInlineNotes() throws IOException {
+        if (inlineNotes == null) {
+            inlineNotes = new HashMap<>();
+            for (JsonNode discussion : getAll(mergeRequestPath + "/discussions")) {
+                JsonNode firstNote = discussion.path("notes").path(0);
+                MarkedNote markedNote = toMarkedNote(discussion.path("id").asText(null), firstNote);
+                JsonNode position = firstNote.path("position");
+                if (markedNote != null && INLINE.equals(markedNote.type) && position.hasNonNull("new_path") && position.hasNonNull("new_line")) {
+                    inlineNotes.put(inlineKey(position.get("new_path").asText(), position.get("new_line").asInt()), markedNote);
+                }
+            }
+        }
+        return inlineNotes;
+    }
+
+    private static String inlineKey(String path, Integer line) {
+        return path + ":" + line;
+    }
+
+    @CheckForNull
+    private static MarkedNote toMarkedNote(String discussionId, JsonNode note) {
+        Matcher matcher = MARKER_PATTERN.matcher(note.path("body").asText(""));
+        if (!matcher.find()) {
+            return null;
+        }
+        MarkedNote markedNote = new MarkedNote();
+        markedNote.discussionId = discussionId;
+        markedNote.noteId = note.path("id").asText();
+        markedNote.type = matcher.group(1);
+        markedNote.hash = matcher.group(2);
+        markedNote.resolvable = note.path("resolvable").asBoolean(false);
+        markedNote.resolved = note.path("resolved").asBoolean(false);
+        return markedNote;
+    }
+
+    private List<JsonNode> getAll(String path) throws IOException {
+        List<JsonNode> result = new ArrayList<>();
+        pagination.forEachPage(httpTransport, path, Collections.emptyMap(), false, body -> {
+            JsonNode page = MAPPER.readTree(body);
+            page.forEach(result::add);
+            return page.size();
+        });
+        return result;
+    }
+
+    private static class MarkedNote {
+
+        private String discussionId;
+        private String noteId;
+        private String type;
+        private String hash;
+        private boolean resolvable;
+        private boolean resolved;
+
+    }
+}
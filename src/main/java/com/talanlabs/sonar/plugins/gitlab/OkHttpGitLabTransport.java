@@ -0,0 +1,215 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.google.common.io.CountingInputStream;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OkHttp transport, connections are kept alive and reused (multiplexed with HTTP/2 when the JVM supports ALPN).
+ * Each request really sent is counted in post job metrics, with retried and hedged ones.
+ */
+public class OkHttpGitLabTransport implements IGitLabHttpTransport {
+
+    private static final Logger LOG = Loggers.get(OkHttpGitLabTransport.class);
+
+    private static final String PRIVATE_TOKEN_HEADER = "PRIVATE-TOKEN";
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json; charset=utf-8");
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_DURATION = 5;
+
+    private final HttpUrl apiUrl;
+    private final String userToken;
+    private final OkHttpClient client;
+    private final HttpResilience resilience;
+    private final PostJobMetrics postJobMetrics;
+
+    /**
+     * @param apiUrl base api url (ex: https://gitlab.com/api/v4)
+     * @param postJobMetrics metrics receiving HTTP calls, retries and hedged requests
+     * @param executionEngine engine running hedged requests
+     */
+    public OkHttpGitLabTransport(GitLabPluginConfiguration config, String apiUrl, PostJobMetrics postJobMetrics, ExecutionEngine executionEngine) {
+        HttpUrl url = HttpUrl.parse(apiUrl.endsWith("/") ? apiUrl : apiUrl + "/");
+        if (url == null) {
+            throw new IllegalArgumentException("Invalid GitLab url " + apiUrl);
+        }
+        this.apiUrl = url;
+        this.userToken = config.userToken();
+        this.resilience = new HttpResilience(PostJobMetrics.GITLAB_API, config, postJobMetrics, executionEngine);
+        this.postJobMetrics = postJobMetrics;
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder().connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        if (config.isProxyConnectionEnabled()) {
+            Proxy proxy = config.getHttpProxy();
+            builder.proxy(proxy).proxyAuthenticator((route, response) -> {
+                PasswordAuthentication auth = requestProxyAuthentication(proxy);
+                if (auth == null || response.request().header("Proxy-Authorization") != null) {
+                    return null;
+                }
+                return response.request().newBuilder().header("Proxy-Authorization", Credentials.basic(auth.getUserName(), new String(auth.getPassword()))).build();
+            });
+        }
+        if (config.ignoreCertificate()) {
+            ignoreCertificate(builder);
+        }
+        this.client = builder.build();
+    }
+
+    private static PasswordAuthentication requestProxyAuthentication(Proxy proxy) {
+        if (!(proxy.address() instanceof InetSocketAddress)) {
+            return null;
+        }
+        InetSocketAddress address = (InetSocketAddress) proxy.address();
+        return Authenticator.requestPasswordAuthentication(address.getHostString(), address.getAddress(), address.getPort(), "http", null, "basic", null, Authenticator.RequestorType.PROXY);
+    }
+
+    private static void ignoreCertificate(OkHttpClient.Builder builder) {
+        builder.sslSocketFactory(TrustAllCertificates.sslContext().getSocketFactory(), TrustAllCertificates.TRUST_MANAGER).hostnameVerifier((hostname, session) -> true);
+    }
+
+    @Override
+    public GitLabHttpResponse execute(String method, String path, Map<String, String> params) throws IOException {
+        HttpUrl url = apiUrl.resolve(path);
+        if (url == null) {
+            throw new IllegalArgumentException("Invalid GitLab path " + path);
+        }
+        HttpUrl.Builder urlBuilder = url.newBuilder();
+        if (GET.equals(method)) {
+            params.forEach(urlBuilder::addQueryParameter);
+            HttpUrl getUrl = urlBuilder.build();
+            return resilience.call(() -> call(GET, path, getUrl, null, null));
+        }
+        FormBody.Builder formBuilder = new FormBody.Builder();
+        params.forEach(formBuilder::add);
+        return call(method, path, urlBuilder.build(), formBuilder.build(), null);
+    }
+
+    @Override
+    public GitLabHttpResponse get(String path, Map<String, String> params, BodyConsumer consumer) throws IOException {
+        HttpUrl url = apiUrl.resolve(path);
+        if (url == null) {
+            throw new IllegalArgumentException("Invalid GitLab path " + path);
+        }
+        HttpUrl.Builder urlBuilder = url.newBuilder();
+        params.forEach(urlBuilder::addQueryParameter);
+        return call(GET, path, urlBuilder.build(), null, consumer);
+    }
+
+    @Override
+    public GitLabHttpResponse postJson(String path, String json) throws IOException {
+        HttpUrl url = apiUrl.resolve(path);
+        if (url == null) {
+            throw new IllegalArgumentException("Invalid GitLab path " + path);
+        }
+        return call(POST, path, url, RequestBody.create(JSON_MEDIA_TYPE, json), null);
+    }
+
+    /**
+     * Body streamed to consumer can not be read twice, only sending of the request is retried
+     */
+    private GitLabHttpResponse call(String method, String path, HttpUrl url, @Nullable RequestBody requestBody, @Nullable BodyConsumer consumer) throws IOException {
+        Request.Builder requestBuilder = new Request.Builder().url(url).method(method, requestBody);
+        if (userToken != null) {
+            requestBuilder.header(PRIVATE_TOKEN_HEADER, userToken);
+        }
+        Request request = requestBuilder.build();
+
+        Response response = consumer != null ? resilience.retry(() -> send(method, path, request)) : send(method, path, request);
+        long bytesReceived = 0;
+        try (ResponseBody responseBody = response.body()) {
+            String body = null;
+            if (consumer == null && responseBody != null) {
+                byte[] bytes = responseBody.bytes();
+                bytesReceived = bytes.length;
+                body = new String(bytes, charset(responseBody));
+            } else if (responseBody != null) {
+                CountingInputStream inputStream = new CountingInputStream(responseBody.byteStream());
+                try {
+                    consumer.accept(inputStream);
+                } finally {
+                    bytesReceived = inputStream.getCount();
+                }
+            }
+            GitLabHttpResponse.Builder builder = GitLabHttpResponse.newBuilder().code(response.code()).body(body);
+            response.headers().names().forEach(name -> builder.header(name, response.header(name)));
+            return builder.build();
+        } finally {
+            postJobMetrics.recordHttpCall(PostJobMetrics.GITLAB_API, bytesSent(request), bytesReceived);
+        }
+    }
+
+    private static Charset charset(ResponseBody responseBody) {
+        MediaType contentType = responseBody.contentType();
+        return contentType != null ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+    }
+
+    private static long bytesSent(Request request) throws IOException {
+        return request.body() != null ? Math.max(0, request.body().contentLength()) : 0;
+    }
+
+    /**
+     * @return successful response, body is closed on other status
+     */
+    private Response send(String method, String path, Request request) throws IOException {
+        LOG.debug("{} {}", method, request.url());
+        Response response = client.newCall(request).execute();
+        if (!response.isSuccessful()) {
+            String body = null;
+            long bytesReceived = 0;
+            try (ResponseBody responseBody = response.body()) {
+                if (responseBody != null) {
+                    byte[] bytes = responseBody.bytes();
+                    bytesReceived = bytes.length;
+                    body = new String(bytes, charset(responseBody));
+                }
+            } finally {
+                postJobMetrics.recordHttpCall(PostJobMetrics.GITLAB_API, bytesSent(request), bytesReceived);
+            }
+            throw new HttpResilience.HttpStatusException(response.code(), "GitLab " + method + " " + path + " failed with HTTP " + response.code() + ": " + body);
+        }
+        return response;
+    }
+}
@@ -34,14 +34,62 @@ public class PatchUtils {
     }
 
     public static final Set<IGitLabApiWrapper.Line> getPositionsFromPatch(String patch) {
-        Set<IGitLabApiWrapper.Line> positions = new HashSet<>();
-
-        int currentLine = -1;
+        PositionsParser parser = new PositionsParser();
         for (String line : patch.split("\\n|\\r\\n")) {
+            if (!parser.parseLine(line)) {
+                throw new IllegalStateException("Unable to parse line:\n\t" + line + "\nFull patch: \n\t" + patch);
+            }
+        }
+        return parser.getPositions();
+    }
+
+    /**
+     * Incremental parser, patch can be given by chunks of characters so that whole patch is never kept in memory
+     */
+    public static class PositionsParser {
+
+        private final Set<IGitLabApiWrapper.Line> positions = new HashSet<>();
+        private final StringBuilder currentText = new StringBuilder();
+        private int currentLine = -1;
+
+        /**
+         * Parse a chunk of patch, lines can be split between chunks
+         */
+        public void append(char[] chars, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                char c = chars[i];
+                if (c == '\n') {
+                    endLine();
+                } else {
+                    currentText.append(c);
+                }
+            }
+        }
+
+        public Set<IGitLabApiWrapper.Line> finish() {
+            if (currentText.length() > 0) {
+                endLine();
+            }
+            return positions;
+        }
+
+        private void endLine() {
+            int length = currentText.length();
+            String line = length > 0 && currentText.charAt(length - 1) == '\r' ? currentText.substring(0, length - 1) : currentText.toString();
+            currentText.setLength(0);
+            if (!parseLine(line)) {
+                throw new IllegalStateException("Unable to parse line:\n\t" + line);
+            }
+        }
+
+        /**
+         * @return false if hunk header is invalid
+         */
+        boolean parseLine(String line) {
             if (line.startsWith("@")) {
                 Matcher matcher = PATCH_PATTERN.matcher(line);
                 if (!matcher.matches()) {
-                    throw new IllegalStateException("Unable to parse line:\n\t" + line + "\nFull patch: \n\t" + patch);
+                    return false;
                 }
                 currentLine = Integer.parseInt(matcher.group(1));
             } else if (line.startsWith("+")) {
@@ -52,8 +100,11 @@ public class PatchUtils {
                 // https://gitlab.com/gitlab-org/gitlab-ce/issues/26606
                 currentLine++;
             }
+            return true;
         }
 
-        return positions;
+        Set<IGitLabApiWrapper.Line> getPositions() {
+            return positions;
+        }
     }
 }
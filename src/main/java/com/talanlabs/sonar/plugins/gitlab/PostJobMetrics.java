@@ -0,0 +1,250 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.ScannerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Phase timings and HTTP counters of the post job, logged at the end and optionally written in json
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+@ScannerSide
+public class PostJobMetrics {
+
+    public static final String SONARQUBE_API = "sonarqube";
+    public static final String GITLAB_API = "gitlab";
+
+    private static final Logger LOG = Loggers.get(PostJobMetrics.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final Map<String, HttpCalls> httpCalls = new LinkedHashMap<>();
+    private final Map<String, PagedRequests> pagedRequests = new LinkedHashMap<>();
+    private final Map<String, Resilience> resilience = new LinkedHashMap<>();
+    private final Map<String, Integer> coalesced = new LinkedHashMap<>();
+
+    public <T> T time(String phase, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            recordPhase(phase, System.nanoTime() - start);
+        }
+    }
+
+    public void time(String phase, Runnable runnable) {
+        time(phase, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public synchronized void recordPhase(String phase, long durationNanos) {
+        Phase p = phases.computeIfAbsent(phase, k -> new Phase());
+        p.count++;
+        p.durationNanos += durationNanos;
+    }
+
+    public synchronized void recordHttpCall(String api, long bytesSent, long bytesReceived) {
+        HttpCalls h = httpCalls.computeIfAbsent(api, k -> new HttpCalls());
+        h.count++;
+        h.bytesSent += bytesSent;
+        h.bytesReceived += bytesReceived;
+    }
+
+    /**
+     * Call of a client which does not give its request and response (java-gitlab-api), bytes are unavailable
+     */
+    public synchronized void recordHttpCall(String api) {
+        HttpCalls h = httpCalls.computeIfAbsent(api, k -> new HttpCalls());
+        h.count++;
+        h.unmeasured++;
+    }
+
+    /**
+     * @param savedRequests requests not sent thanks to larger pages than default
+     */
+    public synchronized void recordPagedRequests(String api, int requests, int savedRequests) {
+        PagedRequests p = pagedRequests.computeIfAbsent(api, k -> new PagedRequests());
+        p.requests += requests;
+        p.savedRequests += savedRequests;
+    }
+
+    public synchronized void recordRetry(String api) {
+        resilience.computeIfAbsent(api, k -> new Resilience()).retries++;
+    }
+
+    public synchronized void recordHedge(String api) {
+        resilience.computeIfAbsent(api, k -> new Resilience()).hedges++;
+    }
+
+    /**
+     * @param lookup name of lookup which call was not sent because same call was in flight
+     */
+    public synchronized void recordCoalesced(String lookup) {
+        coalesced.merge(lookup, 1, Integer::sum);
+    }
+
+    public synchronized long getPhaseDurationMillis(String phase) {
+        Phase p = phases.get(phase);
+        return p != null ? TimeUnit.NANOSECONDS.toMillis(p.durationNanos) : 0;
+    }
+
+    public synchronized int getPhaseCount(String phase) {
+        Phase p = phases.get(phase);
+        return p != null ? p.count : 0;
+    }
+
+    public synchronized int getHttpCallCount(String api) {
+        HttpCalls h = httpCalls.get(api);
+        return h != null ? h.count : 0;
+    }
+
+    public synchronized long getHttpBytesReceived(String api) {
+        HttpCalls h = httpCalls.get(api);
+        return h != null ? h.bytesReceived : 0;
+    }
+
+    /**
+     * @return number of calls without bytes transferred
+     */
+    public synchronized int getHttpUnmeasuredCallCount(String api) {
+        HttpCalls h = httpCalls.get(api);
+        return h != null ? h.unmeasured : 0;
+    }
+
+    public synchronized int getSavedRequests(String api) {
+        PagedRequests p = pagedRequests.get(api);
+        return p != null ? p.savedRequests : 0;
+    }
+
+    public synchronized int getRetries(String api) {
+        Resilience r = resilience.get(api);
+        return r != null ? r.retries : 0;
+    }
+
+    public synchronized int getHedges(String api) {
+        Resilience r = resilience.get(api);
+        return r != null ? r.hedges : 0;
+    }
+
+    public synchronized int getCoalesced(String lookup) {
+        return coalesced.getOrDefault(lookup, 0);
+    }
+
+    public synchronized void log() {
+        phases.forEach((name, p) -> LOG.info("Post job phase {}: {}ms ({} times)", name, TimeUnit.NANOSECONDS.toMillis(p.durationNanos), p.count));
+        httpCalls.forEach((api, h) -> {
+            if (h.isBytesAvailable()) {
+                LOG.info("Post job {} HTTP calls: {}, bytes sent={}, bytes received={}, calls without bytes={}", api, h.count, h.bytesSent, h.bytesReceived, h.unmeasured);
+            } else {
+                LOG.info("Post job {} HTTP calls: {}, bytes unavailable", api, h.count);
+            }
+        });
+        pagedRequests.forEach((api, p) -> LOG.info("Post job {} paged requests: {}, saved requests={}", api, p.requests, p.savedRequests));
+        resilience.forEach((api, r) -> LOG.info("Post job {} retries: {}, hedged requests={}", api, r.retries, r.hedges));
+        coalesced.forEach((lookup, count) -> LOG.info("Post job {} coalesced calls: {}", lookup, count));
+    }
+
+    /**
+     * Bytes are null when no call gave them, calls without bytes are given when some did not
+     */
+    public synchronized String toJson() {
+        ObjectNode root = MAPPER.createObjectNode();
+        ObjectNode phasesJson = root.putObject("phases");
+        phases.forEach((name, p) -> phasesJson.putObject(name).put("durationMs", TimeUnit.NANOSECONDS.toMillis(p.durationNanos)).put("count", p.count));
+
+        ObjectNode httpJson = root.putObject("http");
+        httpCalls.forEach((api, h) -> {
+            ObjectNode apiJson = httpJson.putObject(api).put("calls", h.count);
+            if (h.isBytesAvailable()) {
+                apiJson.put("bytesSent", h.bytesSent).put("bytesReceived", h.bytesReceived);
+            } else {
+                apiJson.putNull("bytesSent").putNull("bytesReceived");
+            }
+            if (h.unmeasured > 0) {
+                apiJson.put("callsWithoutBytes", h.unmeasured);
+            }
+        });
+
+        if (!pagedRequests.isEmpty()) {
+            ObjectNode pagedJson = root.putObject("paged");
+            pagedRequests.forEach((api, p) -> pagedJson.putObject(api).put("requests", p.requests).put("savedRequests", p.savedRequests));
+        }
+        if (!resilience.isEmpty()) {
+            ObjectNode resilienceJson = root.putObject("resilience");
+            resilience.forEach((api, r) -> resilienceJson.putObject(api).put("retries", r.retries).put("hedges", r.hedges));
+        }
+        if (!coalesced.isEmpty()) {
+            ObjectNode coalescedJson = root.putObject("coalesced");
+            coalesced.forEach(coalescedJson::put);
+        }
+        try {
+            return MAPPER.writeValueAsString(root);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to write metrics in json", e);
+        }
+    }
+
+    private static class Phase {
+
+        private int count;
+        private long durationNanos;
+
+    }
+
+    private static class PagedRequests {
+
+        private int requests;
+        private int savedRequests;
+
+    }
+
+    private static class Resilience {
+
+        private int retries;
+        private int hedges;
+
+    }
+
+    private static class HttpCalls {
+
+        private int count;
+        private long bytesSent;
+        private long bytesReceived;
+        private int unmeasured;
+
+        private boolean isBytesAvailable() {
+            return unmeasured < count;
+        }
+
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.talanlabs.sonar.plugins.gitlab.models.ReportIssue;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Fingerprints of inline comments published by previous pipeline of same merge request (or ref), stored in cache dir.
+ * A fingerprint is a hash of revision, author, file, line, issues (key, rule, severity, message) and template.
+ */
+public class PublishedIssuesLedger {
+
+    private static final Logger LOG = Loggers.get(PublishedIssuesLedger.class);
+
+    private final File file;
+    private final Set<String> previous;
+    private final Set<String> current = new TreeSet<>();
+    private int unchanged;
+
+    PublishedIssuesLedger(File file, Set<String> previous) {
+        this.file = file;
+        this.previous = previous;
+    }
+
+    /**
+     * @return ledger for current merge request or ref, empty if not exists
+     */
+    public static PublishedIssuesLedger load(File cacheDir, @Nullable String projectId, @Nullable String scope) {
+        String name = "ledger-" + Hashing.sha256().hashString(projectId + "/" + scope, StandardCharsets.UTF_8).toString().substring(0, 16) + ".txt";
+        File file = new File(cacheDir, name);
+        Set<String> previous = new HashSet<>();
+        if (file.isFile()) {
+            try {
+                previous.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                LOG.warn("Unable to read ledger {}, all comments are published", file, e);
+            }
+        }
+        return new PublishedIssuesLedger(file, previous);
+    }
+
+    public static String fingerprint(String revision, @Nullable String username, File file, Integer lineNumber, List<ReportIssue> reportIssues, @Nullable String template) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putNullable(hasher, revision);
+        putNullable(hasher, username);
+        putNullable(hasher, file.getPath());
+        hasher.putInt(lineNumber != null ? lineNumber : -1);
+        for (ReportIssue reportIssue : reportIssues) {
+            putNullable(hasher, reportIssue.getIssue().getKey());
+            putNullable(hasher, reportIssue.getIssue().getRuleKey());
+            putNullable(hasher, reportIssue.getIssue().getSeverity() != null ? reportIssue.getIssue().getSeverity().name() : null);
+            putNullable(hasher, reportIssue.getIssue().getMessage());
+        }
+        putNullable(hasher, template);
+        return hasher.hash().toString();
+    }
+
+    private static void putNullable(Hasher hasher, @Nullable String value) {
+        hasher.putString(value != null ? value : "", StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+
+    /**
+     * @return true if comment was published by previous pipeline, it is kept in ledger
+     */
+    public boolean isPublished(String fingerprint) {
+        if (previous.contains(fingerprint)) {
+            current.add(fingerprint);
+            unchanged++;
+            return true;
+        }
+        return false;
+    }
+
+    public void published(String fingerprint) {
+        current.add(fingerprint);
+    }
+
+    public void save() {
+        LOG.info("Incremental report: {} unchanged, {} added, {} resolved inline comments", unchanged, current.size() - unchanged, previous.size() - unchanged);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+            Files.write(tmp, current, StandardCharsets.UTF_8);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn("Unable to write ledger {}", file, e);
+        }
+    }
+}
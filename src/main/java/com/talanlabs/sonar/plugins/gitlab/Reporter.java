@@ -76,6 +76,14 @@ public class Reporter {
         }
     }
 
+    /**
+     * Count issues not loaded, known only by the number of issues by severity, as not reported on diff
+     */
+    public void addUnprocessedIssues(Severity severity, int count) {
+        this.newIssuesBySeverity[SEVERITIES.indexOf(severity)] += count;
+        notReportedIssueCount += count;
+    }
+
     private void increment(Severity severity) {
         this.newIssuesBySeverity[SEVERITIES.indexOf(severity)]++;
     }
@@ -33,6 +33,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
@@ -49,13 +50,17 @@ public class ReporterBuilder {
     private final CommitFacade commitFacade;
     private final MarkDownUtils markDownUtils;
     private final AnalysisMode analysisMode;
+    private final PostJobMetrics postJobMetrics;
+    private PublishedIssuesLedger ledger;
 
-    public ReporterBuilder(GitLabPluginConfiguration gitLabPluginConfiguration, SonarFacade sonarFacade, CommitFacade commitFacade, MarkDownUtils markDownUtils, AnalysisMode analysisMode) {
+    public ReporterBuilder(GitLabPluginConfiguration gitLabPluginConfiguration, SonarFacade sonarFacade, CommitFacade commitFacade, MarkDownUtils markDownUtils, AnalysisMode analysisMode,
+            PostJobMetrics postJobMetrics) {
         this.gitLabPluginConfiguration = gitLabPluginConfiguration;
         this.sonarFacade = sonarFacade;
         this.commitFacade = commitFacade;
         this.markDownUtils = markDownUtils;
         this.analysisMode = analysisMode;
+        this.postJobMetrics = postJobMetrics;
     }
 
     /**
@@ -66,28 +71,61 @@ public class ReporterBuilder {
      * @return a reporter
      */
     public Reporter build(QualityGate qualityGate, List<Issue> issues) {
+        return buildReport(qualityGate, IssuesSummary.of(issues));
+    }
+
+    /**
+     * Build a reporter for first issues only, other issues are counted in summary but not listed
+     *
+     * @param qualityGate   Quality Gate only for publish mode
+     * @param issuesSummary first issues and count of issues by severity
+     * @return a reporter
+     */
+    public Reporter buildFromSummary(QualityGate qualityGate, IssuesSummary issuesSummary) {
+        return buildReport(qualityGate, issuesSummary);
+    }
+
+    private Reporter buildReport(QualityGate qualityGate, IssuesSummary issuesSummary) {
         Reporter report = new Reporter(gitLabPluginConfiguration);
 
         report.setQualityGate(qualityGate);
 
-        processIssues(report, issues);
+        postJobMetrics.time("process-issues", () -> processIssues(report, issuesSummary.getIssues()));
+        if (!issuesSummary.isComplete()) {
+            addUnprocessedIssues(report, issuesSummary);
+        }
 
         if (gitLabPluginConfiguration.tryReportIssuesInline() && report.hasFileLine()) {
-            updateReviewComments(report);
+            ledger = loadLedger();
+            postJobMetrics.time("inline-comments", () -> updateReviewComments(report));
+        }
+        if (gitLabPluginConfiguration.tryReportIssuesInline()) {
+            commitFacade.flush();
+        }
+        if (ledger != null) {
+            ledger.save();
         }
 
         if (!gitLabPluginConfiguration.disableGlobalComment() && isGlobalComments(qualityGate, report)) {
-            updateGlobalComments(qualityGate, report);
+            postJobMetrics.time("global-comment", () -> updateGlobalComments(qualityGate, report));
         }
 
         if (!gitLabPluginConfiguration.jsonMode().equals(JsonMode.NONE)) {
-            String json = report.buildJson();
-            commitFacade.writeJsonFile(json);
+            postJobMetrics.time("json-report", () -> commitFacade.writeJsonFile(report.buildJson()));
         }
 
         return report;
     }
 
+    private PublishedIssuesLedger loadLedger() {
+        String cacheDir = gitLabPluginConfiguration.cacheDir();
+        if (!gitLabPluginConfiguration.incremental() || cacheDir == null) {
+            return null;
+        }
+        String scope = gitLabPluginConfiguration.mergeRequestIid() > 0 ? "!" + gitLabPluginConfiguration.mergeRequestIid() : gitLabPluginConfiguration.refName();
+        return PublishedIssuesLedger.load(new File(cacheDir), gitLabPluginConfiguration.projectId(), scope);
+    }
+
     private boolean isGlobalComments(QualityGate qualityGate, Reporter report) {
         return gitLabPluginConfiguration.commentNoIssue() || report.hasIssue() || (qualityGate != null && !QualityGate.Status.OK.equals(qualityGate.getStatus()));
     }
@@ -96,6 +134,15 @@ public class ReporterBuilder {
         getStreamIssue(issues).sorted(ISSUE_COMPARATOR).forEach(i -> processIssue(report, i));
     }
 
+    private void addUnprocessedIssues(Reporter report, IssuesSummary issuesSummary) {
+        Reporter.SEVERITIES.stream().filter(s -> toSeverityNum(s) >= toSeverityNum(gitLabPluginConfiguration.issueFilter())).forEach(s -> {
+            int count = issuesSummary.getCount(s) - report.getIssueCountForSeverity(s);
+            if (count > 0) {
+                report.addUnprocessedIssues(s, count);
+            }
+        });
+    }
+
     private Stream<Issue> getStreamIssue(List<Issue> issues) {
         return issues.stream().filter(p -> gitLabPluginConfiguration.allIssues() || p.isNewIssue()).filter(i -> {
             if (gitLabPluginConfiguration.onlyIssueFromCommitLine()) {
@@ -152,17 +199,49 @@ public class ReporterBuilder {
     }
 
     private void updateReviewComments(Reporter report) {
+        int inlineCount = report.getFileLineMap().values().stream().flatMap(m -> m.values().stream()).mapToInt(this::countInlineComments).sum();
+        boolean aggregateAll = isAboveThreshold(inlineCount, gitLabPluginConfiguration.inlineMergeRequestThreshold());
+        if (aggregateAll) {
+            LOG.info("{} inline comments above merge request threshold, one comment per file", inlineCount);
+        }
+
         for (Map.Entry<String, Map<File, Map<Integer, List<ReportIssue>>>> entry : report.getFileLineMap().entrySet()) {
             String revision = entry.getKey();
 
             String username = commitFacade.getUsernameForRevision(revision);
 
             for (Map.Entry<File, Map<Integer, List<ReportIssue>>> entryPerFile : entry.getValue().entrySet()) {
-                updateReviewComments(revision, username, entryPerFile.getKey(), entryPerFile.getValue());
+                if (aggregateAll || isAboveThreshold(countInlineComments(entryPerFile.getValue()), gitLabPluginConfiguration.inlineFileThreshold())) {
+                    updateFileReviewComment(revision, username, entryPerFile.getKey(), entryPerFile.getValue());
+                } else {
+                    updateReviewComments(revision, username, entryPerFile.getKey(), entryPerFile.getValue());
+                }
             }
         }
     }
 
+    private int countInlineComments(Map<Integer, List<ReportIssue>> linePerIssuesMap) {
+        if (gitLabPluginConfiguration.uniqueIssuePerInline()) {
+            return linePerIssuesMap.values().stream().mapToInt(List::size).sum();
+        }
+        return linePerIssuesMap.size();
+    }
+
+    private static boolean isAboveThreshold(int count, int threshold) {
+        return threshold > 0 && count > threshold;
+    }
+
+    private void updateFileReviewComment(String revision, String username, File file, Map<Integer, List<ReportIssue>> linePerIssuesMap) {
+        LOG.debug("updateFileReviewComment {} {}", revision, file);
+        Integer lineNumber = Collections.min(linePerIssuesMap.keySet());
+        String fingerprint = fingerprint(revision, username, file, lineNumber, linePerIssuesMap.values().stream().flatMap(List::stream).collect(Collectors.toList()), "file");
+        if (isPublished(fingerprint, file, lineNumber)) {
+            return;
+        }
+        String body = postJobMetrics.time("file-template", () -> new FileCommentBuilder(gitLabPluginConfiguration, revision, username, linePerIssuesMap, markDownUtils, analysisMode).buildForMarkdown());
+        createReviewCommentIfNotExists(revision, file, lineNumber, body, fingerprint);
+    }
+
     private void updateReviewComments(String revision, String username, File file, Map<Integer, List<ReportIssue>> linePerIssuesMap) {
         for (Map.Entry<Integer, List<ReportIssue>> entryPerLine : linePerIssuesMap.entrySet()) {
             updateReviewComments(revision, username, file, entryPerLine.getKey(), entryPerLine.getValue());
@@ -181,18 +260,42 @@ public class ReporterBuilder {
     }
 
     private void updateReviewCommentsPerInline(String revision, String username, File file, Integer lineNumber, List<ReportIssue> reportIssues) {
-        String body = new InlineCommentBuilder(gitLabPluginConfiguration, revision, username, lineNumber, reportIssues, markDownUtils, analysisMode).buildForMarkdown();
+        String fingerprint = fingerprint(revision, username, file, lineNumber, reportIssues, gitLabPluginConfiguration.inlineTemplate());
+        if (isPublished(fingerprint, file, lineNumber)) {
+            return;
+        }
+        String body = postJobMetrics.time("inline-template",
+                () -> new InlineCommentBuilder(gitLabPluginConfiguration, revision, username, lineNumber, reportIssues, markDownUtils, analysisMode).buildForMarkdown());
+        createReviewCommentIfNotExists(revision, file, lineNumber, body, fingerprint);
+    }
+
+    private String fingerprint(String revision, String username, File file, Integer lineNumber, List<ReportIssue> reportIssues, String template) {
+        return ledger != null ? PublishedIssuesLedger.fingerprint(revision, username, file, lineNumber, reportIssues, template) : null;
+    }
+
+    private boolean isPublished(String fingerprint, File file, Integer lineNumber) {
+        if (fingerprint != null && ledger.isPublished(fingerprint)) {
+            commitFacade.keepReviewComment(file, lineNumber);
+            return true;
+        }
+        return false;
+    }
+
+    private void createReviewCommentIfNotExists(String revision, File file, Integer lineNumber, String body, String fingerprint) {
         if (body != null && !body.trim().isEmpty()) {
             boolean exists = commitFacade.hasSameCommitCommentsForFile(revision, file, lineNumber, body);
             if (!exists) {
                 commitFacade.createOrUpdateReviewComment(revision, file, lineNumber, body);
             }
         }
+        if (fingerprint != null) {
+            ledger.published(fingerprint);
+        }
     }
 
     private void updateGlobalComments(QualityGate qualityGate, Reporter report) {
         String username = commitFacade.getUsernameForRevision(gitLabPluginConfiguration.commitSHA().get(0));
-        String body = new GlobalCommentBuilder(gitLabPluginConfiguration, username, qualityGate, report, markDownUtils, analysisMode).buildForMarkdown();
+        String body = postJobMetrics.time("global-template", () -> new GlobalCommentBuilder(gitLabPluginConfiguration, username, qualityGate, report, markDownUtils, analysisMode).buildForMarkdown());
         if (body != null && !body.trim().isEmpty()) {
             commitFacade.addGlobalComment(body);
         }
@@ -19,11 +19,18 @@
  */
 package com.talanlabs.sonar.plugins.gitlab;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.io.CountingInputStream;
 import com.google.common.io.Files;
+import com.google.protobuf.Parser;
+import com.talanlabs.sonar.plugins.gitlab.models.AnalysisContext;
 import com.talanlabs.sonar.plugins.gitlab.models.Issue;
+import com.talanlabs.sonar.plugins.gitlab.models.IssuesSummary;
 import com.talanlabs.sonar.plugins.gitlab.models.QualityGate;
 import com.talanlabs.sonar.plugins.gitlab.models.Rule;
 import org.sonar.api.CoreProperties;
@@ -34,20 +41,27 @@ import org.sonar.api.config.Configuration;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Metric;
 import org.sonar.api.resources.Qualifiers;
+import org.sonar.api.scan.filesystem.PathResolver;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonarqube.ws.*;
 import org.sonarqube.ws.client.*;
-import org.sonarqube.ws.client.ce.TaskRequest;
-import org.sonarqube.ws.client.components.ShowRequest;
-import org.sonarqube.ws.client.issues.SearchRequest;
-import org.sonarqube.ws.client.qualitygates.ProjectStatusRequest;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -60,26 +74,182 @@ public class SonarFacade {
     private static final Logger LOG = Loggers.get(SonarFacade.class);
     private static final String LOG_MSG = "{}: {} {} {}";
     private static final int MAX_SEARCH_ISSUES = 10000;
+    static final int SEARCH_ISSUES_PAGE_SIZE = 500;
+    static final int MAX_COMPONENT_KEYS_LENGTH = 4000;
+    private static final String SINCE_LEAK_PERIOD = "sinceLeakPeriod";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
     private final GitLabPluginConfiguration gitLabPluginConfiguration;
+    private final PostJobMetrics postJobMetrics;
+    private final ExecutionEngine executionEngine;
     private final WsClient wsClient;
+    private final HttpResilience resilience;
+    private final Object ceTaskLock = new Object();
     private File projectBaseDir;
     private File workDir;
+    private AnalysisContext analysisContext;
+    private AnalysisContext processedAnalysisContext;
+    private int initCount;
 
-    private Cache<String, File> componentCache = CacheBuilder.newBuilder().build();
-    private Cache<String, Rule> ruleCache = CacheBuilder.newBuilder().build();
+    private final Cache<String, File> componentCache;
+    private final Cache<String, Rule> ruleCache;
+    private final SingleFlight<String, Boolean> pullRequestLookups;
 
-    public SonarFacade(Configuration settings, GitLabPluginConfiguration gitLabPluginConfiguration) {
+    public SonarFacade(Configuration settings, GitLabPluginConfiguration gitLabPluginConfiguration, PostJobMetrics postJobMetrics, ExecutionEngine executionEngine) {
         this.gitLabPluginConfiguration = gitLabPluginConfiguration;
+        this.postJobMetrics = postJobMetrics;
+        this.executionEngine = executionEngine;
 
         HttpConnector httpConnector = HttpConnector.newBuilder().url(gitLabPluginConfiguration.baseUrl())
                 .credentials(settings.get(CoreProperties.LOGIN).orElse(null), settings.get(CoreProperties.PASSWORD).orElse(null)).build();
 
         wsClient = WsClientFactories.getDefault().newClient(httpConnector);
+        resilience = new HttpResilience(PostJobMetrics.SONARQUBE_API, gitLabPluginConfiguration, postJobMetrics, executionEngine);
+
+        componentCache = newCache();
+        ruleCache = newCache();
+        pullRequestLookups = new SingleFlight<>("sonarqube-pull-request", postJobMetrics);
+    }
+
+    private <K, V> Cache<K, V> newCache() {
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().recordStats();
+        if (gitLabPluginConfiguration.cacheMaxSize() > 0) {
+            cacheBuilder.maximumSize(gitLabPluginConfiguration.cacheMaxSize());
+        }
+        if (gitLabPluginConfiguration.cacheExpireAfterWrite() > 0) {
+            cacheBuilder.expireAfterWrite(gitLabPluginConfiguration.cacheExpireAfterWrite(), TimeUnit.SECONDS);
+        }
+        return cacheBuilder.build();
+    }
+
+    /**
+     * Concurrent loads of a missing key are already coalesced by cache, other callers wait for the first load
+     */
+    private static <V> V getCached(Cache<String, V> cache, String key, Callable<V> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Log statistics of component and rule caches, use for tune sonar.gitlab.cache_max_size and sonar.gitlab.cache_expire_after_write
+     */
+    public void logCacheStats() {
+        logCacheStats("component", componentCache);
+        logCacheStats("rule", ruleCache);
+    }
+
+    private void logCacheStats(String name, Cache<?, ?> cache) {
+        CacheStats stats = cache.stats();
+        LOG.info("SonarQube {} cache: size={}, requests={}, hitRate={}%, averageLoadTime={}ms, evictions={}", name, cache.size(), stats.requestCount(),
+                Math.round(stats.hitRate() * 100), TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()), stats.evictionCount());
     }
 
     public void init(File projectBaseDir, File workDir) {
         this.projectBaseDir = projectBaseDir;
         this.workDir = workDir;
+
+        synchronized (ceTaskLock) {
+            synchronized (this) {
+                this.analysisContext = null;
+                this.processedAnalysisContext = null;
+                this.initCount++;
+            }
+        }
+    }
+
+    /**
+     * Context of current analysis, report-task.txt is read and pull request is looked up only on first call (not exists in preview mode).
+     * Lookup is a request, it is done out of lock and coalesced for concurrent callers
+     *
+     * @return analysis context without analysis id
+     */
+    public AnalysisContext getAnalysisContext() {
+        String ceTaskId;
+        String projectKey;
+        int count;
+        synchronized (this) {
+            if (analysisContext != null) {
+                return analysisContext;
+            }
+            Properties reportTaskProps = readReportTaskProperties();
+            ceTaskId = reportTaskProps.getProperty("ceTaskId");
+            projectKey = reportTaskProps.getProperty("projectKey");
+            count = initCount;
+        }
+
+        String pullRequest = gitLabPluginConfiguration.pullRequestKey();
+        AnalysisContext context = AnalysisContext.newBuilder().ceTaskId(ceTaskId).projectKey(projectKey).branch(gitLabPluginConfiguration.refName())
+                .pullRequest(pullRequest != null && hasPullRequest(projectKey, pullRequest) ? pullRequest : null).build();
+
+        synchronized (this) {
+            if (count != initCount) {
+                // Initialized again during lookup, context is of previous analysis
+                return getAnalysisContext();
+            }
+            if (analysisContext == null) {
+                analysisContext = context;
+                LOG.debug("Analysis context {}", analysisContext);
+            }
+            return analysisContext;
+        }
+    }
+
+    private boolean hasPullRequest(String projectKey, String pullRequest) {
+        try {
+            return pullRequestLookups.load(projectKey + ":" + pullRequest, () -> loadHasPullRequest(projectKey, pullRequest));
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Pull requests are listed since SonarQube 7.1 and only by editions analysing them, else searches are scoped by branch
+     */
+    private boolean loadHasPullRequest(String projectKey, String pullRequest) {
+        JsonNode response;
+        try {
+            response = callJson(new GetRequest("api/project_pull_requests/list").setParam("project", projectKey));
+        } catch (HttpException e) {
+            LOG.debug("Pull requests not available ({}), use branch", e.code());
+            return false;
+        }
+
+        for (JsonNode node : response.path("pullRequests")) {
+            if (pullRequest.equals(node.path("key").asText())) {
+                return true;
+            }
+        }
+        LOG.debug("Pull request {} not analysed, use branch", pullRequest);
+        return false;
+    }
+
+    /**
+     * Scope request to pull request analysis or else to branch
+     */
+    static GetRequest scope(GetRequest request, AnalysisContext context) {
+        if (isNotBlankAndNotEmpty(context.getPullRequest())) {
+            request.setParam("pullRequest", context.getPullRequest());
+        } else if (isNotBlankAndNotEmpty(context.getBranch())) {
+            request.setParam("branch", context.getBranch());
+        }
+        return request;
+    }
+
+    /**
+     * Wait CE task only once, result is shared by all callers
+     *
+     * @return analysis context with analysis id
+     */
+    private AnalysisContext getProcessedAnalysisContext() {
+        synchronized (ceTaskLock) {
+            if (processedAnalysisContext == null) {
+                AnalysisContext context = getAnalysisContext();
+                processedAnalysisContext = context.withAnalysisId(postJobMetrics.time("sonarqube-ce-task", () -> getAnalysisId(context.getCeTaskId())));
+            }
+            return processedAnalysisContext;
+        }
     }
 
     /**
@@ -88,14 +258,23 @@ public class SonarFacade {
      * @return current quality gate
      */
     public QualityGate loadQualityGate() {
-        Properties reportTaskProps = readReportTaskProperties();
+        return join(loadQualityGateAsync());
+    }
 
-        String analysisId = getAnalysisId(reportTaskProps.getProperty("ceTaskId"));
+    /**
+     * Load quality gate on execution engine, once CE task is processed
+     *
+     * @return future of current quality gate
+     */
+    public CompletableFuture<QualityGate> loadQualityGateAsync() {
+        return submit(() -> {
+            AnalysisContext context = getProcessedAnalysisContext();
 
-        Qualitygates.ProjectStatusResponse.ProjectStatus projectStatus = checkQualityGate(analysisId);
-        logQualityGate(projectStatus);
+            Qualitygates.ProjectStatusResponse.ProjectStatus projectStatus = postJobMetrics.time("sonarqube-quality-gate", () -> checkQualityGate(context.getAnalysisId()));
+            logQualityGate(projectStatus);
 
-        return toQualityGate(projectStatus);
+            return toQualityGate(projectStatus);
+        });
     }
 
     private QualityGate toQualityGate(Qualitygates.ProjectStatusResponse.ProjectStatus projectStatus) {
@@ -112,8 +291,8 @@ public class SonarFacade {
         File reportTaskFile = new File(workDir, "report-task.txt");
 
         Properties properties = new Properties();
-        try {
-            properties.load(Files.newReader(reportTaskFile, StandardCharsets.UTF_8));
+        try (Reader reader = Files.newReader(reportTaskFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
         } catch (IOException e) {
             throw new IllegalStateException("Unable to load properties from file " + reportTaskFile, e);
         }
@@ -157,13 +336,14 @@ public class SonarFacade {
     }
 
     private Ce.Task getTask(String ceTaskId) {
-        Ce.TaskResponse taskResponse = wsClient.ce().task(new TaskRequest().setId(ceTaskId));
+        Ce.TaskResponse taskResponse = call(new GetRequest("api/ce/task").setParam("id", ceTaskId), Ce.TaskResponse.parser());
         return taskResponse.getTask();
     }
 
     private Qualitygates.ProjectStatusResponse.ProjectStatus checkQualityGate(String analysisId) {
         LOG.debug("Requesting quality gate status for analysisId {}", analysisId);
-        Qualitygates.ProjectStatusResponse projectStatusResponse = wsClient.qualitygates().projectStatus(new ProjectStatusRequest().setAnalysisId(analysisId));
+        Qualitygates.ProjectStatusResponse projectStatusResponse = call(new GetRequest("api/qualitygates/project_status").setParam("analysisId", analysisId),
+                Qualitygates.ProjectStatusResponse.parser());
         return projectStatusResponse.getProjectStatus();
     }
 
@@ -218,33 +398,212 @@ public class SonarFacade {
     }
 
     public List<Issue> getNewIssues() {
-        Properties reportTaskProps = readReportTaskProperties();
+        return join(getNewIssuesAsync());
+    }
+
+    /**
+     * Search new issues on execution engine, pages after the first one are loaded concurrently.
+     * Pages are forked in a scope: a failed page cancels the others, and so does the cancellation of the returned future.
+     *
+     * @return future of new issues in pages order
+     */
+    public CompletableFuture<List<Issue>> getNewIssuesAsync() {
+        long start = System.nanoTime();
+        ExecutionEngine.Scope scope = executionEngine.newScope();
+        CompletableFuture<List<Issue>> issues = scope.fork(() -> {
+            AnalysisContext context = getAnalysisContext();
+            Map<String, String> newIssuesParams = getNewIssuesParams();
+            Issues.SearchWsResponse firstPage = searchIssuesPage(context, context.getProjectKey(), false, newIssuesParams, 1);
+            return new IssuesPage(context, newIssuesParams, computeNbPage(firstPage.getTotal(), firstPage.getPs()), toIssues(firstPage, context));
+        }).thenCompose(firstPage -> {
+            List<CompletableFuture<List<Issue>>> pages = new ArrayList<>();
+            pages.add(CompletableFuture.completedFuture(firstPage.issues));
+            for (int page = 2; page <= firstPage.nbPage; page++) {
+                int p = page;
+                pages.add(scope.fork(() -> toIssues(searchIssuesPage(firstPage.context, firstPage.context.getProjectKey(), false, firstPage.newIssuesParams, p), firstPage.context)));
+            }
+            return scope.joinAsync().thenApply(v -> pages.stream().flatMap(f -> f.join().stream()).collect(Collectors.toList()));
+        }).whenComplete((r, e) -> postJobMetrics.recordPhase("sonarqube-issues", System.nanoTime() - start));
+        issues.whenComplete((r, e) -> {
+            if (e != null) {
+                scope.close();
+            }
+        });
+        return issues;
+    }
+
+    /**
+     * Search new issues of files only, issues on project itself are searched too unless issues are reported only from commit lines.
+     * Component keys are batched to keep url short.
+     */
+    public List<Issue> getNewIssues(Collection<File> files) {
+        return postJobMetrics.time("sonarqube-issues", () -> {
+            AnalysisContext context = getAnalysisContext();
+            String projectKey = context.getProjectKey();
+            Map<String, String> newIssuesParams = getNewIssuesParams();
+            if (newIssuesParams.containsKey(SINCE_LEAK_PERIOD)) {
+                LOG.debug("Search issues of project, leak period needs a single component");
+                return searchNewIssues(projectKey, false, newIssuesParams);
+            }
+
+            List<String> componentKeys = files.stream().map(f -> new PathResolver().relativePath(projectBaseDir, f)).filter(Objects::nonNull).map(p -> projectKey + ":" + p)
+                    .collect(Collectors.toList());
+            LOG.debug("Search issues of {} files", componentKeys.size());
+
+            List<Issue> issues = new ArrayList<>();
+            for (String batch : batchComponentKeys(componentKeys, MAX_COMPONENT_KEYS_LENGTH)) {
+                issues.addAll(searchNewIssues(batch, false, newIssuesParams));
+            }
+            if (!gitLabPluginConfiguration.onlyIssueFromCommitLine()) {
+                issues.addAll(searchNewIssues(projectKey, true, newIssuesParams));
+            }
+            return issues;
+        });
+    }
+
+    /**
+     * Count new issues by severity with the severities facet of first page, then load only the first issues sorted by severity
+     */
+    public IssuesSummary getNewIssuesSummary(int maxIssues) {
+        return postJobMetrics.time("sonarqube-issues", () -> {
+            AnalysisContext context = getAnalysisContext();
+            Map<String, String> newIssuesParams = getNewIssuesParams();
+            String severities = getSearchedSeverities(gitLabPluginConfiguration.issueFilter());
+            int pageSize = Math.max(1, Math.min(maxIssues, SEARCH_ISSUES_PAGE_SIZE));
+
+            Map<Severity, Integer> counts = new EnumMap<>(Severity.class);
+            List<Issue> issues = new ArrayList<>();
+            int page = 1;
+            long total;
+            do {
+                GetRequest searchRequest = scope(searchIssuesSummaryRequest(context.getProjectKey(), page, pageSize, severities), context);
+                newIssuesParams.forEach(searchRequest::setParam);
+                Issues.SearchWsResponse searchWsResponse = call(searchRequest, Issues.SearchWsResponse.parser());
+                if (page == 1) {
+                    searchWsResponse.getFacets().getFacetsList().stream().filter(f -> "severities".equals(f.getProperty())).flatMap(f -> f.getValuesList().stream())
+                            .forEach(v -> counts.put(Severity.valueOf(v.getVal()), (int) v.getCount()));
+                }
+                issues.addAll(toIssues(searchWsResponse, context));
+
+                total = searchWsResponse.getTotal();
+                page++;
+            } while (issues.size() < maxIssues && (long) (page - 1) * pageSize < Math.min(total, MAX_SEARCH_ISSUES));
+
+            LOG.debug("Search issues summary {} of {} issues", Math.min(issues.size(), maxIssues), total);
+            return IssuesSummary.newBuilder().issues(issues.subList(0, Math.min(issues.size(), maxIssues))).counts(counts).build();
+        });
+    }
+
+    /**
+     * Severities facet only on first page, most severe issues first
+     */
+    static GetRequest searchIssuesSummaryRequest(String componentKeys, int page, int pageSize, @Nullable String severities) {
+        GetRequest searchRequest = new GetRequest("api/issues/search").setParam("componentKeys", componentKeys).setParam("p", page).setParam("ps", pageSize)
+                .setParam("resolved", false).setParam("s", "SEVERITY").setParam("asc", false);
+        if (page == 1) {
+            searchRequest.setParam("facets", "severities");
+        }
+        if (severities != null) {
+            searchRequest.setParam("severities", severities);
+        }
+        return searchRequest;
+    }
+
+    /**
+     * @return comma separated component keys, each no longer than max length except for a single longer key
+     */
+    static List<String> batchComponentKeys(List<String> componentKeys, int maxLength) {
+        List<String> batches = new ArrayList<>();
+        StringBuilder batch = new StringBuilder();
+        for (String componentKey : componentKeys) {
+            if (batch.length() > 0 && batch.length() + 1 + componentKey.length() > maxLength) {
+                batches.add(batch.toString());
+                batch.setLength(0);
+            }
+            batch.append(batch.length() > 0 ? "," : "").append(componentKey);
+        }
+        if (batch.length() > 0) {
+            batches.add(batch.toString());
+        }
+        return batches;
+    }
+
+    /**
+     * Restrict search to new issues unless all issues are shown, analysis date is known only once CE task is processed
+     *
+     * @return additional parameters of issue search
+     */
+    private Map<String, String> getNewIssuesParams() {
+        if (gitLabPluginConfiguration.allIssues()) {
+            return Collections.emptyMap();
+        }
+        switch (gitLabPluginConfiguration.newIssuesMode()) {
+            case ANALYSIS:
+                return Collections.singletonMap("createdAt", getAnalysisDate(getProcessedAnalysisContext()));
+            case LEAK_PERIOD:
+                return Collections.singletonMap(SINCE_LEAK_PERIOD, String.valueOf(true));
+            default:
+                return Collections.emptyMap();
+        }
+    }
 
-        String projectKey = reportTaskProps.getProperty("projectKey");
-        String refName = gitLabPluginConfiguration.refName();
+    private String getAnalysisDate(AnalysisContext context) {
+        GetRequest showRequest = scope(new GetRequest("api/components/show").setParam("component", context.getProjectKey()), context);
+        String analysisDate = call(showRequest, Components.ShowWsResponse.parser()).getComponent().getAnalysisDate();
+        LOG.debug("Search issues created at {}", analysisDate);
+        return analysisDate;
+    }
+
+    private List<Issue> searchNewIssues(String componentKeys, boolean onComponentOnly, Map<String, String> newIssuesParams) {
+        AnalysisContext context = getAnalysisContext();
         int page = 1;
         Integer nbPage = null;
 
         List<Issue> issues = new ArrayList<>();
         while (nbPage == null || page <= nbPage) {
-            Issues.SearchWsResponse searchWsResponse = searchIssues(projectKey, refName, page);
+            Issues.SearchWsResponse searchWsResponse = searchIssuesPage(context, componentKeys, onComponentOnly, newIssuesParams, page);
             nbPage = computeNbPage(searchWsResponse.getTotal(), searchWsResponse.getPs());
-            issues.addAll(toIssues(searchWsResponse, refName));
+            issues.addAll(toIssues(searchWsResponse, context));
 
             page++;
         }
         return issues;
     }
 
-    private Issues.SearchWsResponse searchIssues(String componentKey, String branch, int page) {
-        SearchRequest searchRequest = new SearchRequest().setComponentKeys(Collections.singletonList(componentKey)).setP(String.valueOf(page)).setResolved("false");
-        if (isNotBlankAndNotEmpty(branch)) {
-            searchRequest.setBranch(branch);
+    private Issues.SearchWsResponse searchIssuesPage(AnalysisContext context, String componentKeys, boolean onComponentOnly, Map<String, String> newIssuesParams, int page) {
+        String severities = getSearchedSeverities(gitLabPluginConfiguration.issueFilter());
+        GetRequest searchRequest = scope(searchIssuesRequest(componentKeys, page, severities, onComponentOnly), context);
+        newIssuesParams.forEach(searchRequest::setParam);
+        return call(searchRequest, Issues.SearchWsResponse.parser());
+    }
+
+    /**
+     * @return severities reported with issue filter, null when all are
+     */
+    @CheckForNull
+    static String getSearchedSeverities(@Nullable Severity issueFilter) {
+        if (issueFilter == null || issueFilter == Severity.INFO) {
+            return null;
+        }
+        return Arrays.stream(Severity.values()).filter(s -> s.ordinal() >= issueFilter.ordinal()).map(Severity::name).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Largest page, no additional fields nor facets, sorted by file so a page references few components
+     */
+    static GetRequest searchIssuesRequest(String componentKeys, int page, @Nullable String severities, boolean onComponentOnly) {
+        GetRequest searchRequest = new GetRequest("api/issues/search").setParam("componentKeys", componentKeys).setParam("p", page).setParam("ps", SEARCH_ISSUES_PAGE_SIZE)
+                .setParam("resolved", false).setParam("s", "FILE_LINE").setParam("asc", true);
+        if (severities != null) {
+            searchRequest.setParam("severities", severities);
+        }
+        if (onComponentOnly) {
+            searchRequest.setParam("onComponentOnly", true);
         }
-        return wsClient.issues().search(searchRequest);
+        return searchRequest;
     }
 
-    private boolean isNotBlankAndNotEmpty(String branch) {
+    private static boolean isNotBlankAndNotEmpty(String branch) {
         return branch != null && !branch.trim().isEmpty();
     }
 
@@ -259,28 +618,25 @@ public class SonarFacade {
         return Math.min(nbPage, maxPage);
     }
 
-    private List<Issue> toIssues(Issues.SearchWsResponse issuesSearchWsResponse, String branch) {
+    private List<Issue> toIssues(Issues.SearchWsResponse issuesSearchWsResponse, AnalysisContext context) {
         List<Issues.Issue> issues = issuesSearchWsResponse.getIssuesList();
         if (issues == null) {
             return Collections.emptyList();
         }
 
-        List<Issues.Component> components = issuesSearchWsResponse.getComponentsList();
-
         Predicate<String> supported = ((Predicate<String>) Qualifiers.FILE::equals).or(Qualifiers.UNIT_TEST_FILE::equals);
 
+        Map<String, Issues.Component> components = new HashMap<>();
+        issuesSearchWsResponse.getComponentsList().stream().filter(c -> supported.test(c.getQualifier())).forEach(c -> components.putIfAbsent(c.getKey(), c));
+
         List<Issue> res = new ArrayList<>();
         for (Issues.Issue issue : issues) {
-            Optional<Issues.Component> componentOptional = components.stream()
-                    .filter(c -> supported.test(c.getQualifier()))
-                    .filter(c -> c.getKey().equals(issue.getComponent()))
-                    .findFirst();
+            Issues.Component component = components.get(issue.getComponent());
 
             File file = null;
-            if (componentOptional.isPresent()) {
-                Issues.Component component = componentOptional.get();
+            if (component != null) {
                 try {
-                    file = componentCache.get(component.getKey(), () -> toFile(componentOptional.get(), branch));
+                    file = getCached(componentCache, component.getKey(), () -> toFile(component, context));
                 } catch (Exception e) {
                     throw new IllegalStateException("Failed to get component file for " + component.getKey(), e);
                 }
@@ -290,13 +646,10 @@ public class SonarFacade {
         return res;
     }
 
-    private File toFile(Issues.Component component, String branch) {
-        ShowRequest showRequest = new ShowRequest().setComponent(component.getKey());
-        if (isNotBlankAndNotEmpty(branch)) {
-            showRequest.setBranch(branch);
-        }
+    private File toFile(Issues.Component component, AnalysisContext context) {
+        GetRequest showRequest = scope(new GetRequest("api/components/show").setParam("component", component.getKey()), context);
 
-        Components.ShowWsResponse showWsResponse = wsClient.components().show(showRequest);
+        Components.ShowWsResponse showWsResponse = call(showRequest, Components.ShowWsResponse.parser());
 
         StringBuilder sb = new StringBuilder(component.getPath());
         for (Components.Component a : showWsResponse.getAncestorsList()) {
@@ -318,9 +671,23 @@ public class SonarFacade {
     }
 
     public Rule getRule(String ruleKey) {
+        Rule rule = ruleCache.getIfPresent(ruleKey);
+        return rule != null ? rule : join(getRuleAsync(ruleKey));
+    }
+
+    /**
+     * Load rule on execution engine, rules are cached
+     *
+     * @return future of rule
+     */
+    public CompletableFuture<Rule> getRuleAsync(String ruleKey) {
+        return submit(() -> loadRule(ruleKey));
+    }
+
+    private Rule loadRule(String ruleKey) {
         try {
-            return ruleCache.get(ruleKey, () -> {
-                Rules.ShowResponse showResponse = showRule(ruleKey);
+            return getCached(ruleCache, ruleKey, () -> {
+                Rules.ShowResponse showResponse = postJobMetrics.time("sonarqube-rules", () -> showRule(ruleKey));
                 return toRule(showResponse);
             });
         } catch (Exception e) {
@@ -329,16 +696,66 @@ public class SonarFacade {
     }
 
     private Rules.ShowResponse showRule(String ruleKey) {
-        GetRequest getRequest = new GetRequest("api/rules/show").setParam("key", ruleKey).setMediaType(MediaTypes.PROTOBUF);
+        return call(new GetRequest("api/rules/show").setParam("key", ruleKey), Rules.ShowResponse.parser());
+    }
 
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return executionEngine.submit(task, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Synchronous methods join asynchronous ones, do not call them from a task of execution engine
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Call SonarQube WS in protobuf with retries and hedged request, count the calls and received bytes in post job metrics
+     */
+    private <T> T call(GetRequest getRequest, Parser<T> parser) {
+        return call(getRequest, MediaTypes.PROTOBUF, parser::parseFrom);
+    }
+
+    /**
+     * Call SonarQube WS in json, for services without protobuf response
+     */
+    private JsonNode callJson(GetRequest getRequest) {
+        return call(getRequest, MediaTypes.JSON, MAPPER::readTree);
+    }
+
+    private <T> T call(GetRequest getRequest, String mediaType, BodyParser<T> parser) {
+        getRequest.setMediaType(mediaType);
+        try {
+            return resilience.call(() -> doCall(getRequest, parser));
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private <T> T doCall(GetRequest getRequest, BodyParser<T> parser) {
         WsResponse wsResponse = wsClient.wsConnector().call(getRequest);
 
         if (wsResponse.code() != 200) {
-            throw new HttpException(wsClient.wsConnector().baseUrl() + toString(getRequest), wsResponse.code(), wsResponse.content());
+            String content = wsResponse.content();
+            postJobMetrics.recordHttpCall(PostJobMetrics.SONARQUBE_API, 0, content != null ? content.getBytes(StandardCharsets.UTF_8).length : 0);
+            throw new HttpException(wsClient.wsConnector().baseUrl() + toString(getRequest), wsResponse.code(), content);
         }
 
-        try {
-            return Rules.ShowResponse.parseFrom(wsResponse.contentStream());
+        try (CountingInputStream inputStream = new CountingInputStream(wsResponse.contentStream())) {
+            T response = parser.parse(inputStream);
+            postJobMetrics.recordHttpCall(PostJobMetrics.SONARQUBE_API, 0, inputStream.getCount());
+            return response;
         } catch (IOException e) {
             throw new IllegalStateException(e.getMessage(), e);
         }
@@ -359,4 +776,28 @@ public class SonarFacade {
                 .debtRemFnBaseEffort(rule.getRemFnBaseEffort())
                 .build();
     }
+
+    @FunctionalInterface
+    private interface BodyParser<T> {
+
+        T parse(InputStream body) throws IOException;
+    }
+
+    /**
+     * First page of issues search, with what is needed to load the next pages
+     */
+    private static class IssuesPage {
+
+        private final AnalysisContext context;
+        private final Map<String, String> newIssuesParams;
+        private final int nbPage;
+        private final List<Issue> issues;
+
+        IssuesPage(AnalysisContext context, Map<String, String> newIssuesParams, int nbPage, List<Issue> issues) {
+            this.context = context;
+            this.newIssuesParams = newIssuesParams;
+            this.nbPage = nbPage;
+            this.issues = issues;
+        }
+    }
 }
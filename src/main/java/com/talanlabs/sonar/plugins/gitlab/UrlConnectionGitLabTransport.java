@@ -0,0 +1,154 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.HttpsURLConnection;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Transport of default HTTP transport setting, one HttpURLConnection per request like java-gitlab-api.
+ * Used for the few calls java-gitlab-api does not give (ex: commit statuses), each request is counted in post job metrics.
+ */
+public class UrlConnectionGitLabTransport implements IGitLabHttpTransport {
+
+    private static final Logger LOG = Loggers.get(UrlConnectionGitLabTransport.class);
+
+    private static final String PRIVATE_TOKEN_HEADER = "PRIVATE-TOKEN";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private final GitLabPluginConfiguration config;
+    private final String apiUrl;
+    private final HttpResilience resilience;
+    private final PostJobMetrics postJobMetrics;
+
+    /**
+     * @param apiUrl base api url (ex: https://gitlab.com/api/v4)
+     * @param postJobMetrics metrics receiving HTTP calls, retries and hedged requests
+     * @param executionEngine engine running hedged requests
+     */
+    public UrlConnectionGitLabTransport(GitLabPluginConfiguration config, String apiUrl, PostJobMetrics postJobMetrics, ExecutionEngine executionEngine) {
+        this.config = config;
+        this.apiUrl = apiUrl.endsWith("/") ? apiUrl : apiUrl + "/";
+        this.resilience = new HttpResilience(PostJobMetrics.GITLAB_API, config, postJobMetrics, executionEngine);
+        this.postJobMetrics = postJobMetrics;
+    }
+
+    @Override
+    public GitLabHttpResponse execute(String method, String path, Map<String, String> params) throws IOException {
+        if (GET.equals(method)) {
+            return resilience.call(() -> call(GET, path + query(params), null, null, null));
+        }
+        return call(method, path, FORM_CONTENT_TYPE, encode(params).getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    @Override
+    public GitLabHttpResponse get(String path, Map<String, String> params, BodyConsumer consumer) throws IOException {
+        return call(GET, path + query(params), null, null, consumer);
+    }
+
+    @Override
+    public GitLabHttpResponse postJson(String path, String json) throws IOException {
+        return call(POST, path, JSON_CONTENT_TYPE, json.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * Body streamed to consumer can not be read twice, it is not retried
+     */
+    private GitLabHttpResponse call(String method, String path, @Nullable String contentType, @Nullable byte[] requestBody, @Nullable BodyConsumer consumer) throws IOException {
+        LOG.debug("{} {}{}", method, apiUrl, path);
+        HttpURLConnection connection = open(method, path);
+        CountingInputStream inputStream = null;
+        try {
+            if (requestBody != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", contentType);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(requestBody);
+                }
+            }
+
+            int code = connection.getResponseCode();
+            boolean successful = code >= 200 && code < 300;
+            InputStream responseBody = successful ? connection.getInputStream() : connection.getErrorStream();
+            inputStream = new CountingInputStream(responseBody != null ? responseBody : new ByteArrayInputStream(new byte[0]));
+
+            GitLabHttpResponse.Builder builder = GitLabHttpResponse.newBuilder().code(code);
+            connection.getHeaderFields().forEach((name, values) -> {
+                if (name != null && !values.isEmpty()) {
+                    builder.header(name, values.get(0));
+                }
+            });
+            if (successful && consumer != null) {
+                consumer.accept(inputStream);
+                return builder.build();
+            }
+            String body = new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+            if (!successful) {
+                throw new HttpResilience.HttpStatusException(code, "GitLab " + method + " " + path + " failed with HTTP " + code + ": " + body);
+            }
+            return builder.body(body).build();
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+            postJobMetrics.recordHttpCall(PostJobMetrics.GITLAB_API, requestBody != null ? requestBody.length : 0, inputStream != null ? inputStream.getCount() : 0);
+        }
+    }
+
+    private HttpURLConnection open(String method, String path) throws IOException {
+        URL url = new URL(apiUrl + path);
+        HttpURLConnection connection = (HttpURLConnection) (config.isProxyConnectionEnabled() ? url.openConnection(config.getHttpProxy()) : url.openConnection());
+        if (config.ignoreCertificate() && connection instanceof HttpsURLConnection) {
+            HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+            httpsConnection.setSSLSocketFactory(TrustAllCertificates.sslContext().getSocketFactory());
+            httpsConnection.setHostnameVerifier((hostname, session) -> true);
+        }
+        connection.setRequestMethod(method);
+        if (config.userToken() != null) {
+            connection.setRequestProperty(PRIVATE_TOKEN_HEADER, config.userToken());
+        }
+        return connection;
+    }
+
+    private static String query(Map<String, String> params) {
+        return params.isEmpty() ? "" : "?" + encode(params);
+    }
+
+    private static String encode(Map<String, String> params) {
+        StringJoiner sj = new StringJoiner("&");
+        params.forEach((name, value) -> sj.add(CommitFacade.encodeForUrl(name) + "=" + CommitFacade.encodeForUrl(value)));
+        return sj.toString();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab.models;
+
+/**
+ * Immutable context of the current analysis, read once from report-task.txt then completed with the CE task result
+ */
+public class AnalysisContext {
+
+    private String ceTaskId;
+    private String projectKey;
+    private String branch;
+    private String pullRequest;
+    private String analysisId;
+
+    private AnalysisContext() {
+        // Nothing
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public String getCeTaskId() {
+        return ceTaskId;
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    /**
+     * @return key of pull request analysis, null when analysis is scoped by branch
+     */
+    public String getPullRequest() {
+        return pullRequest;
+    }
+
+    public String getAnalysisId() {
+        return analysisId;
+    }
+
+    /**
+     * @return a copy of this context with the analysis id of the processed CE task
+     */
+    public AnalysisContext withAnalysisId(String analysisId) {
+        return newBuilder().ceTaskId(ceTaskId).projectKey(projectKey).branch(branch).pullRequest(pullRequest).analysisId(analysisId).build();
+    }
+
+    @Override
+    public String toString() {
+        return "AnalysisContext{" + "ceTaskId='" + ceTaskId + '\'' +
+                ", projectKey='" + projectKey + '\'' +
+                ", branch='" + branch + '\'' +
+                ", pullRequest='" + pullRequest + '\'' +
+                ", analysisId='" + analysisId + '\'' +
+                '}';
+    }
+
+    public static class Builder {
+
+        private AnalysisContext analysisContext;
+
+        private Builder() {
+            this.analysisContext = new AnalysisContext();
+        }
+
+        public Builder ceTaskId(String ceTaskId) {
+            analysisContext.ceTaskId = ceTaskId;
+            return this;
+        }
+
+        public Builder projectKey(String projectKey) {
+            analysisContext.projectKey = projectKey;
+            return this;
+        }
+
+        public Builder branch(String branch) {
+            analysisContext.branch = branch;
+            return this;
+        }
+
+        public Builder pullRequest(String pullRequest) {
+            analysisContext.pullRequest = pullRequest;
+            return this;
+        }
+
+        public Builder analysisId(String analysisId) {
+            analysisContext.analysisId = analysisId;
+            return this;
+        }
+
+        public AnalysisContext build() {
+            return analysisContext;
+        }
+    }
+}
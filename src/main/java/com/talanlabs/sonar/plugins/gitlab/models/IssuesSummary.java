@@ -0,0 +1,102 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab.models;
+
+import org.sonar.api.batch.rule.Severity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * New issues to report, with their count by severity when only the first issues are loaded
+ */
+public class IssuesSummary {
+
+    private List<Issue> issues;
+    private Map<Severity, Integer> counts;
+
+    private IssuesSummary() {
+        // Nothing
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return summary of all loaded issues
+     */
+    public static IssuesSummary of(List<Issue> issues) {
+        return newBuilder().issues(issues).build();
+    }
+
+    public List<Issue> getIssues() {
+        return Collections.unmodifiableList(issues);
+    }
+
+    /**
+     * @return true if all issues are loaded, else counts give the number of issues by severity
+     */
+    public boolean isComplete() {
+        return counts == null;
+    }
+
+    public int getCount(Severity severity) {
+        return counts != null ? counts.getOrDefault(severity, 0) : (int) issues.stream().filter(i -> severity.equals(i.getSeverity())).count();
+    }
+
+    @Override
+    public String toString() {
+        return "IssuesSummary{" + "issues=" + issues.size() +
+                ", counts=" + counts +
+                '}';
+    }
+
+    public static class Builder {
+
+        private IssuesSummary issuesSummary;
+
+        private Builder() {
+            this.issuesSummary = new IssuesSummary();
+        }
+
+        public Builder issues(List<Issue> issues) {
+            this.issuesSummary.issues = new ArrayList<>(issues);
+            return this;
+        }
+
+        public Builder counts(Map<Severity, Integer> counts) {
+            if (counts != null) {
+                this.issuesSummary.counts = new EnumMap<>(Severity.class);
+                this.issuesSummary.counts.putAll(counts);
+            } else {
+                this.issuesSummary.counts = null;
+            }
+            return this;
+        }
+
+        public IssuesSummary build() {
+            return issuesSummary;
+        }
+    }
+}
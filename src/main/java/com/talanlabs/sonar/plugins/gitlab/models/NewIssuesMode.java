@@ -0,0 +1,49 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab.models;
+
+/**
+ * Which unresolved issues are searched in SonarQube as new issues
+ */
+public enum NewIssuesMode {
+
+    /**
+     * All unresolved issues
+     */
+    ALL,
+    /**
+     * Issues created by current analysis
+     */
+    ANALYSIS,
+    /**
+     * Issues created since leak period
+     */
+    LEAK_PERIOD;
+
+    public static NewIssuesMode of(String name) {
+        for (NewIssuesMode m : values()) {
+            if (m.name().equals(name)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+}
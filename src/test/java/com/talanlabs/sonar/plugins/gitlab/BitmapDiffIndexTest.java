@@ -0,0 +1,90 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BitmapDiffIndexTest {
+
+    private static Set<IGitLabApiWrapper.Line> lines(IGitLabApiWrapper.Line... lines) {
+        return new HashSet<>(Arrays.asList(lines));
+    }
+
+    @Test
+    public void testIndex() {
+        Map<String, Set<IGitLabApiWrapper.Line>> positions1 = new HashMap<>();
+        positions1.put("src/Foo.php", lines(new IGitLabApiWrapper.Line(1, "a"), new IGitLabApiWrapper.Line(3, "c")));
+        positions1.put("bin/image.png", Collections.emptySet());
+        Map<String, Set<IGitLabApiWrapper.Line>> positions2 = new HashMap<>();
+        positions2.put("src/Foo.php", lines(new IGitLabApiWrapper.Line(2, "b"), new IGitLabApiWrapper.Line(3, "c")));
+        positions2.put("README.md", lines(new IGitLabApiWrapper.Line(1, null)));
+
+        DiffIndex diffIndex = new BitmapDiffIndex();
+        diffIndex.addRevision("123", positions1);
+        diffIndex.addRevision("456", positions2);
+
+        assertThat(diffIndex.hasFile("src/Foo.php")).isTrue();
+        assertThat(diffIndex.hasFile("bin/image.png")).isTrue();
+        assertThat(diffIndex.hasFile("README.md")).isTrue();
+        assertThat(diffIndex.hasFile("src")).isFalse();
+        assertThat(diffIndex.hasFile("src/Foo")).isFalse();
+        assertThat(diffIndex.hasFile("src/Foo.php/bar")).isFalse();
+
+        assertThat(diffIndex.getRevisionForLine("src/Foo.php", 1, "a")).isEqualTo("123");
+        assertThat(diffIndex.getRevisionForLine("src/Foo.php", 2, "b")).isEqualTo("456");
+        assertThat(diffIndex.getRevisionForLine("src/Foo.php", 3, "c")).isEqualTo("123");
+        assertThat(diffIndex.getRevisionForLine("src/Foo.php", 1, "changed")).isNull();
+        assertThat(diffIndex.getRevisionForLine("src/Foo.php", 4, null)).isNull();
+        assertThat(diffIndex.getRevisionForLine("README.md", 1, null)).isEqualTo("456");
+        assertThat(diffIndex.getRevisionForLine("src/Bar.php", 1, "a")).isNull();
+        assertThat(diffIndex.getFiles()).containsExactly("README.md", "bin/image.png", "src/Foo.php");
+    }
+
+    @Test
+    public void testLineBitmap() {
+        Random random = new Random(42);
+        for (int max : new int[] { 100, 5000, 70000, 300000 }) {
+            Set<Integer> set = new TreeSet<>();
+            for (int i = 0; i < 8000; i++) {
+                set.add(random.nextInt(max));
+            }
+            int[] values = set.stream().mapToInt(Integer::intValue).toArray();
+            LineBitmap bitmap = LineBitmap.of(values);
+
+            assertThat(bitmap.cardinality()).isEqualTo(values.length);
+            for (int value = -1; value <= max; value++) {
+                int index = Arrays.binarySearch(values, value);
+                assertThat(bitmap.rank(value)).isEqualTo(index >= 0 ? index : -1);
+            }
+        }
+        assertThat(LineBitmap.of(new int[0]).contains(1)).isFalse();
+    }
+}
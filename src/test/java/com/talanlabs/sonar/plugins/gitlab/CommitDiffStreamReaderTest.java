@@ -0,0 +1,90 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class CommitDiffStreamReaderTest {
+
+    @Rule
+    public MockWebServer gitlab = new MockWebServer();
+
+    @Test
+    public void testPatchPositions() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).addHeader("X-Next-Page", "2").setBody("[{\"diff\":\"@@ -1,2 +1,3 @@\\n a\\n+added\\n b\\n\",\"new_path\":\"src/Foo.php\","
+                + "\"old_path\":\"src/Foo.php\",\"a_mode\":null,\"new_file\":false,\"renamed_file\":false,\"deleted_file\":false}]"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).addHeader("X-Next-Page", "").setBody("[{\"old_path\":\"src/Bar.php\",\"new_path\":\"src/Bar.php\",\"diff\":\"@@ -0,0 +1 @@\\n+\\\"bar\\\"\"},"
+                + "{\"new_path\":\"bin/image.png\",\"diff\":\"\"}]"));
+
+        OkHttpGitLabTransport transport = new OkHttpGitLabTransport(mock(GitLabPluginConfiguration.class),
+                GitLabPlugin.apiUrl(String.format("http://%s:%d", gitlab.getHostName(), gitlab.getPort()), GitLabPlugin.V4_API_VERSION), new PostJobMetrics(),
+                new ExecutionEngine(1, false));
+        Map<String, Set<IGitLabApiWrapper.Line>> positions = new CommitDiffStreamReader(transport, new GitLabPagination(100, new PostJobMetrics())).getPatchPositions(1, "abc123");
+
+        assertThat(positions).containsOnlyKeys("src/Foo.php", "src/Bar.php", "bin/image.png");
+        assertThat(positions.get("src/Foo.php")).containsOnly(new IGitLabApiWrapper.Line(2, "added"));
+        assertThat(positions.get("src/Bar.php")).containsOnly(new IGitLabApiWrapper.Line(1, "\"bar\""));
+        assertThat(positions.get("bin/image.png")).isEmpty();
+
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects/1/repository/commits/abc123/diff?per_page=100&page=1");
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects/1/repository/commits/abc123/diff?per_page=100&page=2");
+    }
+
+    @Test
+    public void testReadLargeAndEscapedDiffs() throws IOException {
+        StringBuilder patch = new StringBuilder("@@ -0,0 +1,3000 @@\\n");
+        for (int i = 1; i <= 3000; i++) {
+            patch.append("+line ").append(i).append(" \\u00e9\\t\\\"quoted\\\"\\n");
+        }
+        String json = "[ {\"old_path\" : \"src/Foo.php\", \"diff\" : \"" + patch + "\",\n \"new_path\" : \"src/F\\u00f4o.php\", \"a_mode\" : null,"
+                + " \"stats\" : {\"additions\": 3000, \"lines\": [1, 2.5e1, true, {\"x\": [\"]\"]}]}, \"deleted_file\" : false } ,"
+                + " {\"new_path\": \"src/Bar.php\", \"diff\": null} ]";
+
+        Map<String, Set<IGitLabApiWrapper.Line>> positions = new HashMap<>();
+        assertThat(CommitDiffStreamReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), positions)).isEqualTo(2);
+
+        assertThat(positions).containsOnlyKeys("src/F\u00f4o.php", "src/Bar.php");
+        assertThat(positions.get("src/F\u00f4o.php")).hasSize(3000).contains(new IGitLabApiWrapper.Line(1, "line 1 \u00e9\t\"quoted\""),
+                new IGitLabApiWrapper.Line(3000, "line 3000 \u00e9\t\"quoted\""));
+        assertThat(positions.get("src/Bar.php")).isEmpty();
+    }
+
+    @Test
+    public void testReadInvalid() {
+        assertThatThrownBy(() -> CommitDiffStreamReader.read(new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), new HashMap<>())).isInstanceOf(IOException.class)
+                .hasMessage("Commit diff is not an array");
+        assertThatThrownBy(() -> CommitDiffStreamReader.read(new ByteArrayInputStream("[{\"diff\":\"@@ -0,0 +1 @@".getBytes(StandardCharsets.UTF_8)), new HashMap<>()))
+                .isInstanceOf(IOException.class).hasMessageContaining("end of input");
+    }
+}
@@ -42,7 +42,7 @@ public class CommitFacadeTest {
 
     @Test
     public void testInitGitBaseDirNotFound() throws Exception {
-        CommitFacade facade = new CommitFacade(mock(GitLabPluginConfiguration.class));
+        CommitFacade facade = new CommitFacade(mock(GitLabPluginConfiguration.class), new PostJobMetrics(), new ExecutionEngine(1, false));
         File projectBaseDir = temp.newFolder();
         facade.initGitBaseDir(projectBaseDir);
         assertThat(facade.getPath(new File(projectBaseDir, "src/main/java/Foo.java"))).isEqualTo("src/main/java/Foo.java");
@@ -50,7 +50,7 @@ public class CommitFacadeTest {
 
     @Test
     public void testInitGitBaseDir() throws Exception {
-        CommitFacade facade = new CommitFacade(mock(GitLabPluginConfiguration.class));
+        CommitFacade facade = new CommitFacade(mock(GitLabPluginConfiguration.class), new PostJobMetrics(), new ExecutionEngine(1, false));
         File gitBaseDir = temp.newFolder();
         Files.createDirectory(gitBaseDir.toPath().resolve(".git"));
         File projectBaseDir = new File(gitBaseDir, "myProject");
@@ -64,7 +64,7 @@ public class CommitFacadeTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
 
         File gitBasedir = temp.newFolder();
         facade.setGitBaseDir(gitBasedir);
@@ -80,7 +80,7 @@ public class CommitFacadeTest {
     public void testWriteCodeClimateJson() throws IOException {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
         when(gitLabPluginConfiguration.jsonMode()).thenReturn(JsonMode.CODECLIMATE);
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         File projectBaseDir = temp.newFolder();
         facade.initGitBaseDir(projectBaseDir);
 
@@ -94,7 +94,7 @@ public class CommitFacadeTest {
     public void testWriteSastJson() throws IOException {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
         when(gitLabPluginConfiguration.jsonMode()).thenReturn(JsonMode.SAST);
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         File projectBaseDir = temp.newFolder();
         facade.initGitBaseDir(projectBaseDir);
 
@@ -108,7 +108,7 @@ public class CommitFacadeTest {
     public void testWriteNoneJson() throws IOException {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
         when(gitLabPluginConfiguration.jsonMode()).thenReturn(JsonMode.NONE);
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         File projectBaseDir = temp.newFolder();
         facade.initGitBaseDir(projectBaseDir);
 
@@ -118,10 +118,24 @@ public class CommitFacadeTest {
         Assertions.assertThat(projectBaseDir.listFiles((p) -> p.getPath().endsWith(".json"))).isEmpty();
     }
 
+    @Test
+    public void testWriteMetricsJson() throws IOException {
+        CommitFacade facade = new CommitFacade(mock(GitLabPluginConfiguration.class), new PostJobMetrics(), new ExecutionEngine(1, false));
+        File projectBaseDir = temp.newFolder();
+
+        facade.writeMetricsJsonFile("{}");
+        Assertions.assertThat(projectBaseDir.listFiles()).isEmpty();
+
+        facade.initGitBaseDir(projectBaseDir);
+        facade.writeMetricsJsonFile("{\"phases\":{}}");
+
+        Assertions.assertThat(new File(projectBaseDir, "sonar-gitlab-metrics.json")).exists().hasContent("{\"phases\":{}}");
+    }
+
     @Test
     public void testUsernameForRevision() {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         IGitLabApiWrapper gitLabApiWrapper = mock(IGitLabApiWrapper.class);
         facade.setGitLabWrapper(gitLabApiWrapper);
         facade.getUsernameForRevision("123");
@@ -132,7 +146,7 @@ public class CommitFacadeTest {
     @Test
     public void testCreateOrUpdateSonarQubeStatus() {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         IGitLabApiWrapper gitLabApiWrapper = mock(IGitLabApiWrapper.class);
         facade.setGitLabWrapper(gitLabApiWrapper);
         facade.createOrUpdateSonarQubeStatus("ok", "hello");
@@ -140,13 +154,32 @@ public class CommitFacadeTest {
         Mockito.verify(gitLabApiWrapper).createOrUpdateSonarQubeStatus("ok", "hello");
     }
 
+    @Test
+    public void testHasSameSonarQubeStatus() throws IOException {
+        GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
+        when(gitLabPluginConfiguration.projectId()).thenReturn("group/project");
+        when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("abc123"));
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
+        IGitLabHttpTransport transport = mock(IGitLabHttpTransport.class);
+        when(transport.getCommitStatuses("group/project", "abc123", "sonarqube")).thenReturn(
+                GitLabHttpResponse.newBuilder().code(200).body("[{\"status\":\"success\",\"description\":\"hello\"},{\"status\":\"pending\"}]").build());
+        facade.setStatusTransport(transport);
+
+        assertThat(facade.hasSameSonarQubeStatus("success", "hello")).isTrue();
+        assertThat(facade.hasSameSonarQubeStatus("success", "other")).isFalse();
+        assertThat(facade.hasSameSonarQubeStatus("failed", "hello")).isFalse();
+
+        when(transport.getCommitStatuses("group/project", "abc123", "sonarqube")).thenThrow(new IOException("404"));
+        assertThat(facade.hasSameSonarQubeStatus("success", "hello")).isFalse();
+    }
+
     @Test
     public void testGetGitLabUrl() throws IOException {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         IGitLabApiWrapper gitLabApiWrapper = mock(IGitLabApiWrapper.class);
 
         File gitBasedir = temp.newFolder();
@@ -165,7 +198,7 @@ public class CommitFacadeTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
 
         File gitBasedir = temp.newFolder();
         facade.setGitBaseDir(gitBasedir);
@@ -185,7 +218,7 @@ public class CommitFacadeTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         IGitLabApiWrapper gitLabApiWrapper = mock(IGitLabApiWrapper.class);
 
         File gitBasedir = temp.newFolder();
@@ -200,7 +233,7 @@ public class CommitFacadeTest {
     @Test
     public void testAddGlobalComment() {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         IGitLabApiWrapper gitLabApiWrapper = mock(IGitLabApiWrapper.class);
         facade.setGitLabWrapper(gitLabApiWrapper);
         facade.addGlobalComment("hello");
@@ -213,7 +246,7 @@ public class CommitFacadeTest {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
         when(gitLabPluginConfiguration.baseUrl()).thenReturn("http://test/");
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
 
         Assertions.assertThat(facade.getRuleLink("hello")).isEqualTo("http://test/coding_rules#rule_key=hello");
 
@@ -25,7 +25,10 @@ import com.talanlabs.sonar.plugins.gitlab.models.QualityGateFailMode;
 import com.talanlabs.sonar.plugins.gitlab.models.StatusNotificationsMode;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.AnalysisMode;
@@ -44,6 +47,7 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -52,6 +56,9 @@ import static org.mockito.Mockito.when;
 
 public class CommitPublishPostJobTest {
 
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
     private ReporterBuilder reporterBuilder;
     private MapSettings settings;
     private CommitFacade commitFacade;
@@ -85,7 +92,7 @@ public class CommitPublishPostJobTest {
 
         GitLabPluginConfiguration config = new GitLabPluginConfiguration(settings.asConfig(), new System2());
 
-        commitPublishPostJob = new CommitPublishPostJob(config, sonarFacade, commitFacade, reporterBuilder);
+        commitPublishPostJob = new CommitPublishPostJob(config, sonarFacade, commitFacade, reporterBuilder, new PostJobMetrics(), new ExecutionEngine(config));
     }
 
     @Test
@@ -132,6 +139,22 @@ public class CommitPublishPostJobTest {
         Assertions.assertThatThrownBy(() -> commitPublishPostJob.execute(context)).isInstanceOf(MessageException.class).hasMessage("SonarQube failed to complete the review of this commit: null");
     }
 
+    @Test
+    public void testMetricsJson() {
+        settings.setProperty(GitLabPlugin.GITLAB_METRICS_JSON, true);
+
+        Reporter reporter = Mockito.mock(Reporter.class);
+        when(reporter.getStatus()).thenReturn("success");
+        when(reporter.getStatusDescription()).thenReturn("SonarQube reported no issues");
+
+        when(analysisMode.isPreview()).thenReturn(true);
+        when(context.issues()).thenReturn(null);
+        when(reporterBuilder.build(eq(null), any())).thenReturn(reporter);
+
+        commitPublishPostJob.execute(context);
+        Mockito.verify(commitFacade).writeMetricsJsonFile(Mockito.contains("\"post-job\":{\"durationMs\":"));
+    }
+
     @Test
     public void testPreviewModeEmpty() {
         Reporter reporter = Mockito.mock(Reporter.class);
@@ -351,6 +374,195 @@ public class CommitPublishPostJobTest {
         Mockito.verify(commitFacade).createOrUpdateSonarQubeStatus("success", "SonarQube Condition Error:0 Warning:0 Ok:0 SonarQube reported no issues");
     }
 
+    @Test
+    public void testSuccessPublishConcurrent() {
+        settings.setProperty(GitLabPlugin.GITLAB_CONCURRENT_POST_JOB, true);
+
+        when(analysisMode.isPublish()).thenReturn(true);
+
+        QualityGate qualityGate = QualityGate.newBuilder().status(QualityGate.Status.OK).conditions(Collections.emptyList()).build();
+        when(sonarFacade.loadQualityGateAsync()).thenReturn(CompletableFuture.completedFuture(qualityGate));
+        List<Issue> issues = Collections.singletonList(Utils.newIssue("foo:src/Foo.php", null, 1, Severity.INFO, true, "msg1"));
+        when(sonarFacade.getNewIssuesAsync()).thenReturn(CompletableFuture.completedFuture(issues));
+
+        Reporter reporter = Mockito.mock(Reporter.class);
+        when(reporter.getStatus()).thenReturn("success");
+        when(reporter.getStatusDescription()).thenReturn("SonarQube reported 1 issue, no one is critical or blocker");
+        when(reporterBuilder.build(qualityGate, issues)).thenReturn(reporter);
+
+        commitPublishPostJob.execute(context);
+
+        Mockito.verify(commitFacade).init(new File("projectBaseDir"));
+        Mockito.verify(commitFacade).createOrUpdateSonarQubeStatus("pending", "SonarQube analysis in progress");
+        Mockito.verify(reporterBuilder).build(qualityGate, issues);
+        Mockito.verify(commitFacade).createOrUpdateSonarQubeStatus("success", "SonarQube reported 1 issue, no one is critical or blocker");
+    }
+
+    @Test
+    public void testSkipUnchangedPublish() throws Exception {
+        settings.setProperty(GitLabPlugin.GITLAB_SKIP_UNCHANGED, true);
+        settings.setProperty(GitLabPlugin.GITLAB_CACHE_DIR, temp.newFolder().getAbsolutePath());
+
+        when(analysisMode.isPublish()).thenReturn(true);
+
+        QualityGate qualityGate = QualityGate.newBuilder().status(QualityGate.Status.OK).conditions(Collections.emptyList()).build();
+        when(sonarFacade.loadQualityGate()).thenReturn(qualityGate);
+        List<Issue> issues = Collections.singletonList(Utils.newIssue("foo:src/Foo.php", null, 1, Severity.INFO, true, "msg1"));
+        when(sonarFacade.getNewIssues()).thenReturn(issues);
+
+        Reporter reporter = Mockito.mock(Reporter.class);
+        when(reporter.getStatus()).thenReturn("success");
+        when(reporter.getStatusDescription()).thenReturn("SonarQube reported 1 issue, no one is critical or blocker");
+        when(reporterBuilder.build(qualityGate, issues)).thenReturn(reporter);
+
+        commitPublishPostJob.execute(context);
+
+        Mockito.verify(commitFacade).init(new File("projectBaseDir"));
+        Mockito.verify(commitFacade, never()).hasSameSonarQubeStatus(any(), any());
+        Mockito.verify(commitFacade).createOrUpdateSonarQubeStatus("success", "SonarQube reported 1 issue, no one is critical or blocker");
+
+        Mockito.reset(commitFacade, reporterBuilder);
+        when(commitFacade.hasSameSonarQubeStatus("success", "SonarQube reported 1 issue, no one is critical or blocker")).thenReturn(true);
+
+        commitPublishPostJob.execute(context);
+
+        Mockito.verify(commitFacade).hasSameSonarQubeStatus("success", "SonarQube reported 1 issue, no one is critical or blocker");
+        Mockito.verify(commitFacade, never()).init(any());
+        Mockito.verify(commitFacade, never()).createOrUpdateSonarQubeStatus(any(), any());
+        Mockito.verify(reporterBuilder, never()).build(any(), any());
+
+        Mockito.reset(commitFacade, reporterBuilder);
+        when(commitFacade.hasSameSonarQubeStatus("success", "SonarQube reported 1 issue, no one is critical or blocker")).thenReturn(true);
+        when(sonarFacade.getNewIssues()).thenReturn(Collections.emptyList());
+        when(reporterBuilder.build(qualityGate, Collections.emptyList())).thenReturn(reporter);
+
+        commitPublishPostJob.execute(context);
+
+        Mockito.verify(commitFacade).init(new File("projectBaseDir"));
+        Mockito.verify(reporterBuilder).build(qualityGate, Collections.emptyList());
+    }
+
+    @Test
+    public void testSkipUnchangedPublishConcurrent() throws Exception {
+        settings.setProperty(GitLabPlugin.GITLAB_SKIP_UNCHANGED, true);
+        settings.setProperty(GitLabPlugin.GITLAB_CACHE_DIR, temp.newFolder().getAbsolutePath());
+        settings.setProperty(GitLabPlugin.GITLAB_CONCURRENT_POST_JOB, true);
+
+        when(analysisMode.isPublish()).thenReturn(true);
+
+        QualityGate qualityGate = QualityGate.newBuilder().status(QualityGate.Status.OK).conditions(Collections.emptyList()).build();
+        when(sonarFacade.loadQualityGateAsync()).thenReturn(CompletableFuture.completedFuture(qualityGate));
+        List<Issue> issues = Collections.singletonList(Utils.newIssue("foo:src/Foo.php", null, 1, Severity.INFO, true, "msg1"));
+        when(sonarFacade.getNewIssuesAsync()).thenReturn(CompletableFuture.completedFuture(issues));
+
+        Reporter reporter = Mockito.mock(Reporter.class);
+        when(reporter.getStatus()).thenReturn("success");
+        when(reporter.getStatusDescription()).thenReturn("SonarQube reported 1 issue, no one is critical or blocker");
+        when(reporterBuilder.build(qualityGate, issues)).thenReturn(reporter);
+
+        commitPublishPostJob.execute(context);
+
+        Mockito.reset(reporterBuilder);
+        when(commitFacade.hasSameSonarQubeStatus("success", "SonarQube reported 1 issue, no one is critical or blocker")).thenReturn(true);
+
+        commitPublishPostJob.execute(context);
+
+        Mockito.verify(reporterBuilder, never()).build(any(), any());
+        Mockito.verify(sonarFacade, never()).loadQualityGate();
+        Mockito.verify(sonarFacade, never()).getNewIssues();
+    }
+
+    @Test
+    public void testSkipUnchangedNoGitLabCallAfterStatusRead() throws Exception {
+        settings.setProperty(GitLabPlugin.GITLAB_SKIP_UNCHANGED, true);
+        settings.setProperty(GitLabPlugin.GITLAB_CACHE_DIR, temp.newFolder().getAbsolutePath());
+
+        when(analysisMode.isPublish()).thenReturn(true);
+
+        GitLabPluginConfiguration config = new GitLabPluginConfiguration(settings.asConfig(), new System2());
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        ExecutionEngine executionEngine = new ExecutionEngine(config);
+        CommitFacade realCommitFacade = new CommitFacade(config, postJobMetrics, executionEngine);
+        IGitLabApiWrapper gitLabWrapper = Mockito.mock(IGitLabApiWrapper.class);
+        realCommitFacade.setGitLabWrapper(gitLabWrapper);
+        IGitLabHttpTransport statusTransport = Mockito.mock(IGitLabHttpTransport.class);
+        realCommitFacade.setStatusTransport(statusTransport);
+        CommitPublishPostJob postJob = new CommitPublishPostJob(config, sonarFacade, realCommitFacade, reporterBuilder, postJobMetrics, executionEngine);
+
+        QualityGate qualityGate = QualityGate.newBuilder().status(QualityGate.Status.OK).conditions(Collections.emptyList()).build();
+        when(sonarFacade.loadQualityGate()).thenReturn(qualityGate);
+        List<Issue> issues = Collections.singletonList(Utils.newIssue("foo:src/Foo.php", null, 1, Severity.INFO, true, "msg1"));
+        when(sonarFacade.getNewIssues()).thenReturn(issues);
+
+        Reporter reporter = Mockito.mock(Reporter.class);
+        when(reporter.getStatus()).thenReturn("success");
+        when(reporter.getStatusDescription()).thenReturn("SonarQube reported 1 issue, no one is critical or blocker");
+        when(reporterBuilder.build(qualityGate, issues)).thenReturn(reporter);
+
+        postJob.execute(context);
+
+        Mockito.verify(gitLabWrapper).init();
+        Mockito.verify(gitLabWrapper).createOrUpdateSonarQubeStatus("success", "SonarQube reported 1 issue, no one is critical or blocker");
+
+        Mockito.reset(gitLabWrapper, statusTransport);
+        when(statusTransport.getCommitStatuses(any(), eq("abc123"), eq("sonarqube"))).thenReturn(GitLabHttpResponse.newBuilder().code(200)
+                .body("[{\"status\":\"success\",\"description\":\"SonarQube reported 1 issue, no one is critical or blocker\"}]").build());
+
+        postJob.execute(context);
+
+        Mockito.verify(statusTransport).getCommitStatuses(any(), eq("abc123"), eq("sonarqube"));
+        Mockito.verifyNoMoreInteractions(statusTransport);
+        Mockito.verifyZeroInteractions(gitLabWrapper);
+    }
+
+    @Test
+    public void testSearchCommitFilesOnlyConcurrent() {
+        settings.setProperty(GitLabPlugin.GITLAB_CONCURRENT_POST_JOB, true);
+        settings.setProperty(GitLabPlugin.GITLAB_SEARCH_COMMIT_FILES_ONLY, true);
+        settings.setProperty(GitLabPlugin.GITLAB_ONLY_ISSUE_FROM_COMMIT_FILE, true);
+
+        when(analysisMode.isPublish()).thenReturn(true);
+
+        QualityGate qualityGate = QualityGate.newBuilder().status(QualityGate.Status.OK).conditions(Collections.emptyList()).build();
+        when(sonarFacade.loadQualityGateAsync()).thenReturn(CompletableFuture.completedFuture(qualityGate));
+        List<File> diffFiles = Collections.singletonList(new File("src/Foo.php"));
+        when(commitFacade.getDiffFiles()).thenReturn(diffFiles);
+        List<Issue> issues = Collections.singletonList(Utils.newIssue("foo:src/Foo.php", null, 1, Severity.INFO, true, "msg1"));
+        when(sonarFacade.getNewIssues(diffFiles)).thenReturn(issues);
+
+        Reporter reporter = Mockito.mock(Reporter.class);
+        when(reporter.getStatus()).thenReturn("success");
+        when(reporter.getStatusDescription()).thenReturn("SonarQube reported 1 issue, no one is critical or blocker");
+        when(reporterBuilder.build(qualityGate, issues)).thenReturn(reporter);
+
+        // Single thread, search must not wait for commit facade init in a pooled task
+        GitLabPluginConfiguration config = new GitLabPluginConfiguration(settings.asConfig(), new System2());
+        new CommitPublishPostJob(config, sonarFacade, commitFacade, reporterBuilder, new PostJobMetrics(), new ExecutionEngine(1, false)).execute(context);
+
+        InOrder inOrder = Mockito.inOrder(commitFacade, sonarFacade);
+        inOrder.verify(commitFacade).init(new File("projectBaseDir"));
+        inOrder.verify(commitFacade).getDiffFiles();
+        inOrder.verify(sonarFacade).getNewIssues(diffFiles);
+        Mockito.verify(sonarFacade, never()).getNewIssuesAsync();
+        Mockito.verify(commitFacade).createOrUpdateSonarQubeStatus("success", "SonarQube reported 1 issue, no one is critical or blocker");
+    }
+
+    @Test
+    public void testFailedPublishConcurrent() {
+        settings.setProperty(GitLabPlugin.GITLAB_CONCURRENT_POST_JOB, true);
+
+        when(analysisMode.isPublish()).thenReturn(true);
+        CompletableFuture<QualityGate> qualityGateFuture = new CompletableFuture<>();
+        qualityGateFuture.completeExceptionally(new IllegalStateException("Analyze in SonarQube is not success (FAILED)"));
+        when(sonarFacade.loadQualityGateAsync()).thenReturn(qualityGateFuture);
+        when(sonarFacade.getNewIssuesAsync()).thenReturn(new CompletableFuture<>());
+
+        Assertions.assertThatThrownBy(() -> commitPublishPostJob.execute(context)).isInstanceOf(MessageException.class)
+                .hasMessage("SonarQube failed to complete the review of this commit: Analyze in SonarQube is not success (FAILED)");
+
+        Mockito.verify(reporterBuilder, never()).build(any(), any());
+    }
+
     @Test
     public void testFailedPublish() {
         when(analysisMode.isPublish()).thenReturn(true);
@@ -0,0 +1,111 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmark of diff index lookups against previous map of sets, run manually (not a test)
+ * <p>
+ * mvn test-compile exec:java -Dexec.mainClass=com.talanlabs.sonar.plugins.gitlab.DiffIndexBenchmark -Dexec.classpathScope=test
+ */
+public class DiffIndexBenchmark {
+
+    private static final int FILES = 2000;
+    private static final int LINES_PER_FILE = 200;
+    private static final int LOOKUPS = 20_000;
+    private static final int ROUNDS = 5;
+
+    private DiffIndexBenchmark() {
+        // Nothing
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        String[] revisions = { "rev1", "rev2", "rev3" };
+        Map<String, Map<String, Set<IGitLabApiWrapper.Line>>> maps = new HashMap<>();
+        DiffIndex diffIndex = new BitmapDiffIndex();
+        for (String revision : revisions) {
+            Map<String, Set<IGitLabApiWrapper.Line>> positions = new HashMap<>();
+            for (int f = 0; f < FILES; f++) {
+                Set<IGitLabApiWrapper.Line> lines = new HashSet<>();
+                for (int l = 0; l < LINES_PER_FILE; l++) {
+                    int number = random.nextInt(LINES_PER_FILE * 10);
+                    lines.add(new IGitLabApiWrapper.Line(number, "line " + number));
+                }
+                positions.put(path(f), lines);
+            }
+            maps.put(revision, positions);
+            diffIndex.addRevision(revision, positions);
+        }
+
+        String[] paths = new String[LOOKUPS];
+        int[] numbers = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            paths[i] = path(random.nextInt(FILES * 2));
+            numbers[i] = random.nextInt(LINES_PER_FILE * 10);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (mapLookup(maps, revisions, paths[i], numbers[i]) != null) {
+                    found++;
+                }
+            }
+            long mapNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int indexFound = 0;
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (diffIndex.getRevisionForLine(paths[i], numbers[i], "line " + numbers[i]) != null) {
+                    indexFound++;
+                }
+            }
+            long indexNanos = System.nanoTime() - start;
+
+            System.out.printf("round %d: map %d ms (%d found), bitmap index %d ms (%d found)%n", round, TimeUnit.NANOSECONDS.toMillis(mapNanos), found,
+                    TimeUnit.NANOSECONDS.toMillis(indexNanos), indexFound);
+        }
+    }
+
+    private static String path(int index) {
+        return "src/main/java/com/example/module" + (index % 50) + "/File" + index + ".java";
+    }
+
+    /**
+     * Lookup done by GitLab wrappers before diff index
+     */
+    private static String mapLookup(Map<String, Map<String, Set<IGitLabApiWrapper.Line>>> maps, String[] revisions, String path, int number) {
+        IGitLabApiWrapper.Line line = new IGitLabApiWrapper.Line(number, "line " + number);
+        for (String revision : revisions) {
+            if (maps.get(revision).entrySet().stream().anyMatch(v -> v.getKey().equals(path) && v.getValue().contains(line))) {
+                return revision;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DiffIndexCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static Map<String, Set<IGitLabApiWrapper.Line>> positions() {
+        Map<String, Set<IGitLabApiWrapper.Line>> positions = new HashMap<>();
+        positions.put("src/Foo.php", new HashSet<>(Arrays.asList(new IGitLabApiWrapper.Line(1, "<?php"), new IGitLabApiWrapper.Line(2, "echo \"é\";"))));
+        positions.put("src/Bar.php", Collections.emptySet());
+        return positions;
+    }
+
+    @Test
+    public void testCreate() throws IOException {
+        GitLabPluginConfiguration config = mock(GitLabPluginConfiguration.class);
+        assertThat(DiffIndexCache.create(config)).isNull();
+
+        when(config.cacheDir()).thenReturn(temp.newFolder().getAbsolutePath());
+        assertThat(DiffIndexCache.create(config)).isNull();
+
+        when(config.diffCacheMaxSize()).thenReturn(1);
+        assertThat(DiffIndexCache.create(config)).isNotNull();
+    }
+
+    @Test
+    public void testPutGet() throws IOException {
+        DiffIndexCache cache = new DiffIndexCache(temp.newFolder(), 1024 * 1024);
+
+        assertThat(cache.get(1, "abc123")).isNull();
+
+        cache.put(1, "abc123", positions());
+
+        assertThat(cache.get(1, "abc123")).isEqualTo(positions());
+        assertThat(cache.get(2, "abc123")).isNull();
+        assertThat(cache.get(1, "def456")).isNull();
+    }
+
+    @Test
+    public void testLinesMatchedByContentHash() throws IOException {
+        DiffIndexCache cache = new DiffIndexCache(temp.newFolder(), 1024 * 1024);
+        cache.put(1, "abc123", positions());
+
+        Map<String, Set<IGitLabApiWrapper.Line>> cached = cache.get(1, "abc123");
+        assertThat(cached.get("src/Foo.php")).extracting(IGitLabApiWrapper.Line::getContent).containsOnly((String) null);
+
+        DiffIndex diffIndex = new BitmapDiffIndex();
+        diffIndex.addRevision("abc123", cached);
+        assertThat(diffIndex.getRevisionForLine("src/Foo.php", 2, "echo \"é\";")).isEqualTo("abc123");
+        assertThat(diffIndex.getRevisionForLine("src/Foo.php", 2, "echo \"e\";")).isNull();
+    }
+
+    @Test
+    public void testLargeFile() throws IOException {
+        File cacheDir = temp.newFolder();
+        DiffIndexCache cache = new DiffIndexCache(cacheDir, 1024 * 1024);
+        Set<IGitLabApiWrapper.Line> lines = new HashSet<>();
+        for (int i = 1; i <= 10_000; i++) {
+            lines.add(new IGitLabApiWrapper.Line(i, "line " + i));
+        }
+        Map<String, Set<IGitLabApiWrapper.Line>> positions = Collections.singletonMap("src/Foo.php", lines);
+
+        cache.put(1, "abc123", positions);
+
+        assertThat(new File(cacheDir, "diff-1-abc123.bin").length()).isGreaterThan(64 * 1024L);
+        assertThat(cache.get(1, "abc123")).isEqualTo(positions);
+    }
+
+    @Test
+    public void testCorrupted() throws IOException {
+        File cacheDir = temp.newFolder();
+        DiffIndexCache cache = new DiffIndexCache(cacheDir, 1024 * 1024);
+        cache.put(1, "abc123", positions());
+
+        File file = new File(cacheDir, "diff-1-abc123.bin");
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertThat(cache.get(1, "abc123")).isNull();
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    public void testCorruptedCounts() throws IOException {
+        File cacheDir = temp.newFolder();
+        DiffIndexCache cache = new DiffIndexCache(cacheDir, 1024 * 1024);
+        File file = new File(cacheDir, "diff-1-abc123.bin");
+
+        // File count
+        cache.put(1, "abc123", positions());
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer.wrap(bytes).putInt(8, Integer.MAX_VALUE);
+        Files.write(file.toPath(), bytes);
+        assertThat(cache.get(1, "abc123")).isNull();
+        assertThat(file).doesNotExist();
+
+        // Path length
+        cache.put(1, "abc123", positions());
+        bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer.wrap(bytes).putInt(12, -1);
+        Files.write(file.toPath(), bytes);
+        assertThat(cache.get(1, "abc123")).isNull();
+        assertThat(file).doesNotExist();
+
+        // Line count of first file
+        cache.put(1, "abc123", positions());
+        bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(16 + buffer.getInt(12), Integer.MAX_VALUE / 2);
+        Files.write(file.toPath(), bytes);
+        assertThat(cache.get(1, "abc123")).isNull();
+        assertThat(file).doesNotExist();
+
+        cache.put(1, "abc123", positions());
+        assertThat(cache.get(1, "abc123")).isEqualTo(positions());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        File cacheDir = temp.newFolder();
+        new DiffIndexCache(cacheDir, 1024 * 1024).put(1, "abc123", positions());
+        File file = new File(cacheDir, "diff-1-abc123.bin");
+        file.setLastModified(System.currentTimeMillis() - 60_000);
+
+        DiffIndexCache cache = new DiffIndexCache(cacheDir, file.length());
+        cache.put(1, "def456", positions());
+
+        assertThat(file).doesNotExist();
+        assertThat(cache.get(1, "def456")).isEqualTo(positions());
+    }
+}
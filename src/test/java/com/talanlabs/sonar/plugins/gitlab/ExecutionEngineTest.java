@@ -0,0 +1,165 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ExecutionEngineTest {
+
+    private final ExecutionEngine executionEngine = new ExecutionEngine(2, false);
+
+    @After
+    public void shutdown() {
+        executionEngine.shutdown();
+    }
+
+    @Test
+    public void testScopeJoin() {
+        try (ExecutionEngine.Scope scope = executionEngine.newScope()) {
+            CompletableFuture<String> a = scope.fork(() -> "a");
+            CompletableFuture<String> b = scope.fork(() -> Thread.currentThread().getName());
+
+            scope.join();
+
+            assertThat(a.join()).isEqualTo("a");
+            assertThat(b.join()).startsWith("sonar-gitlab-task-");
+        }
+    }
+
+    @Test
+    public void testScopeFailFast() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Void> blocked;
+        try (ExecutionEngine.Scope scope = executionEngine.newScope()) {
+            blocked = scope.fork(() -> {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            });
+            scope.fork(() -> {
+                throw new IllegalStateException("failed");
+            });
+
+            assertThatThrownBy(scope::join).isInstanceOf(IllegalStateException.class).hasMessage("failed");
+        }
+
+        assertThat(blocked.isCancelled()).isTrue();
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testScopeJoinAsync() {
+        try (ExecutionEngine.Scope scope = executionEngine.newScope()) {
+            CompletableFuture<Void> blocked = scope.fork(() -> {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            scope.fork(() -> {
+                throw new IllegalStateException("failed");
+            });
+
+            assertThatThrownBy(() -> scope.joinAsync().get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class).hasMessageContaining("failed");
+            assertThat(blocked.isCancelled()).isTrue();
+            assertThat(scope.fork(() -> "late").isCancelled()).isTrue();
+        }
+    }
+
+    @Test
+    public void testScopeCancelSource() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<String> source = executionEngine.submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "a";
+        }, 0, TimeUnit.MILLISECONDS);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        try (ExecutionEngine.Scope scope = executionEngine.newScope()) {
+            scope.track(scope.track(source).thenApply(String::length));
+            scope.fork(() -> {
+                throw new IllegalStateException("failed");
+            });
+
+            assertThatThrownBy(scope::join).isInstanceOf(IllegalStateException.class).hasMessage("failed");
+        }
+
+        assertThat(source.isCancelled()).isTrue();
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testHelperExecutorShutdown() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        executionEngine.getHelperExecutor().submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        executionEngine.shutdown();
+
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(executionEngine.getHelperExecutor().submit(() -> "b")).isNotNull();
+    }
+
+    @Test
+    public void testTimeout() {
+        CompletableFuture<String> future = executionEngine.submit(() -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "late";
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertThatThrownBy(future::join).hasCauseInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    public void testShutdown() {
+        assertThat(executionEngine.submit(() -> "a", 0, TimeUnit.MILLISECONDS).join()).isEqualTo("a");
+        executionEngine.shutdown();
+        assertThat(executionEngine.submit(() -> "b", 0, TimeUnit.MILLISECONDS).join()).isEqualTo("b");
+    }
+}
@@ -61,7 +61,7 @@ public class GetProjectV3Test {
 
         when(gitLabPluginConfiguration.projectId()).thenReturn(null);
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         Assertions.assertThatThrownBy(() -> facade.init(gitBasedir)).isInstanceOf(IllegalStateException.class).hasMessageContaining("Unable to find project ID null. Set the property sonar.gitlab.project_id");
     }
 
@@ -86,7 +86,7 @@ public class GetProjectV3Test {
                 "    \"path_with_namespace\": \"diaspora/diaspora-client\"\n" +
                 "}]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         Assertions.assertThatThrownBy(() -> facade.init(gitBasedir)).isInstanceOf(IllegalStateException.class).hasMessageContaining("Unable to find project ID 123. Either the project ID is incorrect or you don't have access to this project. Verify the configurations sonar.gitlab.project_id or sonar.gitlab.user_token");
     }
 
@@ -99,7 +99,7 @@ public class GetProjectV3Test {
         gitlab.enqueue(new MockResponse().setResponseCode(404));
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         Assertions.assertThatThrownBy(() -> facade.init(gitBasedir)).isInstanceOf(IllegalStateException.class).hasMessageContaining("Unable to find project ID 123. Either the project ID is incorrect or you don't have access to this project. Verify the configurations sonar.gitlab.project_id or sonar.gitlab.user_token");
     }
 
@@ -136,7 +136,7 @@ public class GetProjectV3Test {
                 "    \"path_with_namespace\": \"diaspora/diaspora-client\"\n" +
                 "}]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         Assertions.assertThatThrownBy(() -> facade.init(gitBasedir)).isInstanceOf(IllegalStateException.class).hasMessageContaining("Multiple found projects for 4");
     }
 
@@ -164,7 +164,7 @@ public class GetProjectV3Test {
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         facade.init(gitBasedir);
     }
 
@@ -192,7 +192,7 @@ public class GetProjectV3Test {
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         facade.init(gitBasedir);
     }
 
@@ -220,7 +220,7 @@ public class GetProjectV3Test {
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         facade.init(gitBasedir);
     }
 
@@ -248,7 +248,7 @@ public class GetProjectV3Test {
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         facade.init(gitBasedir);
     }
 
@@ -276,7 +276,7 @@ public class GetProjectV3Test {
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         facade.init(gitBasedir);
     }
 
@@ -304,7 +304,7 @@ public class GetProjectV3Test {
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
         gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         facade.init(gitBasedir);
     }
 
@@ -432,7 +432,7 @@ public class GetProjectV3Test {
         File inputFile2 = new File(gitBasedir, "src/main/java/com/talanlabs/sonar/plugins/gitlab/Fake.java");
         File inputFile3 = new File(gitBasedir, "src/main/java/com/talanlabs/sonar/plugins/gitlab/Fake2.java");
 
-        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration);
+        CommitFacade facade = new CommitFacade(gitLabPluginConfiguration, new PostJobMetrics(), new ExecutionEngine(1, false));
         facade.init(gitBasedir);
 
         Assertions.assertThat(facade.hasFile(inputFile1)).isFalse();
@@ -495,7 +495,7 @@ public class GetProjectV3Test {
                 "]"));
 
 
-        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
         facade.setGitLabAPI(GitLabAPI.connect(gitLabPluginConfiguration.url(), gitLabPluginConfiguration.userToken()));
         GitLabProject gitLabProject = Mockito.mock(GitLabProject.class);
         Mockito.when(gitLabProject.getId()).thenReturn(1);
@@ -549,7 +549,7 @@ public class GetProjectV3Test {
                 "]"));
 
 
-        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
         facade.setGitLabAPI(GitLabAPI.connect(gitLabPluginConfiguration.url(), gitLabPluginConfiguration.userToken()));
         GitLabProject gitLabProject = Mockito.mock(GitLabProject.class);
         Mockito.when(gitLabProject.getId()).thenReturn(1);
@@ -605,7 +605,7 @@ public class GetProjectV3Test {
                 "]"));
 
 
-        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
         facade.setGitLabAPI(GitLabAPI.connect(gitLabPluginConfiguration.url(), gitLabPluginConfiguration.userToken()));
         GitLabProject gitLabProject = Mockito.mock(GitLabProject.class);
         Mockito.when(gitLabProject.getId()).thenReturn(1);
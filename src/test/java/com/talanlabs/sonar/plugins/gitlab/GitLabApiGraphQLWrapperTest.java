@@ -0,0 +1,190 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.talanlabs.gitlab.api.v4.models.projects.GitLabProject;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GitLabApiGraphQLWrapperTest {
+
+    @Rule
+    public MockWebServer gitlab = new MockWebServer();
+
+    private GitLabPluginConfiguration config;
+    private PostJobMetrics postJobMetrics;
+    private GitLabApiGraphQLWrapper wrapper;
+
+    @Before
+    public void prepare() {
+        config = mock(GitLabPluginConfiguration.class);
+        when(config.userToken()).thenReturn("123456");
+        when(config.mergeRequestIid()).thenReturn(5);
+        when(config.graphQLBatchSize()).thenReturn(50);
+
+        postJobMetrics = new PostJobMetrics();
+        wrapper = new GitLabApiGraphQLWrapper(config, new GitLabPagination(100, postJobMetrics), new ExecutionEngine(1, false));
+
+        GitLabProject gitLabProject = mock(GitLabProject.class);
+        when(gitLabProject.getPathWithNamespace()).thenReturn("gaby/test");
+        wrapper.setGitLabProject(gitLabProject);
+
+        wrapper.setGraphQLTransport(new OkHttpGitLabTransport(config, GitLabPlugin.graphQLUrl(String.format("http://%s:%d", gitlab.getHostName(), gitlab.getPort())), new PostJobMetrics(),
+                new ExecutionEngine(1, false)));
+    }
+
+    private static String notesPage(boolean hasNextPage, String endCursor, String nodes) {
+        return "{\"data\":{\"project\":{\"mergeRequest\":{\"id\":\"gid://gitlab/MergeRequest/42\",\"diffRefs\":{\"baseSha\":\"base\",\"headSha\":\"head\",\"startSha\":\"start\"},"
+                + "\"notes\":{\"nodes\":[" + nodes + "],\"pageInfo\":{\"hasNextPage\":" + hasNextPage + ",\"endCursor\":\"" + endCursor + "\"}}}}}}";
+    }
+
+    @Test
+    public void testBatchDiffNotes() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(notesPage(true, "c1", "{\"body\":\"old\",\"position\":{\"newPath\":\"src/Foo.java\",\"newLine\":1}}")));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(notesPage(false, "c2", "{\"body\":\"general\",\"position\":null}")));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{\"data\":{\"n0\":{\"errors\":[]},\"n1\":{\"errors\":[]}}}"));
+
+        wrapper.loadMergeRequest();
+
+        assertThat(wrapper.hasSameCommitCommentsForFile("abc", "src/Foo.java", 1, "old")).isTrue();
+        assertThat(wrapper.hasSameCommitCommentsForFile("abc", "src/Foo.java", 2, "old")).isFalse();
+
+        wrapper.createOrUpdateReviewComment("abc", "src/Foo.java", 2, "issue 1");
+        wrapper.createOrUpdateReviewComment("abc", "src/Bar.java", 3, "issue \"2\"");
+        assertThat(wrapper.hasSameCommitCommentsForFile("abc", "src/Foo.java", 2, "issue 1")).isTrue();
+        assertThat(gitlab.getRequestCount()).isEqualTo(2);
+
+        wrapper.flush();
+        wrapper.flush();
+
+        assertThat(gitlab.getRequestCount()).isEqualTo(3);
+        gitlab.takeRequest();
+        RecordedRequest secondPage = gitlab.takeRequest();
+        assertThat(secondPage.getPath()).isEqualTo("/api/graphql");
+        assertThat(secondPage.getBody().readUtf8()).contains("\"after\":\"c1\"", "\"iid\":\"5\"", "\"fullPath\":\"gaby/test\"");
+
+        String mutation = gitlab.takeRequest().getBody().readUtf8();
+        assertThat(mutation).contains("n0: createDiffNote(input: $n0)", "n1: createDiffNote(input: $n1)", "\"noteableId\":\"gid://gitlab/MergeRequest/42\"",
+                "\"body\":\"issue \\\"2\\\"\"", "\"newLine\":3", "\"baseSha\":\"base\"");
+        assertThat(wrapper.hasSameCommitCommentsForFile("abc", "src/Bar.java", 3, "issue \"2\"")).isTrue();
+    }
+
+    private static String discussion(String id, int noteId, String body, String path, int line) {
+        return "{\"id\":\"" + id + "\",\"notes\":[{\"id\":" + noteId + ",\"body\":\"" + StringEscapeUtils.escapeJson(body) + "\",\"resolvable\":true,\"resolved\":false"
+                + ",\"position\":{\"new_path\":\"" + path + "\",\"new_line\":" + line + "}}]}";
+    }
+
+    @Test
+    public void testUpsertDiffNotes() throws IOException, InterruptedException {
+        String url = String.format("http://%s:%d", gitlab.getHostName(), gitlab.getPort());
+        MergeRequestNotesUpdater notesUpdater = new MergeRequestNotesUpdater(new OkHttpGitLabTransport(config, GitLabPlugin.apiUrl(url, GitLabPlugin.V4_API_VERSION),
+                new PostJobMetrics(), new ExecutionEngine(1, false)),
+                new GitLabPagination(100, new PostJobMetrics()), 1, 5);
+        wrapper.setNotesUpdater(notesUpdater);
+
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(notesPage(false, "c1", "")));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[" + discussion("d1", 11, notesUpdater.inlineBody("issue 1"), "src/Foo.java", 1) + ","
+                + discussion("d2", 12, notesUpdater.inlineBody("issue 2"), "src/Foo.java", 2) + ","
+                + discussion("d3", 13, notesUpdater.inlineBody("issue 3"), "src/Foo.java", 3) + "]"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{\"data\":{\"n0\":{\"errors\":[]}}}"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        wrapper.loadMergeRequest();
+
+        assertThat(wrapper.hasSameCommitCommentsForFile("abc", "src/Foo.java", 1, "issue 1")).isTrue();
+        assertThat(wrapper.hasSameCommitCommentsForFile("abc", "src/Foo.java", 2, "issue 2 changed")).isFalse();
+        wrapper.createOrUpdateReviewComment("abc", "src/Foo.java", 2, "issue 2 changed");
+        wrapper.createOrUpdateReviewComment("abc", "src/Foo.java", 4, "issue 4");
+        wrapper.flush();
+
+        assertThat(gitlab.getRequestCount()).isEqualTo(5);
+        gitlab.takeRequest();
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/discussions?per_page=100&page=1");
+
+        RecordedRequest update = gitlab.takeRequest();
+        assertThat(update.getMethod()).isEqualTo("PUT");
+        assertThat(update.getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/discussions/d2/notes/12");
+
+        String mutation = gitlab.takeRequest().getBody().readUtf8();
+        assertThat(mutation).contains("n0: createDiffNote(input: $n0)", "\"newLine\":4", "sonar-gitlab-plugin inline hash:" + MergeRequestNotesUpdater.hash("issue 4"));
+        assertThat(mutation).doesNotContain("n1: createDiffNote");
+
+        RecordedRequest resolve = gitlab.takeRequest();
+        assertThat(resolve.getMethod()).isEqualTo("PUT");
+        assertThat(resolve.getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/discussions/d3");
+        assertThat(resolve.getBody().readUtf8()).isEqualTo("resolved=true");
+    }
+
+    @Test
+    public void testBatchSize() throws IOException {
+        when(config.graphQLBatchSize()).thenReturn(1);
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(notesPage(false, "c1", "")));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{\"data\":{\"n0\":{\"errors\":[]}}}"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{\"data\":{\"n0\":{\"errors\":[\"Line code can't be blank\"]}}}"));
+
+        wrapper.loadMergeRequest();
+        wrapper.createOrUpdateReviewComment("abc", "src/Foo.java", 2, "issue 1");
+        assertThat(gitlab.getRequestCount()).isEqualTo(2);
+
+        assertThatThrownBy(() -> wrapper.createOrUpdateReviewComment("abc", "src/Foo.java", 3, "issue 2")).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Line code can't be blank");
+    }
+
+    @Test
+    public void testHttpCallsInSharedMetrics() throws IOException {
+        wrapper.setGraphQLTransport(wrapper.getDataLoader().newHttpTransport(GitLabPlugin.graphQLUrl(String.format("http://%s:%d", gitlab.getHostName(), gitlab.getPort()))));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(notesPage(false, "c1", "")));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{\"data\":{\"n0\":{\"errors\":[]},\"n1\":{\"errors\":[]}}}"));
+
+        wrapper.loadMergeRequest();
+        wrapper.createOrUpdateReviewComment("abc", "src/Foo.java", 2, "issue 1");
+        wrapper.createOrUpdateReviewComment("abc", "src/Foo.java", 3, "issue 2");
+        wrapper.flush();
+
+        assertThat(postJobMetrics.getHttpCallCount(PostJobMetrics.GITLAB_API)).isEqualTo(2);
+    }
+
+    @Test
+    public void testMergeRequestNotFound() {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{\"data\":{\"project\":{\"mergeRequest\":null}}}"));
+
+        assertThatThrownBy(() -> wrapper.loadMergeRequest()).isInstanceOf(IllegalStateException.class).hasMessage("Unable to find merge request 5 in project gaby/test");
+    }
+
+    @Test
+    public void testGraphQLErrors() {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{\"errors\":[{\"message\":\"Field 'foo' doesn't exist\"}]}"));
+
+        assertThatThrownBy(() -> wrapper.loadMergeRequest()).isInstanceOf(IOException.class).hasMessageContaining("Field 'foo' doesn't exist");
+    }
+}
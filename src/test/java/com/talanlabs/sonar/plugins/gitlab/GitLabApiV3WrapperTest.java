@@ -37,7 +37,7 @@ public class GitLabApiV3WrapperTest {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("abc123"));
 
-        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabProject gitLabProject = mock(GitLabProject.class);
         when(gitLabProject.getWebUrl()).thenReturn("https://gitLab.com/gaby/test");
@@ -52,7 +52,7 @@ public class GitLabApiV3WrapperTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -77,7 +77,7 @@ public class GitLabApiV3WrapperTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -100,7 +100,7 @@ public class GitLabApiV3WrapperTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -125,7 +125,7 @@ public class GitLabApiV3WrapperTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration);
+        GitLabApiV3Wrapper facade = new GitLabApiV3Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
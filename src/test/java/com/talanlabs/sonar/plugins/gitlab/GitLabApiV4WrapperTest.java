@@ -46,7 +46,7 @@ public class GitLabApiV4WrapperTest {
         GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("abc123"));
 
-        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabProject gitLabProject = mock(GitLabProject.class);
         when(gitLabProject.getWebUrl()).thenReturn("https://gitLab.com/gaby/test");
@@ -61,7 +61,8 @@ public class GitLabApiV4WrapperTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, postJobMetrics), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -78,6 +79,59 @@ public class GitLabApiV4WrapperTest {
         facade.createOrUpdateSonarQubeStatus("pending", "nothing");
 
         verify(gitLabAPICommits).postCommitStatus(1, "1", "pending", "master", "sonarqube", null, "nothing");
+        assertThat(postJobMetrics.getHttpCallCount(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+        assertThat(postJobMetrics.getHttpUnmeasuredCallCount(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+    }
+
+    @Test
+    public void testStatusAndCommentWithHttpTransport() throws IOException {
+        GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
+        when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
+        when(gitLabPluginConfiguration.refName()).thenReturn("master");
+
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+
+        GitLabAPI gitLabAPI = mock(GitLabAPI.class);
+        facade.setGitLabAPI(gitLabAPI);
+
+        IGitLabHttpTransport httpTransport = mock(IGitLabHttpTransport.class);
+        facade.setHttpTransport(httpTransport);
+
+        GitLabProject gitLabProject = mock(GitLabProject.class);
+        when(gitLabProject.getId()).thenReturn(1);
+        facade.setGitLabProject(gitLabProject);
+
+        facade.createOrUpdateSonarQubeStatus("pending", "nothing");
+        facade.createOrUpdateReviewComment(null, "src/Foo.java", 10, "issue");
+        facade.addGlobalComment("global");
+
+        verify(httpTransport).postCommitStatus(1, "1", "pending", "master", "sonarqube", "nothing");
+        verify(httpTransport).postCommitComment(1, "1", "issue", "src/Foo.java", 10, "new");
+        verify(httpTransport).postCommitComment(1, "1", "global", null, null, null);
+        verify(gitLabAPI, never()).getGitLabAPICommits();
+    }
+
+    @Test
+    public void testUpsertComments() throws IOException {
+        GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
+        when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
+        when(gitLabPluginConfiguration.isMergeRequestDiscussionEnabled()).thenReturn(true);
+
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+
+        MergeRequestNotesUpdater notesUpdater = mock(MergeRequestNotesUpdater.class);
+        when(notesUpdater.hasSameInline("src/Foo.java", 1, "issue")).thenReturn(true);
+        when(notesUpdater.updateInline("src/Foo.java", 2, "issue")).thenReturn(true);
+        facade.setNotesUpdater(notesUpdater);
+
+        assertThat(facade.hasSameCommitCommentsForFile("1", "src/Foo.java", 1, "issue")).isTrue();
+        facade.createOrUpdateReviewComment("1", "src/Foo.java", 2, "issue");
+        facade.addGlobalComment("global");
+        facade.flush();
+
+        verify(notesUpdater).updateInline("src/Foo.java", 2, "issue");
+        verify(notesUpdater).upsertSummary("global");
+        verify(notesUpdater).resolveStaleInlines();
     }
 
     @Test
@@ -86,7 +140,7 @@ public class GitLabApiV4WrapperTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -109,7 +163,7 @@ public class GitLabApiV4WrapperTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -134,7 +188,7 @@ public class GitLabApiV4WrapperTest {
         when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
         when(gitLabPluginConfiguration.refName()).thenReturn("master");
 
-        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -159,7 +213,7 @@ public class GitLabApiV4WrapperTest {
         when(gitLabPluginConfiguration.mergeRequestIid()).thenReturn(-1);
         when(gitLabPluginConfiguration.isMergeRequestDiscussionEnabled()).thenReturn(true);
 
-        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabProject gitLabProject = mock(GitLabProject.class);
         when(gitLabProject.getId()).thenReturn(1);
@@ -178,7 +232,7 @@ public class GitLabApiV4WrapperTest {
         when(gitLabPluginConfiguration.mergeRequestIid()).thenReturn(mrIid);
         when(gitLabPluginConfiguration.isMergeRequestDiscussionEnabled()).thenReturn(true);
 
-        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -213,7 +267,7 @@ public class GitLabApiV4WrapperTest {
         when(gitLabPluginConfiguration.mergeRequestIid()).thenReturn(mrIid);
         when(gitLabPluginConfiguration.isMergeRequestDiscussionEnabled()).thenReturn(true);
 
-        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration);
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
 
         GitLabAPI gitLabAPI = mock(GitLabAPI.class);
         facade.setGitLabAPI(gitLabAPI);
@@ -240,6 +294,33 @@ public class GitLabApiV4WrapperTest {
         verify(mergeRequestDiscussion).createDiscussion(Matchers.eq(projectId), Matchers.eq(mrIid), anyObject());
     }
 
+    @Test
+    public void testReadsWithHttpTransport() throws Exception {
+        GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
+        when(gitLabPluginConfiguration.commitSHA()).thenReturn(Collections.singletonList("1"));
+        when(gitLabPluginConfiguration.mergeRequestIid()).thenReturn(5);
+        when(gitLabPluginConfiguration.isMergeRequestDiscussionEnabled()).thenReturn(true);
+
+        GitLabApiV4Wrapper facade = new GitLabApiV4Wrapper(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+
+        GitLabAPI gitLabAPI = mock(GitLabAPI.class);
+        facade.setGitLabAPI(gitLabAPI);
+
+        IGitLabHttpTransport httpTransport = mock(IGitLabHttpTransport.class);
+        when(httpTransport.execute(IGitLabHttpTransport.GET, "projects/1/merge_requests/5/versions", Collections.emptyMap()))
+                .thenReturn(GitLabHttpResponse.newBuilder().code(200).body("[{\"id\":2,\"head_commit_sha\":\"h\",\"base_commit_sha\":\"b\",\"start_commit_sha\":\"s\"}]").build());
+        facade.setHttpTransport(httpTransport);
+
+        GitLabProject gitLabProject = mock(GitLabProject.class);
+        when(gitLabProject.getId()).thenReturn(1);
+        facade.setGitLabProject(gitLabProject);
+
+        facade.createOrUpdateReviewComment(null, "src/main/Foo.java", 5, "nothing");
+
+        verify(httpTransport).postMergeRequestDiscussion(1, 5, "nothing", "b", "s", "h", "src/main/Foo.java", 5);
+        verify(gitLabAPI, never()).getGitLabAPIMergeRequestDiff();
+    }
+
     private GitlabMergeRequestDiff gitlabMergeRequestDiff(int mrIid) {
         String randomCommitSha = UUID.randomUUID().toString();
         GitlabMergeRequestDiff gitlabMergeRequestDiff = new GitlabMergeRequestDiff();
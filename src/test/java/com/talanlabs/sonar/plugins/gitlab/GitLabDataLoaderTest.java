@@ -0,0 +1,162 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.talanlabs.gitlab.api.Paged;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.*;
+
+public class GitLabDataLoaderTest {
+
+    @SuppressWarnings("unchecked")
+    private static <T> Paged<T> paged(List<T> results, Paged<T> next) throws Exception {
+        Paged<T> paged = mock(Paged.class);
+        when(paged.getResults()).thenReturn(results);
+        when(paged.nextPage()).thenReturn(next);
+        return paged;
+    }
+
+    @Test
+    public void testForEachPage() throws Exception {
+        Paged<String> page3 = paged(Collections.singletonList("d"), null);
+        Paged<String> page2 = paged(null, page3);
+        Paged<String> page1 = paged(Arrays.asList("a", "b"), page2);
+
+        GitLabDataLoader dataLoader = new GitLabDataLoader(mock(GitLabPluginConfiguration.class), new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+
+        List<List<String>> pages = new ArrayList<>();
+        dataLoader.forEachPage(page1, pages::add);
+        assertThat(pages).containsExactly(Arrays.asList("a", "b"), Collections.emptyList(), Collections.singletonList("d"));
+
+        assertThat(dataLoader.loadAll(page1)).containsExactly("a", "b", "d");
+        assertThat(dataLoader.loadAll(null)).isEmpty();
+    }
+
+    @Test
+    public void testSavedRequestsOfApiPages() throws Exception {
+        Paged<String> page2 = paged(Collections.nCopies(10, "b"), null);
+        Paged<String> page1 = paged(Collections.nCopies(50, "a"), page2);
+
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        GitLabDataLoader dataLoader = new GitLabDataLoader(mock(GitLabPluginConfiguration.class), new GitLabPagination(50, postJobMetrics), new ExecutionEngine(1, false));
+
+        assertThat(dataLoader.loadAll(page1)).hasSize(60);
+        assertThat(postJobMetrics.getHttpCallCount(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+        assertThat(postJobMetrics.getSavedRequests(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+    }
+
+    @Test
+    public void testPrefetchNextPage() throws Exception {
+        Paged<String> page2 = paged(Collections.singletonList("b"), null);
+        Paged<String> page1 = paged(Collections.singletonList("a"), page2);
+
+        List<Runnable> tasks = new ArrayList<>();
+        GitLabDataLoader.PrefetchingPagedIterator<String> iterator = new GitLabDataLoader.PrefetchingPagedIterator<>(page1, tasks::add);
+        assertThat(iterator.next()).containsExactly("a");
+        assertThat(tasks).hasSize(1);
+        verify(page1, never()).nextPage();
+
+        tasks.remove(0).run();
+        verify(page1).nextPage();
+        assertThat(iterator.next()).containsExactly("b");
+
+        tasks.remove(0).run();
+        assertThat(iterator.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testLoadPerRevision() throws Exception {
+        GitLabDataLoader dataLoader = new GitLabDataLoader(mock(GitLabPluginConfiguration.class), new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+
+        Map<String, List<String>> result = dataLoader.loadPerRevision(Arrays.asList("1", "2"), revision -> "1".equals(revision) ? Collections.singletonList("a") : Collections.singletonList("b"));
+        assertThat(result).containsOnlyKeys("1", "2");
+        assertThat(result.get("1")).containsExactly("a");
+        assertThat(result.get("2")).containsExactly("b");
+    }
+
+    @Test
+    public void testLoadPerRevisionConcurrently() throws Exception {
+        GitLabDataLoader dataLoader = new GitLabDataLoader(mock(GitLabPluginConfiguration.class), new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+
+        // Each revision waits the other one, it would time out if revisions were loaded one by one
+        CountDownLatch started = new CountDownLatch(2);
+        Map<String, List<String>> result = dataLoader.loadPerRevision(Arrays.asList("1", "2"), revision -> {
+            started.countDown();
+            return Uninterruptibles.awaitUninterruptibly(started, 5, TimeUnit.SECONDS) ? Collections.singletonList(revision) : Collections.emptyList();
+        });
+        assertThat(result).containsExactly(entry("1", Collections.singletonList("1")), entry("2", Collections.singletonList("2")));
+
+        assertThatThrownBy(() -> dataLoader.loadPerRevision(Arrays.asList("1", "2"), revision -> {
+            throw new IOException("Unable to load " + revision);
+        })).isInstanceOf(IOException.class).hasMessageStartingWith("Unable to load");
+    }
+
+    @Test
+    public void testFindProject() throws Exception {
+        GitLabPluginConfiguration gitLabPluginConfiguration = mock(GitLabPluginConfiguration.class);
+        when(gitLabPluginConfiguration.projectId()).thenReturn("group/project");
+
+        GitLabDataLoader dataLoader = new GitLabDataLoader(gitLabPluginConfiguration, new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+
+        assertThat(dataLoader.findProject(() -> "direct", () -> null, p -> false)).isEqualTo("direct");
+
+        List<String> projects = Arrays.asList("another", "other", "group/project");
+        assertThat(dataLoader.findProject(() -> null, () -> projects, "group/project"::equals)).isEqualTo("group/project");
+
+        assertThatThrownBy(() -> dataLoader.findProject(() -> null, () -> projects, p -> true)).isInstanceOf(IllegalStateException.class)
+                .hasMessage("Multiple found projects for group/project");
+        assertThatThrownBy(() -> dataLoader.findProject(() -> null, () -> null, p -> true)).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Unable to find project ID group/project");
+    }
+
+    @Test
+    public void testAddPatchPositionsToDiffIndex() throws Exception {
+        DiffIndex diffIndex = mock(DiffIndex.class);
+        LocalGitDiffProvider localGitDiffProvider = mock(LocalGitDiffProvider.class);
+        Map<String, Set<IGitLabApiWrapper.Line>> local = new HashMap<>();
+        Map<String, Set<IGitLabApiWrapper.Line>> remote = new HashMap<>();
+        when(localGitDiffProvider.getPatchPositions("1")).thenReturn(local);
+
+        GitLabDataLoader dataLoader = new GitLabDataLoader(mock(GitLabPluginConfiguration.class), new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+        dataLoader.setDiffIndex(diffIndex);
+        dataLoader.setLocalGitDiffProvider(localGitDiffProvider);
+
+        dataLoader.addPatchPositionsToDiffIndex(1, Arrays.asList("1", "2"), revision -> remote);
+
+        verify(diffIndex).addRevision("1", local);
+        verify(diffIndex).addRevision("2", remote);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.talanlabs.gitlab.api.v4.models.users.GitLabUser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.mock;
+
+public class GitLabPaginationTest {
+
+    @Rule
+    public MockWebServer gitlab = new MockWebServer();
+
+    private OkHttpGitLabTransport transport;
+    private PostJobMetrics postJobMetrics;
+
+    @Before
+    public void prepare() {
+        transport = new OkHttpGitLabTransport(mock(GitLabPluginConfiguration.class),
+                GitLabPlugin.apiUrl(String.format("http://%s:%d", gitlab.getHostName(), gitlab.getPort()), GitLabPlugin.V4_API_VERSION), new PostJobMetrics(),
+                new ExecutionEngine(1, false));
+        postJobMetrics = new PostJobMetrics();
+    }
+
+    private static String ids(int from, int to) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = from; i <= to; i++) {
+            sb.append(i > from ? "," : "").append("{\"id\":").append(i).append("}");
+        }
+        return sb.append("]").toString();
+    }
+
+    private int readIds(GitLabPagination pagination, boolean keyset, List<Integer> ids) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        pagination.forEachPage(transport, "projects", Collections.emptyMap(), keyset, body -> {
+            int[] count = new int[1];
+            mapper.readTree(body).forEach(n -> {
+                ids.add(n.path("id").asInt());
+                count[0]++;
+            });
+            return count[0];
+        });
+        return ids.size();
+    }
+
+    @Test
+    public void testKeyset() throws IOException, InterruptedException {
+        String url = String.format("http://%s:%d/api/v4/projects", gitlab.getHostName(), gitlab.getPort());
+        String next = url + "?id_after=100&per_page=100&pagination=keyset&order_by=id&sort=asc";
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(ids(1, 100)).addHeader("Link", "<" + next + ">; rel=\"next\", <" + url + ">; rel=\"first\""));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(ids(101, 130)));
+
+        List<Integer> ids = new ArrayList<>();
+        assertThat(readIds(new GitLabPagination(0, postJobMetrics), true, ids)).isEqualTo(130);
+        assertThat(ids).startsWith(1, 2).endsWith(129, 130);
+
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects?per_page=100&pagination=keyset&order_by=id&sort=asc");
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects?id_after=100&per_page=100&pagination=keyset&order_by=id&sort=asc");
+        assertThat(postJobMetrics.getSavedRequests(PostJobMetrics.GITLAB_API)).isEqualTo(5);
+    }
+
+    @Test
+    public void testPrefetchedPages() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(ids(1, 50)).addHeader("X-Next-Page", "2"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(ids(51, 60)).addHeader("X-Next-Page", ""));
+
+        ObjectMapper mapper = new ObjectMapper();
+        List<Integer> ids = new ArrayList<>();
+        List<Integer> requestCounts = new ArrayList<>();
+        // Direct executor, following page is requested before current one is read
+        new GitLabPagination(50, postJobMetrics).forEachPagePrefetched(transport, "projects", Collections.emptyMap(), false, Runnable::run, body -> {
+            requestCounts.add(gitlab.getRequestCount());
+            int size = ids.size();
+            mapper.readTree(body).forEach(n -> ids.add(n.path("id").asInt()));
+            return ids.size() - size;
+        });
+
+        assertThat(ids).hasSize(60).startsWith(1, 2).endsWith(59, 60);
+        assertThat(requestCounts).containsExactly(2, 2);
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects?per_page=50&page=1");
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects?per_page=50&page=2");
+        assertThat(postJobMetrics.getSavedRequests(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+    }
+
+    @Test
+    public void testNextPageHeader() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(ids(1, 50)).addHeader("X-Next-Page", "2"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody(ids(51, 60)).addHeader("X-Next-Page", ""));
+
+        List<Integer> ids = new ArrayList<>();
+        assertThat(readIds(new GitLabPagination(50, postJobMetrics), false, ids)).isEqualTo(60);
+
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects?per_page=50&page=1");
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects?per_page=50&page=2");
+        assertThat(postJobMetrics.getSavedRequests(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+    }
+
+    @Test
+    public void testLoadModels() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[{\"id\":1,\"username\":\"john_smith\",\"name\":\"John Smith\",\"state\":\"active\",\"email\":\"john@example.com\"}]"));
+
+        GitLabDataLoader dataLoader = new GitLabDataLoader(mock(GitLabPluginConfiguration.class), new GitLabPagination(100, new PostJobMetrics()), new ExecutionEngine(1, false));
+        List<GitLabUser> users = dataLoader.loadAll(transport, "users", Collections.singletonMap("search", "john@example.com"), false, GitLabUser.class);
+
+        assertThat(users).hasSize(1);
+        assertThat(users.get(0).getUsername()).isEqualTo("john_smith");
+        assertThat(gitlab.takeRequest().getPath()).startsWith("/api/v4/users?search=john").endsWith("&per_page=100&page=1");
+    }
+
+    @Test
+    public void testPageSize() {
+        assertThat(new GitLabPagination(0, postJobMetrics).getPageSize()).isEqualTo(100);
+        assertThat(new GitLabPagination(500, postJobMetrics).getPageSize()).isEqualTo(100);
+        assertThat(new GitLabPagination(30, postJobMetrics).getPageSize()).isEqualTo(30);
+
+        assertThat(GitLabPagination.savedRequests(0, 100)).isEqualTo(0);
+        assertThat(GitLabPagination.savedRequests(100, 100)).isEqualTo(4);
+        assertThat(GitLabPagination.savedRequests(41, 20)).isEqualTo(0);
+        assertThat(GitLabPagination.savedRequests(41, 30)).isEqualTo(1);
+        assertThat(new GitLabPagination(50, postJobMetrics).savedRequests(60)).isEqualTo(1);
+    }
+
+    @Test
+    public void testNextLink() {
+        assertThat(GitLabPagination.nextLink(null)).isNull();
+        assertThat(GitLabPagination.nextLink("<https://gitlab.com/api/v4/projects?page=1>; rel=\"first\"")).isNull();
+        assertThat(GitLabPagination.nextLink("<https://gitlab.com/api/v4/projects?page=1>; rel=\"prev\", <https://gitlab.com/api/v4/projects?page=3&per_page=100>; rel=\"next\""))
+                .isEqualTo("https://gitlab.com/api/v4/projects?page=3&per_page=100");
+        assertThat(GitLabPagination.queryParams("https://gitlab.com/api/v4/projects?search=a%20b&empty=&flag")).containsExactly(entry("search", "a b"), entry("empty", ""), entry("flag", ""));
+    }
+}
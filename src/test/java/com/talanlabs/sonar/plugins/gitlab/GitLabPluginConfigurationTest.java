@@ -20,6 +20,7 @@
 package com.talanlabs.sonar.plugins.gitlab;
 
 import com.talanlabs.sonar.plugins.gitlab.models.JsonMode;
+import com.talanlabs.sonar.plugins.gitlab.models.NewIssuesMode;
 import com.talanlabs.sonar.plugins.gitlab.models.QualityGateFailMode;
 import com.talanlabs.sonar.plugins.gitlab.models.StatusNotificationsMode;
 import org.assertj.core.api.Assertions;
@@ -221,6 +222,101 @@ public class GitLabPluginConfigurationTest {
         Assertions.assertThat(config.apiVersion()).isEqualTo(GitLabPlugin.V3_API_VERSION);
     }
 
+    @Test
+    public void testPerformance() {
+        Assertions.assertThat(config.concurrentPostJob()).isFalse();
+        settings.setProperty(GitLabPlugin.GITLAB_CONCURRENT_POST_JOB, "true");
+        Assertions.assertThat(config.concurrentPostJob()).isTrue();
+
+        Assertions.assertThat(config.cacheMaxSize()).isEqualTo(10000);
+        settings.setProperty(GitLabPlugin.GITLAB_CACHE_MAX_SIZE, "500");
+        Assertions.assertThat(config.cacheMaxSize()).isEqualTo(500);
+
+        Assertions.assertThat(config.cacheExpireAfterWrite()).isEqualTo(-1);
+        settings.setProperty(GitLabPlugin.GITLAB_CACHE_EXPIRE_AFTER_WRITE, "600");
+        Assertions.assertThat(config.cacheExpireAfterWrite()).isEqualTo(600);
+
+        Assertions.assertThat(config.metricsJson()).isFalse();
+        settings.setProperty(GitLabPlugin.GITLAB_METRICS_JSON, "true");
+        Assertions.assertThat(config.metricsJson()).isTrue();
+
+        Assertions.assertThat(config.httpTransport()).isEqualTo(GitLabPlugin.DEFAULT_HTTP_TRANSPORT);
+        settings.setProperty(GitLabPlugin.GITLAB_HTTP_TRANSPORT, GitLabPlugin.OKHTTP_HTTP_TRANSPORT);
+        Assertions.assertThat(config.httpTransport()).isEqualTo(GitLabPlugin.OKHTTP_HTTP_TRANSPORT);
+
+        Assertions.assertThat(config.graphQLBatchSize()).isEqualTo(50);
+        Assertions.assertThat(config.inlineFileThreshold()).isEqualTo(-1);
+        Assertions.assertThat(config.inlineMergeRequestThreshold()).isEqualTo(-1);
+        settings.setProperty(GitLabPlugin.GITLAB_INLINE_FILE_THRESHOLD, "20");
+        settings.setProperty(GitLabPlugin.GITLAB_INLINE_MERGE_REQUEST_THRESHOLD, "200");
+        Assertions.assertThat(config.inlineFileThreshold()).isEqualTo(20);
+        Assertions.assertThat(config.inlineMergeRequestThreshold()).isEqualTo(200);
+
+        Assertions.assertThat(config.upsertComments()).isFalse();
+        settings.setProperty(GitLabPlugin.GITLAB_UPSERT_COMMENTS, "true");
+        Assertions.assertThat(config.upsertComments()).isTrue();
+
+        Assertions.assertThat(config.cacheDir()).isNull();
+        settings.setProperty(GitLabPlugin.GITLAB_CACHE_DIR, ".sonar-gitlab");
+        Assertions.assertThat(config.cacheDir()).isEqualTo(".sonar-gitlab");
+
+        Assertions.assertThat(config.incremental()).isFalse();
+        settings.setProperty(GitLabPlugin.GITLAB_INCREMENTAL, "true");
+        Assertions.assertThat(config.incremental()).isTrue();
+
+        Assertions.assertThat(config.skipUnchanged()).isFalse();
+        settings.setProperty(GitLabPlugin.GITLAB_SKIP_UNCHANGED, "true");
+        Assertions.assertThat(config.skipUnchanged()).isTrue();
+
+        Assertions.assertThat(config.diffCacheMaxSize()).isEqualTo(50);
+        settings.setProperty(GitLabPlugin.GITLAB_DIFF_CACHE_MAX_SIZE, "10");
+        Assertions.assertThat(config.diffCacheMaxSize()).isEqualTo(10);
+
+        Assertions.assertThat(config.diffSource()).isEqualTo("api");
+        settings.setProperty(GitLabPlugin.GITLAB_DIFF_SOURCE, "git");
+        Assertions.assertThat(config.diffSource()).isEqualTo("git");
+
+        Assertions.assertThat(config.pageSize()).isEqualTo(100);
+        settings.setProperty(GitLabPlugin.GITLAB_PAGE_SIZE, "50");
+        Assertions.assertThat(config.pageSize()).isEqualTo(50);
+
+        Assertions.assertThat(config.searchCommitFilesOnly()).isFalse();
+        settings.setProperty(GitLabPlugin.GITLAB_SEARCH_COMMIT_FILES_ONLY, "true");
+        Assertions.assertThat(config.searchCommitFilesOnly()).isTrue();
+
+        Assertions.assertThat(config.newIssuesMode()).isEqualTo(NewIssuesMode.ALL);
+        settings.setProperty(GitLabPlugin.GITLAB_NEW_ISSUES_MODE, NewIssuesMode.LEAK_PERIOD.name());
+        Assertions.assertThat(config.newIssuesMode()).isEqualTo(NewIssuesMode.LEAK_PERIOD);
+        settings.setProperty(GitLabPlugin.GITLAB_NEW_ISSUES_MODE, "toto");
+        Assertions.assertThat(config.newIssuesMode()).isEqualTo(NewIssuesMode.ALL);
+
+        Assertions.assertThat(config.pullRequestKey()).isNull();
+        settings.setProperty(GitLabPlugin.GITLAB_CI_MERGE_REQUEST_IID, "12");
+        Assertions.assertThat(config.pullRequestKey()).isEqualTo("12");
+        settings.setProperty(GitLabPluginConfiguration.PULL_REQUEST_KEY, "pr-12");
+        Assertions.assertThat(config.pullRequestKey()).isEqualTo("pr-12");
+
+        Assertions.assertThat(config.searchSummaryOnly()).isFalse();
+        settings.setProperty(GitLabPlugin.GITLAB_SEARCH_SUMMARY_ONLY, "true");
+        Assertions.assertThat(config.searchSummaryOnly()).isTrue();
+
+        Assertions.assertThat(config.maxThreads()).isEqualTo(8);
+        settings.setProperty(GitLabPlugin.GITLAB_MAX_THREADS, "4");
+        Assertions.assertThat(config.maxThreads()).isEqualTo(4);
+
+        Assertions.assertThat(config.httpMaxRetries()).isEqualTo(2);
+        settings.setProperty(GitLabPlugin.GITLAB_HTTP_MAX_RETRIES, "0");
+        Assertions.assertThat(config.httpMaxRetries()).isEqualTo(0);
+
+        Assertions.assertThat(config.httpRetryBackoff()).isEqualTo(200);
+        settings.setProperty(GitLabPlugin.GITLAB_HTTP_RETRY_BACKOFF, "500");
+        Assertions.assertThat(config.httpRetryBackoff()).isEqualTo(500);
+
+        Assertions.assertThat(config.httpHedgeDelay()).isEqualTo(0);
+        settings.setProperty(GitLabPlugin.GITLAB_HTTP_HEDGE_DELAY, "300");
+        Assertions.assertThat(config.httpHedgeDelay()).isEqualTo(300);
+    }
+
     @Test
     public void testProxyConfiguration() {
         System2 system2 = Mockito.mock(System2.class);
@@ -0,0 +1,161 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.sonarqube.ws.client.HttpException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpResilienceTest {
+
+    @Test
+    public void testRetry() throws IOException {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        HttpResilience resilience = new HttpResilience(PostJobMetrics.GITLAB_API, 3, 1, 0, postJobMetrics, new ExecutionEngine(1, false));
+
+        AtomicInteger attempts = new AtomicInteger();
+        String result = resilience.retry(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new HttpResilience.HttpStatusException(502, "Bad Gateway");
+            }
+            return "ok";
+        });
+        Assertions.assertThat(result).isEqualTo("ok");
+        Assertions.assertThat(attempts.get()).isEqualTo(3);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.GITLAB_API)).isEqualTo(2);
+    }
+
+    @Test
+    public void testRetryExhausted() {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        HttpResilience resilience = new HttpResilience(PostJobMetrics.SONARQUBE_API, 2, 1, 0, postJobMetrics, new ExecutionEngine(1, false));
+
+        AtomicInteger attempts = new AtomicInteger();
+        Assertions.assertThatThrownBy(() -> resilience.retry(() -> {
+            attempts.incrementAndGet();
+            throw new HttpException("http://sonar/api/issues/search", 503, "Unavailable");
+        })).isInstanceOf(HttpException.class);
+        Assertions.assertThat(attempts.get()).isEqualTo(3);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.SONARQUBE_API)).isEqualTo(2);
+    }
+
+    @Test
+    public void testNotRetried() {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        HttpResilience resilience = new HttpResilience(PostJobMetrics.GITLAB_API, 2, 1, 0, postJobMetrics, new ExecutionEngine(1, false));
+
+        AtomicInteger attempts = new AtomicInteger();
+        Assertions.assertThatThrownBy(() -> resilience.retry(() -> {
+            attempts.incrementAndGet();
+            throw new HttpResilience.HttpStatusException(404, "Not Found");
+        })).isInstanceOf(HttpResilience.HttpStatusException.class).hasMessage("Not Found");
+        Assertions.assertThat(attempts.get()).isEqualTo(1);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.GITLAB_API)).isEqualTo(0);
+    }
+
+    @Test
+    public void testIsRetryable() {
+        Assertions.assertThat(HttpResilience.isRetryable(new SocketTimeoutException())).isTrue();
+        Assertions.assertThat(HttpResilience.isRetryable(new IllegalStateException("Fail to request", new IOException()))).isTrue();
+        Assertions.assertThat(HttpResilience.isRetryable(new HttpResilience.HttpStatusException(429, "Too Many Requests"))).isTrue();
+        Assertions.assertThat(HttpResilience.isRetryable(new HttpException("http://sonar", 504, null))).isTrue();
+        Assertions.assertThat(HttpResilience.isRetryable(new HttpException("http://sonar", 500, null))).isFalse();
+        Assertions.assertThat(HttpResilience.isRetryable(new HttpResilience.HttpStatusException(401, "Unauthorized"))).isFalse();
+        Assertions.assertThat(HttpResilience.isRetryable(new IllegalStateException("Analyze in SonarQube is not success"))).isFalse();
+    }
+
+    @Test
+    public void testBackoff() {
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertThat(HttpResilience.backoffMillis(100, 0)).isBetween(50L, 100L);
+            Assertions.assertThat(HttpResilience.backoffMillis(100, 2)).isBetween(200L, 400L);
+            Assertions.assertThat(HttpResilience.backoffMillis(100, 30)).isBetween(5000L, 10000L);
+        }
+        Assertions.assertThat(HttpResilience.backoffMillis(0, 3)).isEqualTo(0);
+    }
+
+    @Test
+    public void testHedge() throws IOException {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        HttpResilience resilience = new HttpResilience(PostJobMetrics.GITLAB_API, 0, 0, 50, postJobMetrics, new ExecutionEngine(1, false));
+
+        CountDownLatch slow = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+        String result = resilience.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    slow.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+                return "slow";
+            }
+            return "hedged";
+        });
+        slow.countDown();
+
+        Assertions.assertThat(result).isEqualTo("hedged");
+        Assertions.assertThat(attempts.get()).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getHedges(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+    }
+
+    @Test
+    public void testHedgeNotNeeded() throws IOException {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        HttpResilience resilience = new HttpResilience(PostJobMetrics.GITLAB_API, 1, 0, 5000, postJobMetrics, new ExecutionEngine(1, false));
+
+        AtomicInteger attempts = new AtomicInteger();
+        Assertions.assertThat(resilience.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new HttpResilience.HttpStatusException(502, "Bad Gateway");
+            }
+            return "ok";
+        })).isEqualTo("ok");
+        Assertions.assertThat(attempts.get()).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+        Assertions.assertThat(postJobMetrics.getHedges(PostJobMetrics.GITLAB_API)).isEqualTo(0);
+    }
+
+    @Test
+    public void testHedgeDelayFromP95() throws IOException, InterruptedException {
+        HttpResilience resilience = new HttpResilience(PostJobMetrics.GITLAB_API, 0, 0, 1, new PostJobMetrics(), new ExecutionEngine(1, false));
+        Assertions.assertThat(resilience.getHedgeDelayMillis()).isEqualTo(1);
+
+        for (int i = 0; i < HttpResilience.MIN_LATENCY_SAMPLES; i++) {
+            resilience.call(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+                return "ok";
+            });
+        }
+        Assertions.assertThat(resilience.getHedgeDelayMillis()).isGreaterThanOrEqualTo(20);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JsonChunkReaderTest {
+
+    @Test
+    public void testReadStringInChunks() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < JsonChunkReader.CHUNK_SIZE * 2 + 10; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+
+        List<Integer> chunks = new ArrayList<>();
+        StringBuilder read = new StringBuilder();
+        try (JsonChunkReader json = new JsonChunkReader(new StringReader("{\"diff\": \"" + value + "\"}"))) {
+            json.expect('{');
+            assertThat(json.readString()).isEqualTo("diff");
+            json.expect(':');
+            json.readString((chars, offset, length) -> {
+                chunks.add(length);
+                read.append(chars, offset, length);
+            });
+            json.expect('}');
+            assertThat(json.peek()).isEqualTo(-1);
+        }
+
+        assertThat(read.toString()).isEqualTo(value.toString());
+        assertThat(chunks).containsExactly(JsonChunkReader.CHUNK_SIZE, JsonChunkReader.CHUNK_SIZE, 10);
+    }
+
+    @Test
+    public void testSkipValue() throws IOException {
+        try (JsonChunkReader json = new JsonChunkReader(new StringReader("[ {\"a\": [1, -2.5E3, \"x\\\"]\", {}], \"b\": null}, true, \"\\u00e9\" ]"))) {
+            json.expect('[');
+            json.skipValue();
+            json.expect(',');
+            json.skipValue();
+            json.expect(',');
+            assertThat(json.readString()).isEqualTo("\u00e9");
+            json.expect(']');
+        }
+    }
+}
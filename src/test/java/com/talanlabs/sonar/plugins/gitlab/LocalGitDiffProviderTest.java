@@ -0,0 +1,94 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocalGitDiffProviderTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File gitBaseDir;
+
+    @Before
+    public void prepare() throws IOException, InterruptedException {
+        gitBaseDir = temp.newFolder();
+        git("init", "-q");
+        git("config", "user.email", "john@doe.com");
+        git("config", "user.name", "John Doe");
+    }
+
+    private void git(String... args) throws IOException, InterruptedException {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        Process process = new ProcessBuilder(command).directory(gitBaseDir).inheritIO().start();
+        assertThat(process.waitFor()).isZero();
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(gitBaseDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDiff() throws IOException, InterruptedException {
+        write("Foo.php", "a\nb\nc\n");
+        write("Removed.php", "removed\n");
+        git("add", "-A");
+        git("commit", "-q", "-m", "first");
+
+        write("Foo.php", "a\nadded\nb\nc\n++ not a header\n");
+        write("src/My File.php", "new\n");
+        new File(gitBaseDir, "Removed.php").delete();
+        git("add", "-A");
+        git("commit", "-q", "-m", "second");
+
+        Map<String, Set<IGitLabApiWrapper.Line>> positions = new LocalGitDiffProvider(gitBaseDir).getPatchPositions("HEAD");
+
+        assertThat(positions).containsOnlyKeys("Foo.php", "src/My File.php");
+        assertThat(positions.get("Foo.php")).containsOnly(new IGitLabApiWrapper.Line(2, "added"), new IGitLabApiWrapper.Line(5, "++ not a header"));
+        assertThat(positions.get("src/My File.php")).containsOnly(new IGitLabApiWrapper.Line(1, "new"));
+    }
+
+    @Test
+    public void testNoParent() throws IOException, InterruptedException {
+        write("Foo.php", "a\n");
+        git("add", "-A");
+        git("commit", "-q", "-m", "first");
+
+        assertThat(new LocalGitDiffProvider(gitBaseDir).getPatchPositions("HEAD")).isNull();
+        assertThat(new LocalGitDiffProvider(gitBaseDir).getPatchPositions("0123456789abcdef0123456789abcdef01234567")).isNull();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class MergeRequestNotesUpdaterTest {
+
+    @Rule
+    public MockWebServer gitlab = new MockWebServer();
+
+    private MergeRequestNotesUpdater notesUpdater;
+
+    @Before
+    public void prepare() {
+        OkHttpGitLabTransport transport = new OkHttpGitLabTransport(mock(GitLabPluginConfiguration.class),
+                GitLabPlugin.apiUrl(String.format("http://%s:%d", gitlab.getHostName(), gitlab.getPort()), GitLabPlugin.V4_API_VERSION), new PostJobMetrics(),
+                new ExecutionEngine(1, false));
+        notesUpdater = new MergeRequestNotesUpdater(transport, new GitLabPagination(100, new PostJobMetrics()), 1, 5);
+    }
+
+    private static String note(int id, String body) {
+        return "{\"id\":" + id + ",\"body\":\"" + StringEscapeUtils.escapeJson(body) + "\"}";
+    }
+
+    private static String discussion(String id, int noteId, String body, String path, int line, boolean resolved) {
+        return "{\"id\":\"" + id + "\",\"notes\":[{\"id\":" + noteId + ",\"body\":\"" + StringEscapeUtils.escapeJson(body) + "\",\"resolvable\":true,\"resolved\":" + resolved
+                + ",\"position\":{\"new_path\":\"" + path + "\",\"new_line\":" + line + "}}]}";
+    }
+
+    @Test
+    public void testSummaryUnchanged() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[" + note(1, "LGTM") + "]").addHeader("X-Next-Page", "2"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[" + note(2, MergeRequestNotesUpdater.withMarker("summary", "2 issues")) + "]").addHeader("X-Next-Page", ""));
+
+        notesUpdater.upsertSummary("2 issues");
+
+        assertThat(gitlab.getRequestCount()).isEqualTo(2);
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/notes?per_page=100&page=1");
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/notes?per_page=100&page=2");
+    }
+
+    @Test
+    public void testSummaryUpdated() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[" + note(2, MergeRequestNotesUpdater.withMarker("summary", "2 issues")) + "]"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        notesUpdater.upsertSummary("1 issue");
+
+        gitlab.takeRequest();
+        RecordedRequest put = gitlab.takeRequest();
+        assertThat(put.getMethod()).isEqualTo("PUT");
+        assertThat(put.getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/notes/2");
+        assertThat(put.getBody().readUtf8()).startsWith("body=1%20issue").contains("sonar-gitlab-plugin%20summary%20hash%3A" + MergeRequestNotesUpdater.hash("1 issue"));
+    }
+
+    @Test
+    public void testSummaryCreated() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
+        gitlab.enqueue(new MockResponse().setResponseCode(201).setBody("{}"));
+
+        notesUpdater.upsertSummary("1 issue");
+
+        gitlab.takeRequest();
+        RecordedRequest post = gitlab.takeRequest();
+        assertThat(post.getMethod()).isEqualTo("POST");
+        assertThat(post.getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/notes");
+    }
+
+    @Test
+    public void testInlines() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[" + discussion("d1", 11, notesUpdater.inlineBody("issue 1"), "src/Foo.java", 1, false) + ","
+                + discussion("d2", 12, notesUpdater.inlineBody("issue 2"), "src/Foo.java", 2, false) + ","
+                + discussion("d3", 13, notesUpdater.inlineBody("issue 3"), "src/Foo.java", 3, false) + ","
+                + discussion("d4", 14, notesUpdater.inlineBody("issue 4"), "src/Foo.java", 4, true) + ","
+                + discussion("d5", 15, "Human comment", "src/Foo.java", 5, false) + "]"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        assertThat(notesUpdater.hasSameInline("src/Foo.java", 1, "issue 1")).isTrue();
+        assertThat(notesUpdater.hasSameInline("src/Foo.java", 2, "issue 2 changed")).isFalse();
+        assertThat(notesUpdater.updateInline("src/Foo.java", 2, "issue 2 changed")).isTrue();
+        assertThat(notesUpdater.updateInline("src/Foo.java", 6, "issue 6")).isFalse();
+        notesUpdater.resolveStaleInlines();
+
+        assertThat(gitlab.getRequestCount()).isEqualTo(3);
+        assertThat(gitlab.takeRequest().getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/discussions?per_page=100&page=1");
+        RecordedRequest update = gitlab.takeRequest();
+        assertThat(update.getMethod()).isEqualTo("PUT");
+        assertThat(update.getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/discussions/d2/notes/12");
+        RecordedRequest resolve = gitlab.takeRequest();
+        assertThat(resolve.getPath()).isEqualTo("/api/v4/projects/1/merge_requests/5/discussions/d3");
+        assertThat(resolve.getBody().readUtf8()).isEqualTo("resolved=true");
+    }
+}
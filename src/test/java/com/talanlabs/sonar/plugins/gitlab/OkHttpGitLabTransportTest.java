@@ -0,0 +1,134 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import org.apache.commons.io.IOUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OkHttpGitLabTransportTest {
+
+    @Rule
+    public MockWebServer gitlab = new MockWebServer();
+
+    private OkHttpGitLabTransport transport;
+
+    @Before
+    public void prepare() {
+        GitLabPluginConfiguration config = mock(GitLabPluginConfiguration.class);
+        when(config.userToken()).thenReturn("123456");
+
+        transport = new OkHttpGitLabTransport(config, GitLabPlugin.apiUrl(String.format("http://%s:%d/", gitlab.getHostName(), gitlab.getPort()), GitLabPlugin.V4_API_VERSION), new PostJobMetrics(),
+                new ExecutionEngine(1, false));
+    }
+
+    @Test
+    public void testPostReuseConnection() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(201).setBody("{\"id\":1}").addHeader("X-Total", "1"));
+        gitlab.enqueue(new MockResponse().setResponseCode(201).setBody("{\"id\":2}"));
+
+        GitLabHttpResponse response = transport.postCommitStatus(1, "abc123", "pending", "master", "sonarqube", "SonarQube analysis in progress");
+        Assertions.assertThat(response.getCode()).isEqualTo(201);
+        Assertions.assertThat(response.getBody()).isEqualTo("{\"id\":1}");
+        Assertions.assertThat(response.getHeader("x-total")).isEqualTo("1");
+
+        transport.postCommitComment(1, "abc123", "Issue here", "src/Foo.java", 10, "new");
+
+        RecordedRequest status = gitlab.takeRequest();
+        Assertions.assertThat(status.getMethod()).isEqualTo("POST");
+        Assertions.assertThat(status.getPath()).isEqualTo("/api/v4/projects/1/statuses/abc123");
+        Assertions.assertThat(status.getHeader("PRIVATE-TOKEN")).isEqualTo("123456");
+        Assertions.assertThat(status.getBody().readUtf8()).isEqualTo("state=pending&ref=master&name=sonarqube&description=SonarQube%20analysis%20in%20progress");
+
+        RecordedRequest comment = gitlab.takeRequest();
+        Assertions.assertThat(comment.getPath()).isEqualTo("/api/v4/projects/1/repository/commits/abc123/comments");
+        Assertions.assertThat(comment.getBody().readUtf8()).isEqualTo("note=Issue%20here&path=src%2FFoo.java&line=10&line_type=new");
+        Assertions.assertThat(comment.getSequenceNumber()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGet() throws IOException, InterruptedException {
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
+
+        transport.execute(IGitLabHttpTransport.GET, "projects/1/merge_requests", Collections.singletonMap("state", "opened"));
+
+        RecordedRequest request = gitlab.takeRequest();
+        Assertions.assertThat(request.getMethod()).isEqualTo("GET");
+        Assertions.assertThat(request.getPath()).isEqualTo("/api/v4/projects/1/merge_requests?state=opened");
+    }
+
+    @Test
+    public void testFailed() {
+        gitlab.enqueue(new MockResponse().setResponseCode(400).setBody("{\"message\":\"Cannot transition status via :run from :running\"}"));
+
+        Assertions.assertThatThrownBy(() -> transport.postCommitStatus(1, "abc123", "running", null, "sonarqube", null)).isInstanceOf(IOException.class)
+                .hasMessageContaining("HTTP 400").hasMessageContaining("Cannot transition status");
+    }
+
+    @Test
+    public void testGetRetried() throws IOException {
+        GitLabPluginConfiguration config = mock(GitLabPluginConfiguration.class);
+        when(config.httpMaxRetries()).thenReturn(2);
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        OkHttpGitLabTransport retryTransport = new OkHttpGitLabTransport(config, GitLabPlugin.apiUrl(String.format("http://%s:%d/", gitlab.getHostName(), gitlab.getPort()), GitLabPlugin.V4_API_VERSION),
+                postJobMetrics, new ExecutionEngine(1, false));
+
+        gitlab.enqueue(new MockResponse().setResponseCode(502).setBody("Bad Gateway"));
+        gitlab.enqueue(new MockResponse().setResponseCode(503).setBody("Service Unavailable"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[]"));
+        gitlab.enqueue(new MockResponse().setResponseCode(503).setBody("Service Unavailable"));
+        gitlab.enqueue(new MockResponse().setResponseCode(200).setBody("[{\"diff\":\"\"}]"));
+
+        Assertions.assertThat(retryTransport.execute(IGitLabHttpTransport.GET, "projects/1/merge_requests", Collections.emptyMap()).getBody()).isEqualTo("[]");
+        StringBuilder sb = new StringBuilder();
+        retryTransport.get("projects/1/repository/commits/abc123/diff", Collections.emptyMap(), body -> sb.append(IOUtils.toString(body, StandardCharsets.UTF_8)));
+        Assertions.assertThat(sb.toString()).isEqualTo("[{\"diff\":\"\"}]");
+
+        Assertions.assertThat(gitlab.getRequestCount()).isEqualTo(5);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.GITLAB_API)).isEqualTo(3);
+        Assertions.assertThat(postJobMetrics.getHttpCallCount(PostJobMetrics.GITLAB_API)).isEqualTo(5);
+        Assertions.assertThat(postJobMetrics.getHttpBytesReceived(PostJobMetrics.GITLAB_API)).isEqualTo(64);
+    }
+
+    @Test
+    public void testPostNotRetried() {
+        GitLabPluginConfiguration config = mock(GitLabPluginConfiguration.class);
+        when(config.httpMaxRetries()).thenReturn(2);
+        OkHttpGitLabTransport retryTransport = new OkHttpGitLabTransport(config, GitLabPlugin.apiUrl(String.format("http://%s:%d/", gitlab.getHostName(), gitlab.getPort()), GitLabPlugin.V4_API_VERSION),
+                new PostJobMetrics(), new ExecutionEngine(1, false));
+
+        gitlab.enqueue(new MockResponse().setResponseCode(502).setBody("Bad Gateway"));
+
+        Assertions.assertThatThrownBy(() -> retryTransport.postCommitStatus(1, "abc123", "running", null, "sonarqube", null)).isInstanceOf(IOException.class).hasMessageContaining("HTTP 502");
+        Assertions.assertThat(gitlab.getRequestCount()).isEqualTo(1);
+    }
+}
@@ -73,4 +73,23 @@ public class PatchUtilsTest {
         );
     }
 
+    @Test
+    public void testParserChunks() {
+        char[] patch = "@@ -1,3 +1,4 @@\n a\r\n+added\r\n b\n@@ -10 +11,2 @@ foo\n+x\n+y".toCharArray();
+        for (int chunk = 1; chunk <= patch.length; chunk++) {
+            PatchUtils.PositionsParser parser = new PatchUtils.PositionsParser();
+            for (int i = 0; i < patch.length; i += chunk) {
+                parser.append(patch, i, Math.min(chunk, patch.length - i));
+            }
+            Assertions.assertThat(parser.finish()).containsExactlyInAnyOrder(new IGitLabApiWrapper.Line(2, "added"), new IGitLabApiWrapper.Line(11, "x"),
+                    new IGitLabApiWrapper.Line(12, "y"));
+        }
+    }
+
+    @Test
+    public void testParserWrong() {
+        PatchUtils.PositionsParser parser = new PatchUtils.PositionsParser();
+        parser.append("@ wro".toCharArray(), 0, 5);
+        Assertions.assertThatThrownBy(() -> parser.append("ng\n".toCharArray(), 0, 3)).isInstanceOf(IllegalStateException.class).hasMessage("Unable to parse line:\n\t@ wrong");
+    }
 }
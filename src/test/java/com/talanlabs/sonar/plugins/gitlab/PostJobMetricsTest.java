@@ -0,0 +1,102 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class PostJobMetricsTest {
+
+    @Test
+    public void testTime() {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+
+        Assertions.assertThat(postJobMetrics.time("phase", () -> "toto")).isEqualTo("toto");
+        postJobMetrics.time("phase", () -> {
+        });
+        Assertions.assertThatThrownBy(() -> postJobMetrics.time("failed", (Runnable) () -> {
+            throw new IllegalStateException("failed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        Assertions.assertThat(postJobMetrics.getPhaseCount("phase")).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getPhaseCount("failed")).isEqualTo(1);
+        Assertions.assertThat(postJobMetrics.getPhaseCount("other")).isEqualTo(0);
+        Assertions.assertThat(postJobMetrics.getPhaseDurationMillis("other")).isEqualTo(0);
+    }
+
+    @Test
+    public void testHttpCalls() {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        postJobMetrics.recordHttpCall(PostJobMetrics.SONARQUBE_API, 0, 100);
+        postJobMetrics.recordHttpCall(PostJobMetrics.SONARQUBE_API, 0, 50);
+        postJobMetrics.recordHttpCall(PostJobMetrics.GITLAB_API, 20, 0);
+
+        Assertions.assertThat(postJobMetrics.getHttpCallCount(PostJobMetrics.SONARQUBE_API)).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getHttpBytesReceived(PostJobMetrics.SONARQUBE_API)).isEqualTo(150);
+        Assertions.assertThat(postJobMetrics.getHttpCallCount(PostJobMetrics.GITLAB_API)).isEqualTo(1);
+    }
+
+    @Test
+    public void testUnmeasuredHttpCalls() {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        postJobMetrics.recordHttpCall(PostJobMetrics.GITLAB_API);
+        postJobMetrics.recordHttpCall(PostJobMetrics.GITLAB_API);
+
+        Assertions.assertThat(postJobMetrics.getHttpCallCount(PostJobMetrics.GITLAB_API)).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getHttpUnmeasuredCallCount(PostJobMetrics.GITLAB_API)).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.toJson())
+                .isEqualTo("{\"phases\":{},\"http\":{\"gitlab\":{\"calls\":2,\"bytesSent\":null,\"bytesReceived\":null,\"callsWithoutBytes\":2}}}");
+
+        postJobMetrics.recordHttpCall(PostJobMetrics.GITLAB_API, 20, 10);
+        Assertions.assertThat(postJobMetrics.toJson())
+                .isEqualTo("{\"phases\":{},\"http\":{\"gitlab\":{\"calls\":3,\"bytesSent\":20,\"bytesReceived\":10,\"callsWithoutBytes\":2}}}");
+    }
+
+    @Test
+    public void testToJson() {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        Assertions.assertThat(postJobMetrics.toJson()).isEqualTo("{\"phases\":{},\"http\":{}}");
+
+        postJobMetrics.recordPhase("report", 2000000);
+        postJobMetrics.recordHttpCall(PostJobMetrics.GITLAB_API, 20, 10);
+        Assertions.assertThat(postJobMetrics.toJson())
+                .isEqualTo("{\"phases\":{\"report\":{\"durationMs\":2,\"count\":1}},\"http\":{\"gitlab\":{\"calls\":1,\"bytesSent\":20,\"bytesReceived\":10}}}");
+
+        postJobMetrics.recordPagedRequests(PostJobMetrics.GITLAB_API, 2, 8);
+        postJobMetrics.recordPagedRequests(PostJobMetrics.GITLAB_API, 1, 0);
+        Assertions.assertThat(postJobMetrics.getSavedRequests(PostJobMetrics.GITLAB_API)).isEqualTo(8);
+        Assertions.assertThat(postJobMetrics.toJson()).endsWith(",\"paged\":{\"gitlab\":{\"requests\":3,\"savedRequests\":8}}}");
+
+        postJobMetrics.recordRetry(PostJobMetrics.SONARQUBE_API);
+        postJobMetrics.recordRetry(PostJobMetrics.SONARQUBE_API);
+        postJobMetrics.recordHedge(PostJobMetrics.SONARQUBE_API);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.SONARQUBE_API)).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getHedges(PostJobMetrics.SONARQUBE_API)).isEqualTo(1);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.GITLAB_API)).isEqualTo(0);
+        Assertions.assertThat(postJobMetrics.toJson()).endsWith(",\"resilience\":{\"sonarqube\":{\"retries\":2,\"hedges\":1}}}");
+
+        postJobMetrics.recordCoalesced("sonarqube-rule");
+        postJobMetrics.recordCoalesced("sonarqube-rule");
+        postJobMetrics.recordCoalesced("gitlab-user");
+        Assertions.assertThat(postJobMetrics.getCoalesced("sonarqube-rule")).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getCoalesced("sonarqube-component")).isEqualTo(0);
+        Assertions.assertThat(postJobMetrics.toJson()).endsWith(",\"coalesced\":{\"sonarqube-rule\":2,\"gitlab-user\":1}}");
+    }
+}
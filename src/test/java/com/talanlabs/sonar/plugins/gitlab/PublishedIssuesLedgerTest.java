@@ -0,0 +1,81 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import com.talanlabs.sonar.plugins.gitlab.models.Issue;
+import com.talanlabs.sonar.plugins.gitlab.models.ReportIssue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.rule.Severity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PublishedIssuesLedgerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private static List<ReportIssue> reportIssues(String message) {
+        Issue issue = Utils.newIssue("foo:src/Foo.php", new File("src/Foo.php"), 1, Severity.MAJOR, true, message);
+        return Collections.singletonList(ReportIssue.newBuilder().issue(issue).revision("abc123").build());
+    }
+
+    @Test
+    public void testFingerprint() {
+        File file = new File("src/Foo.php");
+        String fingerprint = PublishedIssuesLedger.fingerprint("abc123", "john", file, 1, reportIssues("msg1"), null);
+
+        assertThat(PublishedIssuesLedger.fingerprint("abc123", "john", file, 1, reportIssues("msg1"), null)).isEqualTo(fingerprint);
+        assertThat(PublishedIssuesLedger.fingerprint("abc123", "john", file, 1, reportIssues("msg2"), null)).isNotEqualTo(fingerprint);
+        assertThat(PublishedIssuesLedger.fingerprint("abc123", "john", file, 2, reportIssues("msg1"), null)).isNotEqualTo(fingerprint);
+        assertThat(PublishedIssuesLedger.fingerprint("def456", "john", file, 1, reportIssues("msg1"), null)).isNotEqualTo(fingerprint);
+        assertThat(PublishedIssuesLedger.fingerprint("abc123", null, file, 1, reportIssues("msg1"), null)).isNotEqualTo(fingerprint);
+        assertThat(PublishedIssuesLedger.fingerprint("abc123", "john", file, 1, reportIssues("msg1"), "${issue}")).isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    public void testLoadSave() throws IOException {
+        File cacheDir = temp.newFolder();
+
+        PublishedIssuesLedger ledger = PublishedIssuesLedger.load(cacheDir, "123", "!5");
+        assertThat(ledger.isPublished("a")).isFalse();
+        ledger.published("a");
+        ledger.published("b");
+        ledger.save();
+
+        ledger = PublishedIssuesLedger.load(cacheDir, "123", "!5");
+        assertThat(ledger.isPublished("a")).isTrue();
+        assertThat(ledger.isPublished("c")).isFalse();
+        ledger.save();
+
+        ledger = PublishedIssuesLedger.load(cacheDir, "123", "!5");
+        assertThat(ledger.isPublished("a")).isTrue();
+        assertThat(ledger.isPublished("b")).isFalse();
+
+        assertThat(PublishedIssuesLedger.load(cacheDir, "123", "master").isPublished("a")).isFalse();
+        assertThat(cacheDir.listFiles()).hasSize(1);
+    }
+}
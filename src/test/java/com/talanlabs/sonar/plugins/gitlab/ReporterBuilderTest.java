@@ -20,13 +20,16 @@
 package com.talanlabs.sonar.plugins.gitlab;
 
 import com.talanlabs.sonar.plugins.gitlab.models.Issue;
+import com.talanlabs.sonar.plugins.gitlab.models.IssuesSummary;
 import com.talanlabs.sonar.plugins.gitlab.models.JsonMode;
 import com.talanlabs.sonar.plugins.gitlab.models.QualityGate;
 import com.talanlabs.sonar.plugins.gitlab.models.QualityGateFailMode;
 import com.talanlabs.sonar.plugins.gitlab.models.StatusNotificationsMode;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.AdditionalMatchers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
@@ -42,7 +45,9 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
@@ -51,6 +56,9 @@ import static org.mockito.Mockito.when;
 
 public class ReporterBuilderTest {
 
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
     private MapSettings settings;
     private ReporterBuilder reporterBuilder;
     private SonarFacade sonarFacade;
@@ -74,7 +82,7 @@ public class ReporterBuilderTest {
 
         GitLabPluginConfiguration config = new GitLabPluginConfiguration(settings.asConfig(), new System2());
 
-        reporterBuilder = new ReporterBuilder(config, sonarFacade, commitFacade, new MarkDownUtils(), analysisMode);
+        reporterBuilder = new ReporterBuilder(config, sonarFacade, commitFacade, new MarkDownUtils(), analysisMode, new PostJobMetrics());
     }
 
     @Test
@@ -95,6 +103,29 @@ public class ReporterBuilderTest {
         Assertions.assertThat(reporter).isNotNull().extracting(Reporter::getStatus, Reporter::getStatusDescription).contains("success", "SonarQube reported no issues");
     }
 
+    @Test
+    public void testCommitAnalysisFromSummary() {
+        settings.setProperty(GitLabPlugin.GITLAB_MAX_GLOBAL_ISSUES, 1);
+        settings.setProperty(GitLabPlugin.GITLAB_MAX_BLOCKER_ISSUES_GATE, 2);
+
+        Issue blockerIssue = Utils.newIssue("foo:src/Foo.php", new File("src/Foo.php"), 1, Severity.BLOCKER, true, "msg1");
+        Map<Severity, Integer> counts = new EnumMap<>(Severity.class);
+        counts.put(Severity.BLOCKER, 3);
+        counts.put(Severity.MAJOR, 2);
+
+        Reporter reporter = reporterBuilder.buildFromSummary(null, IssuesSummary.newBuilder().issues(Collections.singletonList(blockerIssue)).counts(counts).build());
+
+        Assertions.assertThat(reporter.getIssueCount()).isEqualTo(5);
+        Assertions.assertThat(reporter.getNotReportedIssueCount()).isEqualTo(5);
+        Assertions.assertThat(reporter.getReportIssues()).hasSize(1);
+        Assertions.assertThat(reporter).extracting(Reporter::getStatus, Reporter::getStatusDescription)
+                .contains("failed", "SonarQube reported 5 issues, with 3 blocker (fail) and 2 major");
+
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(commitFacade).addGlobalComment(body.capture());
+        Assertions.assertThat(body.getValue()).contains("SonarQube analysis reported 5 issues", "msg1", "* ... 4 more");
+    }
+
     @Test
     public void testCommitAnalysisWithNewIssues() {
         settings.setProperty(GitLabPlugin.GITLAB_ONLY_ISSUE_FROM_COMMIT_FILE, false);
@@ -232,6 +263,56 @@ public class ReporterBuilderTest {
         Mockito.verify(commitFacade).createOrUpdateReviewComment("abc123", inputFile1, 2, ":no_entry: msg3 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)");
     }
 
+    @Test
+    public void testCommitAnalysisWithNewIssuesFileThreshold() {
+        settings.setProperty(GitLabPlugin.GITLAB_INLINE_FILE_THRESHOLD, 1);
+
+        File inputFile1 = new File("src/Foo.php");
+        Issue newIssue1 = Utils.newIssue("foo:src/Foo.php", inputFile1, 1, Severity.BLOCKER, true, "msg1");
+        Issue newIssue2 = Utils.newIssue("foo:src/Foo.php", inputFile1, 1, Severity.BLOCKER, true, "msg2");
+        Issue newIssue3 = Utils.newIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg3");
+        File inputFile2 = new File("src/Bar.php");
+        Issue newIssue4 = Utils.newIssue("foo:src/Bar.php", inputFile2, 3, Severity.BLOCKER, true, "msg4");
+        Mockito.when(commitFacade.getGitLabUrl("abc123", inputFile1, 1)).thenReturn("http://gitlab/blob/abc123/src/Foo.php#L1");
+        Mockito.when(commitFacade.getGitLabUrl("abc123", inputFile1, 2)).thenReturn("http://gitlab/blob/abc123/src/Foo.php#L2");
+        Mockito.when(commitFacade.getRuleLink("repo:rule")).thenReturn("http://myserver/coding_rules#rule_key=repo%3Arule");
+
+        Mockito.when(commitFacade.getRevisionForLine(inputFile1, 1)).thenReturn("abc123");
+        Mockito.when(commitFacade.getRevisionForLine(inputFile1, 2)).thenReturn("abc123");
+        Mockito.when(commitFacade.getRevisionForLine(inputFile2, 3)).thenReturn("abc123");
+
+        reporterBuilder.build(null, Arrays.asList(newIssue1, newIssue2, newIssue3, newIssue4));
+
+        Mockito.verify(commitFacade).createOrUpdateReviewComment("abc123", inputFile1, 1, "SonarQube analysis reported 3 issues in this file\n\n"
+                + "* [L1](http://gitlab/blob/abc123/src/Foo.php#L1) :no_entry: msg1 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)\n"
+                + "* [L1](http://gitlab/blob/abc123/src/Foo.php#L1) :no_entry: msg2 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)\n"
+                + "* [L2](http://gitlab/blob/abc123/src/Foo.php#L2) :no_entry: msg3 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)");
+        Mockito.verify(commitFacade, never()).createOrUpdateReviewComment(Mockito.eq("abc123"), Mockito.eq(inputFile1), Mockito.eq(2), Mockito.anyString());
+        Mockito.verify(commitFacade).createOrUpdateReviewComment("abc123", inputFile2, 3, ":no_entry: msg4 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)");
+        Mockito.verify(commitFacade).flush();
+    }
+
+    @Test
+    public void testCommitAnalysisWithNewIssuesMergeRequestThreshold() {
+        settings.setProperty(GitLabPlugin.GITLAB_INLINE_MERGE_REQUEST_THRESHOLD, 1);
+
+        File inputFile1 = new File("src/Foo.php");
+        Issue newIssue1 = Utils.newIssue("foo:src/Foo.php", inputFile1, 1, Severity.BLOCKER, true, "msg1");
+        File inputFile2 = new File("src/Bar.php");
+        Issue newIssue2 = Utils.newIssue("foo:src/Bar.php", inputFile2, 3, Severity.BLOCKER, true, "msg2");
+        Mockito.when(commitFacade.getRuleLink("repo:rule")).thenReturn("http://myserver/coding_rules#rule_key=repo%3Arule");
+
+        Mockito.when(commitFacade.getRevisionForLine(inputFile1, 1)).thenReturn("abc123");
+        Mockito.when(commitFacade.getRevisionForLine(inputFile2, 3)).thenReturn("abc123");
+
+        reporterBuilder.build(null, Arrays.asList(newIssue1, newIssue2));
+
+        Mockito.verify(commitFacade).createOrUpdateReviewComment("abc123", inputFile1, 1,
+                "SonarQube analysis reported 1 issue in this file\n\n* L1 :no_entry: msg1 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)");
+        Mockito.verify(commitFacade).createOrUpdateReviewComment("abc123", inputFile2, 3,
+                "SonarQube analysis reported 1 issue in this file\n\n* L3 :no_entry: msg2 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)");
+    }
+
     @Test
     public void testSortIssues() {
         ArgumentCaptor<String> commentCaptor = ArgumentCaptor.forClass(String.class);
@@ -417,6 +498,37 @@ public class ReporterBuilderTest {
         Mockito.verify(commitFacade).createOrUpdateReviewComment("abc123", inputFile1, 1, ":no_entry: msg2 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)");
     }
 
+    @Test
+    public void testCommitAnalysisWithNewIssuesIncremental() throws Exception {
+        settings.setProperty(GitLabPlugin.GITLAB_INCREMENTAL, true);
+        settings.setProperty(GitLabPlugin.GITLAB_CACHE_DIR, temp.newFolder().getAbsolutePath());
+        settings.setProperty(GitLabPlugin.GITLAB_PROJECT_ID, "123");
+        settings.setProperty(GitLabPlugin.GITLAB_REF_NAME, "master");
+
+        File inputFile1 = new File("src/Foo.php");
+        Issue newIssue1 = Utils.newIssue("foo:src/Foo.php", inputFile1, 1, Severity.BLOCKER, true, "msg1");
+        Issue newIssue2 = Utils.newIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+        Mockito.when(commitFacade.getRuleLink("repo:rule")).thenReturn("http://myserver/coding_rules#rule_key=repo%3Arule");
+        Mockito.when(commitFacade.getRevisionForLine(inputFile1, 1)).thenReturn("abc123");
+        Mockito.when(commitFacade.getRevisionForLine(inputFile1, 2)).thenReturn("abc123");
+
+        reporterBuilder.build(null, Collections.singletonList(newIssue1));
+
+        Mockito.verify(commitFacade).createOrUpdateReviewComment("abc123", inputFile1, 1, ":no_entry: msg1 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)");
+
+        Mockito.reset(commitFacade);
+        Mockito.when(commitFacade.getRuleLink("repo:rule")).thenReturn("http://myserver/coding_rules#rule_key=repo%3Arule");
+        Mockito.when(commitFacade.getRevisionForLine(inputFile1, 1)).thenReturn("abc123");
+        Mockito.when(commitFacade.getRevisionForLine(inputFile1, 2)).thenReturn("abc123");
+
+        reporterBuilder.build(null, Arrays.asList(newIssue1, newIssue2));
+
+        Mockito.verify(commitFacade).keepReviewComment(inputFile1, 1);
+        Mockito.verify(commitFacade, never()).hasSameCommitCommentsForFile(Mockito.eq("abc123"), Mockito.eq(inputFile1), Mockito.eq(1), Mockito.anyString());
+        Mockito.verify(commitFacade, never()).createOrUpdateReviewComment(Mockito.eq("abc123"), Mockito.eq(inputFile1), Mockito.eq(1), Mockito.anyString());
+        Mockito.verify(commitFacade).createOrUpdateReviewComment("abc123", inputFile1, 2, ":no_entry: msg2 [:blue_book:](http://myserver/coding_rules#rule_key=repo%3Arule)");
+    }
+
     @Test
     public void testCommitAnalysisWithNewIssuesInlineNoBody() {
         settings.setProperty(GitLabPlugin.GITLAB_INLINE_TEMPLATE,
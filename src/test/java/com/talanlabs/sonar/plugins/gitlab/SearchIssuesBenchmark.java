@@ -0,0 +1,93 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.sonar.api.resources.Qualifiers;
+import org.sonarqube.ws.Common;
+import org.sonarqube.ws.Issues;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Page count and response size of issue search for a 20k issues project, default request (100 per page, creation date order)
+ * against SonarFacade request (500 per page, file order), run manually (not a test)
+ * <p>
+ * mvn test-compile exec:java -Dexec.mainClass=com.talanlabs.sonar.plugins.gitlab.SearchIssuesBenchmark -Dexec.classpathScope=test
+ */
+public class SearchIssuesBenchmark {
+
+    private static final int ISSUES = 20_000;
+    private static final int FILES = 2000;
+    private static final int MAX_SEARCH_ISSUES = 10000;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private SearchIssuesBenchmark() {
+        // Nothing
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<Issues.Issue> issues = new ArrayList<>();
+        for (int i = 0; i < ISSUES; i++) {
+            issues.add(Issues.Issue.newBuilder().setKey("AV" + i).setRule("squid:S" + random.nextInt(500)).setComponent(componentKey(random.nextInt(FILES))).setProject("project")
+                    .setLine(1 + random.nextInt(1000)).setMessage("Message of issue " + i).setSeverity(Common.Severity.values()[random.nextInt(5)]).build());
+        }
+        print("default (ps=100, creation date)", issues, DEFAULT_PAGE_SIZE);
+
+        List<Issues.Issue> sorted = new ArrayList<>(issues);
+        sorted.sort(Comparator.comparing(Issues.Issue::getComponent).thenComparingInt(Issues.Issue::getLine));
+        print("plugin (ps=" + SonarFacade.SEARCH_ISSUES_PAGE_SIZE + ", file)", sorted, SonarFacade.SEARCH_ISSUES_PAGE_SIZE);
+    }
+
+    private static void print(String name, List<Issues.Issue> issues, int pageSize) {
+        int pages = 0;
+        long bytes = 0;
+        int components = 0;
+        for (int from = 0; from < Math.min(issues.size(), MAX_SEARCH_ISSUES); from += pageSize) {
+            Issues.SearchWsResponse page = page(issues.subList(from, Math.min(from + pageSize, issues.size())), pageSize);
+            pages++;
+            bytes += page.getSerializedSize();
+            components += page.getComponentsCount();
+        }
+        System.out.printf("%s: %d pages, %d KB, %d components%n", name, pages, bytes / 1024, components);
+    }
+
+    /**
+     * Page as returned by SonarQube, with components of its issues
+     */
+    private static Issues.SearchWsResponse page(List<Issues.Issue> issues, int pageSize) {
+        Set<String> componentKeys = new LinkedHashSet<>();
+        issues.forEach(i -> componentKeys.add(i.getComponent()));
+
+        Issues.SearchWsResponse.Builder builder = Issues.SearchWsResponse.newBuilder().setTotal(ISSUES).setPs(pageSize).addAllIssues(issues);
+        componentKeys.forEach(k -> builder.addComponents(Issues.Component.newBuilder().setKey(k).setQualifier(Qualifiers.FILE).setPath(k.substring(k.indexOf(':') + 1))
+                .setLongName(k.substring(k.indexOf(':') + 1)).setName(k.substring(k.lastIndexOf('/') + 1)).setEnabled(true)));
+        return builder.build();
+    }
+
+    private static String componentKey(int index) {
+        return "project:src/main/java/com/example/module" + (index % 50) + "/File" + index + ".java";
+    }
+}
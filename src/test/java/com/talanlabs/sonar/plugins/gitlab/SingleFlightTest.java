@@ -0,0 +1,127 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.talanlabs.sonar.plugins.gitlab;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testCoalesce() throws Exception {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("sonarqube-rule", postJobMetrics);
+
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> leader = executorService.submit(() -> singleFlight.load("squid:S1", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return "rule";
+            }));
+            loading.await(10, TimeUnit.SECONDS);
+
+            List<Future<String>> followers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                followers.add(executorService.submit(() -> singleFlight.load("squid:S1", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                })));
+            }
+            while (postJobMetrics.getCoalesced("sonarqube-rule") < 3) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            Assertions.assertThat(leader.get(10, TimeUnit.SECONDS)).isEqualTo("rule");
+            for (Future<String> follower : followers) {
+                Assertions.assertThat(follower.get(10, TimeUnit.SECONDS)).isEqualTo("rule");
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Assertions.assertThat(loads.get()).isEqualTo(1);
+        Assertions.assertThat(singleFlight.inFlightCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testNotCoalescedWhenLoaded() throws IOException {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("gitlab-user", postJobMetrics);
+
+        Assertions.assertThat(singleFlight.load("john@doe.com", () -> "john")).isEqualTo("john");
+        Assertions.assertThat(singleFlight.load("john@doe.com", () -> "johnny")).isEqualTo("johnny");
+        Assertions.assertThat(singleFlight.load("jane@doe.com", () -> "jane")).isEqualTo("jane");
+        Assertions.assertThat(postJobMetrics.getCoalesced("gitlab-user")).isEqualTo(0);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        PostJobMetrics postJobMetrics = new PostJobMetrics();
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("sonarqube-component", postJobMetrics);
+
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executorService.submit(() -> singleFlight.load("com.talanlabs:Foo.java", () -> {
+                loading.countDown();
+                await(release);
+                throw new IOException("Not Found");
+            }));
+            loading.await(10, TimeUnit.SECONDS);
+            Future<String> follower = executorService.submit(() -> singleFlight.load("com.talanlabs:Foo.java", () -> "Foo.java"));
+            while (postJobMetrics.getCoalesced("sonarqube-component") < 1) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            Assertions.assertThatThrownBy(() -> leader.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class);
+            Assertions.assertThatThrownBy(() -> follower.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class).hasMessageContaining("Not Found");
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assertions.assertThat(singleFlight.load("com.talanlabs:Foo.java", () -> "Foo.java")).isEqualTo("Foo.java");
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
@@ -20,14 +20,20 @@
 package com.talanlabs.sonar.plugins.gitlab;
 
 import com.google.protobuf.AbstractMessageLite;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
 import com.squareup.okhttp.mockwebserver.MockResponse;
 import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.talanlabs.sonar.plugins.gitlab.models.AnalysisContext;
 import com.talanlabs.sonar.plugins.gitlab.models.Issue;
+import com.talanlabs.sonar.plugins.gitlab.models.IssuesSummary;
+import com.talanlabs.sonar.plugins.gitlab.models.NewIssuesMode;
 import com.talanlabs.sonar.plugins.gitlab.models.QualityGate;
 import okio.Buffer;
 import org.apache.commons.io.IOUtils;
 import org.assertj.core.api.Assertions;
 import org.assertj.core.groups.Tuple;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -43,8 +49,15 @@ import org.sonarqube.ws.*;
 import org.sonarqube.ws.client.HttpException;
 
 import java.io.*;
+import java.net.URLDecoder;
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class SonarFacadeTest {
 
@@ -54,7 +67,9 @@ public class SonarFacadeTest {
     public TemporaryFolder temp = new TemporaryFolder();
 
     private MapSettings settings;
+    private ExecutionEngine executionEngine;
     private SonarFacade sonarFacade;
+    private PostJobMetrics postJobMetrics;
     private File projectDir;
     private File workDir;
 
@@ -71,10 +86,17 @@ public class SonarFacadeTest {
 
         GitLabPluginConfiguration config = new GitLabPluginConfiguration(settings.asConfig(), new System2());
 
-        sonarFacade = new SonarFacade(settings.asConfig(), config);
+        postJobMetrics = new PostJobMetrics();
+        executionEngine = new ExecutionEngine(config);
+        sonarFacade = new SonarFacade(settings.asConfig(), config, postJobMetrics, executionEngine);
         sonarFacade.init(projectDir, workDir);
     }
 
+    @After
+    public void shutdown() {
+        executionEngine.shutdown();
+    }
+
     private void createReportTaskFile() throws IOException {
         String text = IOUtils.toString(SonarFacadeTest.class.getResourceAsStream("/report-task.txt"), "UTF-8");
         String report = MessageFormat.format(text, "http://" + sonar.getHostName() + ":" + sonar.getPort());
@@ -103,6 +125,19 @@ public class SonarFacadeTest {
         Assertions.assertThatThrownBy(() -> sonarFacade.loadQualityGate()).isInstanceOf(IllegalStateException.class).hasMessage("Analyze in SonarQube is not success (FAILED)");
     }
 
+    @Test
+    public void testRetryBadGateway() throws IOException {
+        sonar.enqueue(new MockResponse().setResponseCode(502).setBody("Bad Gateway"));
+        Ce.TaskResponse taskResponse = Ce.TaskResponse.newBuilder().setTask(Ce.Task.newBuilder().setStatus(Ce.TaskStatus.FAILED).build()).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(taskResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThatThrownBy(() -> sonarFacade.loadQualityGate()).isInstanceOf(IllegalStateException.class).hasMessage("Analyze in SonarQube is not success (FAILED)");
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.SONARQUBE_API)).isEqualTo(1);
+    }
+
     @Test
     public void testNotFound() throws IOException {
         sonar.enqueue(new MockResponse().setResponseCode(404).setBody("Not Found"));
@@ -238,6 +273,32 @@ public class SonarFacadeTest {
                 Tuple.tuple("100", "new_technical_debt", "Added Technical Debt", QualityGate.Status.ERROR, "Warning", "Error"));
     }
 
+    @Test
+    public void testCeTaskLoadedOnce() throws IOException {
+        Ce.TaskResponse taskResponse = Ce.TaskResponse.newBuilder().setTask(Ce.Task.newBuilder().setStatus(Ce.TaskStatus.SUCCESS).setAnalysisId("123456").build()).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(taskResponse)));
+
+        Qualitygates.ProjectStatusResponse projectStatusWsResponse = Qualitygates.ProjectStatusResponse.newBuilder()
+                .setProjectStatus(Qualitygates.ProjectStatusResponse.ProjectStatus.newBuilder().setStatus(Qualitygates.ProjectStatusResponse.Status.OK).build()).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(projectStatusWsResponse)));
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(projectStatusWsResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.loadQualityGate()).isNotNull().extracting(QualityGate::getStatus).contains(QualityGate.Status.OK);
+        Assertions.assertThat(new File(workDir, "report-task.txt").delete()).isTrue();
+        Assertions.assertThat(sonarFacade.loadQualityGate()).isNotNull().extracting(QualityGate::getStatus).contains(QualityGate.Status.OK);
+
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(3);
+        Assertions.assertThat(postJobMetrics.getHttpCallCount(PostJobMetrics.SONARQUBE_API)).isEqualTo(3);
+        Assertions.assertThat(postJobMetrics.getHttpBytesReceived(PostJobMetrics.SONARQUBE_API)).isEqualTo(2L * projectStatusWsResponse.getSerializedSize() + taskResponse.getSerializedSize());
+        Assertions.assertThat(postJobMetrics.getPhaseCount("sonarqube-ce-task")).isEqualTo(1);
+        Assertions.assertThat(postJobMetrics.getPhaseCount("sonarqube-quality-gate")).isEqualTo(2);
+        Assertions.assertThat(sonarFacade.getAnalysisContext())
+                .extracting(AnalysisContext::getCeTaskId, AnalysisContext::getProjectKey, AnalysisContext::getAnalysisId)
+                .containsExactly("AVz4Pj0lCGu3nUwPQk4H", "com.talanlabs:avatar-generator-parent", null);
+    }
+
     @Test
     public void testEmptyGetNewIssue() throws IOException {
         Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(0).setPs(10).build();
@@ -267,6 +328,186 @@ public class SonarFacadeTest {
         Assertions.assertThat(issues.get(0).getFile().getAbsolutePath()).isEqualTo(new File(projectDir, "toto.java").getAbsolutePath());
     }
 
+    @Test
+    public void testSearchIssuesRequest() throws IOException, InterruptedException {
+        Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(0).setPs(SonarFacade.SEARCH_ISSUES_PAGE_SIZE).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.getNewIssues()).isEmpty();
+
+        RecordedRequest request = sonar.takeRequest();
+        Assertions.assertThat(request.getPath()).startsWith("/api/issues/search?").contains("componentKeys=com.talanlabs", "p=1", "ps=500", "resolved=false",
+                "s=FILE_LINE", "asc=true").doesNotContain("facets", "additionalFields");
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSearchIssuesSeverities() throws IOException, InterruptedException {
+        settings.setProperty(GitLabPlugin.GITLAB_ISSUE_FILTER, "MAJOR");
+        Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(0).setPs(SonarFacade.SEARCH_ISSUES_PAGE_SIZE).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.getNewIssues()).isEmpty();
+
+        Assertions.assertThat(URLDecoder.decode(sonar.takeRequest().getPath(), "UTF-8")).contains("severities=MAJOR,CRITICAL,BLOCKER");
+        Assertions.assertThat(SonarFacade.getSearchedSeverities(Severity.INFO)).isNull();
+        Assertions.assertThat(SonarFacade.getSearchedSeverities(null)).isNull();
+        Assertions.assertThat(SonarFacade.getSearchedSeverities(Severity.BLOCKER)).isEqualTo("BLOCKER");
+    }
+
+    @Test
+    public void testSearchIssuesOfFiles() throws IOException, InterruptedException {
+        Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(0).setPs(SonarFacade.SEARCH_ISSUES_PAGE_SIZE).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.getNewIssues(Arrays.asList(new File(projectDir, "src/Foo.java"), new File(projectDir, "src/Bar.java")))).isEmpty();
+
+        Assertions.assertThat(URLDecoder.decode(sonar.takeRequest().getPath(), "UTF-8"))
+                .contains("componentKeys=com.talanlabs:avatar-generator-parent:src/Foo.java,com.talanlabs:avatar-generator-parent:src/Bar.java").doesNotContain("onComponentOnly");
+        Assertions.assertThat(sonar.takeRequest().getPath()).contains("onComponentOnly=true");
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSearchIssuesCreatedByAnalysis() throws IOException, InterruptedException {
+        settings.setProperty(GitLabPlugin.GITLAB_NEW_ISSUES_MODE, NewIssuesMode.ANALYSIS.name());
+        Ce.TaskResponse taskResponse = Ce.TaskResponse.newBuilder().setTask(Ce.Task.newBuilder().setStatus(Ce.TaskStatus.SUCCESS).setAnalysisId("AV1").build()).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(taskResponse)));
+        Components.ShowWsResponse showWsResponse = Components.ShowWsResponse.newBuilder().setComponent(Components.Component.newBuilder().setAnalysisDate("2018-03-01T10:00:00+0100").build())
+                .build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(showWsResponse)));
+        Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(0).setPs(SonarFacade.SEARCH_ISSUES_PAGE_SIZE).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.getNewIssues()).isEmpty();
+
+        Assertions.assertThat(sonar.takeRequest().getPath()).startsWith("/api/ce/task");
+        Assertions.assertThat(sonar.takeRequest().getPath()).startsWith("/api/components/show");
+        Assertions.assertThat(URLDecoder.decode(sonar.takeRequest().getPath(), "UTF-8")).startsWith("/api/issues/search").contains("createdAt=2018-03-01T10:00:00+0100");
+    }
+
+    @Test
+    public void testSearchIssuesSinceLeakPeriod() throws IOException, InterruptedException {
+        settings.setProperty(GitLabPlugin.GITLAB_NEW_ISSUES_MODE, NewIssuesMode.LEAK_PERIOD.name());
+        Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(0).setPs(SonarFacade.SEARCH_ISSUES_PAGE_SIZE).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.getNewIssues(Collections.singletonList(new File(projectDir, "src/Foo.java")))).isEmpty();
+        Assertions.assertThat(URLDecoder.decode(sonar.takeRequest().getPath(), "UTF-8")).contains("componentKeys=com.talanlabs:avatar-generator-parent&", "sinceLeakPeriod=true");
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(1);
+
+        settings.setProperty(GitLabPlugin.GITLAB_ALL_ISSUES, true);
+        Assertions.assertThat(sonarFacade.getNewIssues()).isEmpty();
+        Assertions.assertThat(sonar.takeRequest().getPath()).doesNotContain("sinceLeakPeriod");
+    }
+
+    @Test
+    public void testSearchIssuesOfPullRequest() throws IOException, InterruptedException {
+        settings.setProperty(GitLabPlugin.GITLAB_REF_NAME, "feature");
+        settings.setProperty(GitLabPlugin.GITLAB_CI_MERGE_REQUEST_IID, 12);
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/json").setBody("{\"pullRequests\":[{\"key\":\"11\"},{\"key\":\"12\"}]}"));
+        Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(0).setPs(SonarFacade.SEARCH_ISSUES_PAGE_SIZE).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.getNewIssues()).isEmpty();
+        Assertions.assertThat(sonarFacade.getAnalysisContext().getPullRequest()).isEqualTo("12");
+
+        Assertions.assertThat(sonar.takeRequest().getPath()).startsWith("/api/project_pull_requests/list?project=");
+        Assertions.assertThat(sonar.takeRequest().getPath()).startsWith("/api/issues/search").contains("pullRequest=12").doesNotContain("branch");
+    }
+
+    @Test
+    public void testPullRequestLookupRetried() throws IOException, InterruptedException {
+        settings.setProperty(GitLabPlugin.GITLAB_CI_MERGE_REQUEST_IID, 12);
+        sonar.enqueue(new MockResponse().setResponseCode(502).setBody("Bad Gateway"));
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/json").setBody("{\"pullRequests\":[{\"key\":\"12\"}]}"));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.getAnalysisContext().getPullRequest()).isEqualTo("12");
+        Assertions.assertThat(sonarFacade.getAnalysisContext().getPullRequest()).isEqualTo("12");
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(2);
+        Assertions.assertThat(postJobMetrics.getRetries(PostJobMetrics.SONARQUBE_API)).isEqualTo(1);
+        Assertions.assertThat(postJobMetrics.getHttpBytesReceived(PostJobMetrics.SONARQUBE_API)).isEqualTo("Bad Gateway".length() + "{\"pullRequests\":[{\"key\":\"12\"}]}".length());
+    }
+
+    @Test
+    public void testSearchIssuesOfBranchWithoutPullRequest() throws IOException, InterruptedException {
+        settings.setProperty(GitLabPlugin.GITLAB_REF_NAME, "feature");
+        settings.setProperty(GitLabPlugin.GITLAB_CI_MERGE_REQUEST_IID, 12);
+        sonar.enqueue(new MockResponse().setResponseCode(404).setBody("{\"errors\":[{\"msg\":\"Unknown url : /api/project_pull_requests/list\"}]}"));
+        Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(0).setPs(SonarFacade.SEARCH_ISSUES_PAGE_SIZE).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+
+        createReportTaskFile();
+
+        Assertions.assertThat(sonarFacade.getNewIssues()).isEmpty();
+        Assertions.assertThat(sonarFacade.getAnalysisContext().getPullRequest()).isNull();
+
+        sonar.takeRequest();
+        Assertions.assertThat(sonar.takeRequest().getPath()).startsWith("/api/issues/search").contains("branch=feature").doesNotContain("pullRequest");
+    }
+
+    @Test
+    public void testNewIssuesSummary() throws IOException, InterruptedException {
+        Issues.SearchWsResponse.Builder builder = Issues.SearchWsResponse.newBuilder().setTotal(1200).setPs(2)
+                .setFacets(Common.Facets.newBuilder().addFacets(Common.Facet.newBuilder().setProperty("severities")
+                        .addValues(Common.FacetValue.newBuilder().setVal("BLOCKER").setCount(200)).addValues(Common.FacetValue.newBuilder().setVal("MAJOR").setCount(1000))));
+        for (int i = 0; i < 2; i++) {
+            builder.addIssues(Issues.Issue.newBuilder().setKey("issue" + i).setSeverity(Common.Severity.BLOCKER).build());
+        }
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(builder.build())));
+
+        createReportTaskFile();
+
+        IssuesSummary issuesSummary = sonarFacade.getNewIssuesSummary(2);
+        Assertions.assertThat(issuesSummary.isComplete()).isFalse();
+        Assertions.assertThat(issuesSummary.getIssues()).extracting(Issue::getKey).containsExactly("issue0", "issue1");
+        Assertions.assertThat(issuesSummary.getCount(Severity.BLOCKER)).isEqualTo(200);
+        Assertions.assertThat(issuesSummary.getCount(Severity.MAJOR)).isEqualTo(1000);
+        Assertions.assertThat(issuesSummary.getCount(Severity.INFO)).isZero();
+
+        Assertions.assertThat(sonar.takeRequest().getPath()).startsWith("/api/issues/search").contains("facets=severities", "ps=2", "s=SEVERITY", "asc=false");
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNewIssuesSummaryCountOnly() throws IOException, InterruptedException {
+        Issues.SearchWsResponse searchWsResponse = Issues.SearchWsResponse.newBuilder().setTotal(3).setPs(1).addIssues(Issues.Issue.newBuilder().setSeverity(Common.Severity.MINOR).build())
+                .setFacets(Common.Facets.newBuilder().addFacets(Common.Facet.newBuilder().setProperty("severities").addValues(Common.FacetValue.newBuilder().setVal("MINOR").setCount(3))))
+                .build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponse)));
+
+        createReportTaskFile();
+
+        IssuesSummary issuesSummary = sonarFacade.getNewIssuesSummary(0);
+        Assertions.assertThat(issuesSummary.getIssues()).isEmpty();
+        Assertions.assertThat(issuesSummary.getCount(Severity.MINOR)).isEqualTo(3);
+        Assertions.assertThat(sonar.takeRequest().getPath()).contains("p=1", "ps=1", "facets=severities");
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBatchComponentKeys() {
+        Assertions.assertThat(SonarFacade.batchComponentKeys(Arrays.asList("a:1", "a:2", "a:3", "a:long"), 8)).containsExactly("a:1,a:2", "a:3", "a:long");
+        Assertions.assertThat(SonarFacade.batchComponentKeys(Arrays.asList("a:long_key"), 5)).containsExactly("a:long_key");
+        Assertions.assertThat(SonarFacade.batchComponentKeys(Collections.emptyList(), 5)).isEmpty();
+    }
+
     @Test
     public void test10000NewIssue() throws IOException {
         Issues.SearchWsResponse.Builder builder = Issues.SearchWsResponse.newBuilder().setTotal(20000).setPs(100);
@@ -350,6 +591,67 @@ public class SonarFacadeTest {
         Assertions.assertThat(issues).isNotNull().isNotEmpty().hasSize(44);
     }
 
+    @Test
+    public void testGetNewIssuesAsync() throws IOException, InterruptedException {
+        for (int j = 0; j < 3; j++) {
+            Issues.SearchWsResponse.Builder searchWsResponseBuilder = Issues.SearchWsResponse.newBuilder().setTotal(25).setPs(10);
+            for (int i = 0; i < (j < 2 ? 10 : 5); i++) {
+                searchWsResponseBuilder.addIssues(Issues.Issue.newBuilder().setKey("issue" + j + i).setSeverity(Common.Severity.MAJOR).build());
+            }
+            sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(searchWsResponseBuilder.build())));
+        }
+
+        createReportTaskFile();
+
+        CompletableFuture<List<Issue>> future = sonarFacade.getNewIssuesAsync();
+        Assertions.assertThat(future.join()).hasSize(25).extracting(Issue::getKey).startsWith("issue00");
+
+        Assertions.assertThat(sonar.takeRequest().getPath()).contains("p=1&");
+        Assertions.assertThat(Arrays.asList(sonar.takeRequest().getPath(), sonar.takeRequest().getPath())).anyMatch(path -> path.contains("p=2&"))
+                .anyMatch(path -> path.contains("p=3&"));
+        Assertions.assertThat(postJobMetrics.getPhaseCount("sonarqube-issues")).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetNewIssuesAsyncFailedPage() throws IOException {
+        Buffer firstPage = toBuffer(Issues.SearchWsResponse.newBuilder().setTotal(30).setPs(10).build());
+        CountDownLatch release = new CountDownLatch(1);
+        sonar.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (request.getPath().contains("p=1&")) {
+                    return new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(firstPage);
+                }
+                if (request.getPath().contains("p=2&")) {
+                    return new MockResponse().setResponseCode(404).setBody("Not Found");
+                }
+                release.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setResponseCode(404).setBody("Too late");
+            }
+        });
+
+        createReportTaskFile();
+
+        try {
+            // Failed page completes the future without waiting for the blocked one
+            CompletableFuture<List<Issue>> future = sonarFacade.getNewIssuesAsync();
+            Assertions.assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(HttpException.class)
+                    .hasMessageContaining("Not Found");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testGetRuleAsync() throws IOException {
+        Rules.ShowResponse showResponse = Rules.ShowResponse.newBuilder().setRule(Rules.Rule.newBuilder().setKey("squid:123").setName("Rule").build()).build();
+        sonar.enqueue(new MockResponse().setResponseCode(200).addHeader("Content-Type", "application/x-protobuf").setBody(toBuffer(showResponse)));
+
+        Assertions.assertThat(sonarFacade.getRuleAsync("squid:123").join().getName()).isEqualTo("Rule");
+        Assertions.assertThat(sonarFacade.getRule("squid:123").getName()).isEqualTo("Rule");
+        Assertions.assertThat(sonar.getRequestCount()).isEqualTo(1);
+    }
+
     @Test
     public void tesNoFileGetNewIssue() throws IOException {
         Issues.SearchWsResponse.Builder searchWsResponseBuilder = Issues.SearchWsResponse.newBuilder().setTotal(1).setPs(10);
@@ -374,7 +676,7 @@ public class SonarFacadeTest {
 
         createReportTaskFile();
         Assertions.assertThatThrownBy(() -> sonarFacade.getNewIssues()).isInstanceOf(HttpException.class)
-                .hasMessage("Error 404 on http://" + sonar.getHostName() + ":" + sonar.getPort() + "/api/issues/search?componentKeys=com.talanlabs:avatar-generator-parent&p=1&resolved=false : Not Found");
+                .hasMessage("Error 404 on http://" + sonar.getHostName() + ":" + sonar.getPort() + "/api/issues/search?asc=true&componentKeys=com.talanlabs:avatar-generator-parent&p=1&ps=500&resolved=false&s=FILE_LINE : Not Found");
     }
 
     @Test